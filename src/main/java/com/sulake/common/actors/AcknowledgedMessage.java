@@ -0,0 +1,19 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors;
+
+/**
+ * Envelope for a message which sender wants to be notified about once actor
+ * has processed it. Actors runtime delivers {@link #getMessage()} to
+ * {@link Actor#processMessage(Object)} and then calls {@link #acknowledge()},
+ * regardless of processing outcome.
+ *
+ * @author dmitrym
+ */
+public interface AcknowledgedMessage {
+
+    Object getMessage();
+
+    void acknowledge();
+}
@@ -3,6 +3,16 @@
  */
 package com.sulake.common.actors;
 
+import com.sulake.common.actors.scheduler.MessageScheduler;
+import com.sulake.common.actors.scheduler.ScheduledMessage;
+import com.sulake.common.actors.tracing.TraceContext;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Actor context, available only from {@link Actor#processMessage(Object)}.
  *
@@ -31,6 +41,102 @@ public class ActorContext {
         return (T) getCurrentContext().actor;
     }
 
+    /**
+     * Returns whether current thread processes message, i.e. whether it is
+     * called from {@link Actor#processMessage(Object)}.
+     */
+    public static boolean isProcessingMessage() {
+        return currentThreadContext.get() != null;
+    }
+
+    /**
+     * Returns trace of message processed in current thread, {@code null} if
+     * message is not traced or if called not from
+     * {@link Actor#processMessage(Object)}.
+     */
+    @Nullable
+    public static TraceContext getCurrentTraceContext() {
+        ActorContext context = currentThreadContext.get();
+        return context != null ? context.traceContext : null;
+    }
+
+    /**
+     * Delivers message to given actor once after delay. Timer is owned by
+     * current actor: if it is {@link SmartActor}, timer is cancelled when
+     * actor is destroyed.
+     *
+     * @throws IllegalStateException if called not from {@link Actor#processMessage(Object)}
+     *                               or if runtime has no {@link MessageScheduler}
+     * @see com.sulake.common.actors.spi.SimpleActorsRuntime#setMessageScheduler(MessageScheduler)
+     */
+    public static ScheduledMessage scheduleOnce(ActorRef actorRef, Object message, long delay, TimeUnit unit) {
+        ActorContext context = getCurrentContext();
+        return context.timerScheduled(context.getMessageScheduler().scheduleOnce(actorRef, message, delay, unit));
+    }
+
+    /**
+     * Delivers message to given actor periodically until cancelled. Timer is
+     * owned by current actor: if it is {@link SmartActor}, timer is cancelled
+     * when actor is destroyed.
+     *
+     * @throws IllegalStateException if called not from {@link Actor#processMessage(Object)}
+     *                               or if runtime has no {@link MessageScheduler}
+     */
+    public static ScheduledMessage scheduleAtFixedRate(ActorRef actorRef, Object message, long initialDelay,
+                                                       long period, TimeUnit unit) {
+        ActorContext context = getCurrentContext();
+        return context.timerScheduled(context.getMessageScheduler().scheduleAtFixedRate(actorRef, message,
+                initialDelay, period, unit));
+    }
+
+    /**
+     * Takes consecutive pending messages of given type out of mailbox of
+     * current actor, if supported by its runtime.
+     *
+     * @return number of messages added to {@code drained}; {@code 0} if
+     * called not from {@link Actor#processMessage(Object)} or if runtime
+     * doesn't support draining
+     * @see DrainableActorRef#drainPendingMessages(Class, int, List)
+     */
+    public static int drainPendingMessages(Class<?> messageType, int maxMessages, List<Object> drained) {
+        ActorContext context = currentThreadContext.get();
+        if (context == null || !(context.actorRef instanceof DrainableActorRef) || maxMessages <= 0) {
+            return 0;
+        }
+        return ((DrainableActorRef) context.actorRef).drainPendingMessages(messageType, maxMessages, drained);
+    }
+
+    /**
+     * Runs task once runtime has completely finished processing current
+     * message, i.e. when it no longer uses current actor instance, e.g. to
+     * reuse the instance. Task may run concurrently with processing of next
+     * message; tasks are not run if runtime doesn't support them.
+     *
+     * @throws IllegalStateException if called not from {@link Actor#processMessage(Object)}
+     */
+    public static void runAfterMessage(Runnable task) {
+        ActorContext context = getCurrentContext();
+        if (context.afterMessageTasks == null) {
+            context.afterMessageTasks = new ArrayList<Runnable>(1);
+        }
+        context.afterMessageTasks.add(task);
+    }
+
+    /**
+     * Returns tasks registered via {@link #runAfterMessage(Runnable)} while
+     * processing current message, for runtime to run them; MUST be called
+     * before {@link #removeCurrentContext()}.
+     */
+    public static List<Runnable> takeAfterMessageTasks() {
+        ActorContext context = currentThreadContext.get();
+        if (context == null || context.afterMessageTasks == null) {
+            return Collections.emptyList();
+        }
+        List<Runnable> tasks = context.afterMessageTasks;
+        context.afterMessageTasks = null;
+        return tasks;
+    }
+
     private static ActorContext getCurrentContext() {
         ActorContext context = currentThreadContext.get();
         if (context == null) {
@@ -40,7 +146,16 @@ public class ActorContext {
     }
 
     public static void setCurrentContext(ActorRef actorRef, Actor actor) {
-        currentThreadContext.set(new ActorContext(actorRef, actor));
+        currentThreadContext.set(new ActorContext(actorRef, actor, null, null));
+    }
+
+    public static void setCurrentContext(ActorRef actorRef, Actor actor, @Nullable TraceContext traceContext) {
+        currentThreadContext.set(new ActorContext(actorRef, actor, traceContext, null));
+    }
+
+    public static void setCurrentContext(ActorRef actorRef, Actor actor, @Nullable TraceContext traceContext,
+                                         @Nullable MessageScheduler messageScheduler) {
+        currentThreadContext.set(new ActorContext(actorRef, actor, traceContext, messageScheduler));
     }
 
     public static void removeCurrentContext() {
@@ -51,8 +166,34 @@ public class ActorContext {
 
     private final Actor actor;
 
-    private ActorContext(ActorRef actorRef, Actor actor) {
+    @Nullable
+    private final TraceContext traceContext;
+
+    @Nullable
+    private final MessageScheduler messageScheduler;
+
+    @Nullable
+    private List<Runnable> afterMessageTasks;
+
+    private ActorContext(ActorRef actorRef, Actor actor, @Nullable TraceContext traceContext,
+                         @Nullable MessageScheduler messageScheduler) {
         this.actorRef = actorRef;
         this.actor = actor;
+        this.traceContext = traceContext;
+        this.messageScheduler = messageScheduler;
+    }
+
+    private MessageScheduler getMessageScheduler() {
+        if (messageScheduler == null) {
+            throw new IllegalStateException("No MessageScheduler configured for runtime of " + actorRef);
+        }
+        return messageScheduler;
+    }
+
+    private ScheduledMessage timerScheduled(ScheduledMessage scheduledMessage) {
+        if (actor instanceof SmartActor) {
+            ((SmartActor<?>) actor).timerScheduled(scheduledMessage);
+        }
+        return scheduledMessage;
     }
 }
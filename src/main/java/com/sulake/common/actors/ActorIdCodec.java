@@ -0,0 +1,22 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads {@code actorId}s in compact binary form.
+ *
+ * @param <T> type of {@code actorId}
+ * @author dmitrym
+ * @see ActorIdCodecs
+ */
+public interface ActorIdCodec<T> {
+
+    void write(DataOutput out, T actorId) throws IOException;
+
+    T read(DataInput in) throws IOException;
+}
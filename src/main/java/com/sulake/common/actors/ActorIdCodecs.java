@@ -0,0 +1,55 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * {@link ActorIdCodec}s for common {@code actorId} types.
+ *
+ * @author dmitrym
+ */
+public final class ActorIdCodecs {
+
+    public static final ActorIdCodec<Integer> INTEGER = new ActorIdCodec<Integer>() {
+        @Override
+        public void write(DataOutput out, Integer actorId) throws IOException {
+            out.writeInt(actorId);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    public static final ActorIdCodec<Long> LONG = new ActorIdCodec<Long>() {
+        @Override
+        public void write(DataOutput out, Long actorId) throws IOException {
+            out.writeLong(actorId);
+        }
+
+        @Override
+        public Long read(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    public static final ActorIdCodec<String> STRING = new ActorIdCodec<String>() {
+        @Override
+        public void write(DataOutput out, String actorId) throws IOException {
+            out.writeUTF(actorId);
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+            return in.readUTF();
+        }
+    };
+
+    private ActorIdCodecs() {
+    }
+}
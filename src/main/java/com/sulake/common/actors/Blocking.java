@@ -0,0 +1,29 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks {@link Actor} class, or handler method next to
+ * {@link com.sulake.common.actors.dispatcher.ActorMessageHandler}, as
+ * blocking (e.g. on DB I/O). Such actors, or messages of such handlers, are
+ * processed in named bulkhead pool of the runtime instead of its main pool,
+ * so that slow I/O doesn't stall CPU-bound actors.
+ *
+ * @author dmitrym
+ * @see com.sulake.common.actors.spi.ExecutorBasedActorsRuntime#setBulkheads(java.util.Collection)
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Blocking {
+
+    /**
+     * Name of bulkhead.
+     */
+    String value();
+}
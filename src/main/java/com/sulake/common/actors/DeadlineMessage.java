@@ -0,0 +1,45 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Envelope for message with deadline. Actors runtime delivers
+ * {@link #getMessage()} to {@link Actor#processMessage(Object)} unless
+ * deadline has passed. Can wrap {@link AcknowledgedMessage} or be wrapped by
+ * it; acknowledgement is sent for expired messages too.
+ *
+ * @author dmitrym
+ */
+public final class DeadlineMessage implements ExpiringMessage {
+
+    private final Object message;
+
+    private final long deadlineNanos;
+
+    /**
+     * Creates envelope for message which expires after given timeout from
+     * now.
+     */
+    public DeadlineMessage(Object message, long timeout, TimeUnit unit) {
+        this.message = message;
+        this.deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+    }
+
+    public Object getMessage() {
+        return message;
+    }
+
+    @Override
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "DeadlineMessage{message=" + message + ", remainingMillis="
+                + TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()) + '}';
+    }
+}
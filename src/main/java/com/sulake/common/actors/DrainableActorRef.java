@@ -0,0 +1,32 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors;
+
+import java.util.List;
+
+/**
+ * {@link ActorRef} allowing actor to take further pending messages out of
+ * its own mailbox, e.g. to process backlog in batches.
+ *
+ * @author dmitrym
+ * @see ActorContext#drainPendingMessages(Class, int, List)
+ */
+public interface DrainableActorRef extends ActorRef {
+
+    /**
+     * Removes consecutive pending messages of exactly given type, following
+     * the message being processed. Wrapped messages (e.g. traced or
+     * acknowledged) are never drained and end the batch. Expired
+     * {@link ExpiringMessage}s are discarded rather than added. Drained
+     * messages are subject to the same throttling and admission control as
+     * processed ones: batch ends when delaying throttle runs out of tokens.
+     * <p/>
+     * <b>Note:</b> MUST be called only from {@link Actor#processMessage(Object)}
+     * of referenced actor.
+     *
+     * @param drained list to add drained messages to, in mailbox order
+     * @return number of messages added to {@code drained}
+     */
+    int drainPendingMessages(Class<?> messageType, int maxMessages, List<Object> drained);
+}
@@ -0,0 +1,24 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors;
+
+/**
+ * Message which is useless after deadline, e.g. because sender has timed
+ * out. Actors runtime discards such message instead of delivering it to
+ * {@link Actor#processMessage(Object)} if deadline has passed before
+ * processing starts, so that actors catch up faster with backlog.
+ * <p/>
+ * Messages can implement this interface or be wrapped in
+ * {@link DeadlineMessage}.
+ *
+ * @author dmitrym
+ * @see com.sulake.common.actors.spi.SimpleActorsRuntime#setDeadLetterHandler
+ */
+public interface ExpiringMessage {
+
+    /**
+     * Returns deadline in terms of {@link System#nanoTime()}.
+     */
+    long getDeadlineNanos();
+}
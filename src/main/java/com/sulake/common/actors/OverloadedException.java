@@ -0,0 +1,18 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors;
+
+import com.sulake.common.actors.spi.AdmissionController;
+
+/**
+ * Indicates that runtime sheds load because messages wait in queues longer
+ * than target time; unlike plain {@link TooManyPendingMessagesException}
+ * sender should back off rather than retry immediately.
+ *
+ * @author dmitrym
+ * @see AdmissionController
+ */
+@SuppressWarnings("serial")
+public class OverloadedException extends TooManyPendingMessagesException {
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors;
+
+/**
+ * Placeholder {@link ActorRef} registered by {@link SmartActors} while actor
+ * instance is being created, so that concurrent first messages for the same
+ * {@code actorId} don't create more instances. Concurrent senders wait until
+ * actual reference is bound and then send to it themselves, so that quotas
+ * of the runtime apply and rejections reach them.
+ *
+ * @author dmitrym
+ */
+final class PendingActorRef implements ActorRef {
+
+    private final Thread creatorThread = Thread.currentThread();
+
+    private ActorRef target;
+
+    private int waitingSenders;
+
+    private boolean released;
+
+    private boolean failed;
+
+    @Override
+    public void sendMessage(Object message) throws TooManyPendingMessagesException, ActorRefReleasedException {
+        awaitTarget().sendMessage(message);
+    }
+
+    @Override
+    public void release() {
+        ActorRef boundTarget;
+        synchronized (this) {
+            if (target == null) {
+                released = true;
+                notifyAll();
+                return;
+            }
+            boundTarget = target;
+        }
+        boundTarget.release();
+    }
+
+    @Override
+    public boolean releaseIfIdle() {
+        ActorRef boundTarget;
+        synchronized (this) {
+            if (target == null) {
+                if (failed || released || waitingSenders == 0) {
+                    released = true;
+                    notifyAll();
+                    return true;
+                }
+                return false;
+            }
+            boundTarget = target;
+        }
+        return boundTarget.releaseIfIdle();
+    }
+
+    /**
+     * Starts forwarding messages to actual reference and wakes up waiting
+     * senders.
+     */
+    synchronized void bind(ActorRef actorRef) {
+        target = actorRef;
+        notifyAll();
+
+        if (released) {
+            actorRef.release();
+        }
+    }
+
+    /**
+     * Signals that actor instance couldn't be created; waiting and further
+     * senders get {@link ActorRefReleasedException}.
+     */
+    synchronized void fail() {
+        failed = true;
+        notifyAll();
+    }
+
+    synchronized boolean isBoundTo(ActorRef actorRef) {
+        return actorRef.equals(target);
+    }
+
+    private synchronized ActorRef awaitTarget() {
+        if (target == null && Thread.currentThread() == creatorThread) {
+            // would wait for itself
+            throw new IllegalStateException("Actor is being created by current thread");
+        }
+        boolean interrupted = false;
+        waitingSenders++;
+        try {
+            while (target == null) {
+                if (failed || released) {
+                    throw new ActorRefReleasedException();
+                }
+                try {
+                    wait();
+                }
+                catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            return target;
+        }
+        finally {
+            waitingSenders--;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors;
+
+/**
+ * Optional interface for {@link SmartActor}s which can be reused for another
+ * {@code actorId} after they have expired.
+ * <p/>
+ * <b>Note:</b> instance is returned to the pool as soon as
+ * {@link SmartActor#processMessage(Object)} handles the ping message which
+ * caused removal, so sub-classes MUST NOT touch actor state after calling
+ * {@code super.processMessage()} for system messages.
+ *
+ * @author dmitrym
+ * @see SmartActors#setActorPoolSize(int)
+ */
+public interface RecyclableActor {
+
+    /**
+     * Resets actor state to the state of freshly created instance. Called
+     * after {@link SmartActor#destroyActor()}; after that, actor will be
+     * {@link SmartActor#initActor(Object) initialized} again with new
+     * {@code actorId}.
+     */
+    void resetActor();
+}
@@ -3,6 +3,15 @@
  */
 package com.sulake.common.actors;
 
+import com.sulake.common.actors.jfr.ActorEventSink;
+import com.sulake.common.actors.jfr.ActorEvents;
+import com.sulake.common.actors.scheduler.ScheduledMessage;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
 /**
  * Base class for "smart" {@link Actor}s. Life-cycle methods:
  * <ul>
@@ -19,36 +28,84 @@ package com.sulake.common.actors;
  */
 public abstract class SmartActor<T> implements Actor {
 
+    private static final Logger logger = Logger.getLogger(SmartActor.class);
+
     private T actorId;
 
     private SmartActors<T> parentService;
 
     private boolean initialized;
 
+    private boolean initFailed;
+
+    private int processedMessages;
+
+    private boolean removed;
+
+    /**
+     * Timers scheduled via {@link ActorContext}, created lazily; delivered
+     * one-shot timers are pruned whenever size reaches power of two.
+     */
+    private List<ScheduledMessage> timers;
+
     void bind(T actorId, SmartActors<T> parentService) {
         this.actorId = actorId;
         this.parentService = parentService;
     }
 
+    void unbind() {
+        actorId = null;
+        initialized = false;
+        initFailed = false;
+        processedMessages = 0;
+        removed = false;
+        timers = null;
+    }
+
     public T getActorId() {
         return actorId;
     }
 
     /**
-     * Handles system requests.
+     * Handles system requests. Messages queued for instance whose
+     * initialization failed are dropped.
      *
-     * @return {@code true} if {@code message} was system message
+     * @return {@code true} if {@code message} was system message or dropped
      */
     @Override
     public boolean processMessage(Object message) {
+        if (initFailed) {
+            // already reported; treated as handled so that subclasses skip it
+            if (logger.isDebugEnabled()) {
+                logger.debug(this + ": initialization failed, dropping " + message);
+            }
+            return true;
+        }
         if (!initialized) {
+            try {
+                initActor(actorId);
+            }
+            catch (RuntimeException ex) {
+                // next message for actorId creates new instance
+                initFailed = true;
+                parentService.actorInitFailed(actorId, ActorContext.getCurrentActorRef());
+                throw ex;
+            }
             initialized = true;
-            initActor(actorId);
-            return false;
         }
 
         if (message.equals(SmartActors.PING_MESSAGE)) {
             processPing();
+            if (removed) {
+                // runtime still uses this instance until message is processed
+                final SmartActors<T> service = parentService;
+                ActorContext.runAfterMessage(new Runnable() {
+                    @Override
+                    public void run() {
+                        service.recycleActor(SmartActor.this);
+                    }
+                });
+            }
             return true;
         }
 
@@ -57,11 +114,18 @@ public abstract class SmartActor<T> implements Actor {
             return true;
         }
 
+        if (message.equals(SmartActors.WARM_UP_MESSAGE)) {
+            return true;
+        }
+
+        processedMessages++;
         return false;
     }
 
     /**
      * Allows actor to perform initialization before handling business message.
+     * If it throws, actor is removed from the system without
+     * {@link #destroyActor()} and its pending messages are dropped.
      */
     protected void initActor(T actorId) {
     }
@@ -93,16 +157,51 @@ public abstract class SmartActor<T> implements Actor {
     protected final void tryToRemoveSelf() {
         preDestroy();
         if (parentService.tryToRemoveActor(actorId, ActorContext.getCurrentActorRef())) {
+            ActorEventSink eventSink = ActorEvents.getSink();
+            if (eventSink != null) {
+                eventSink.actorEvicted(getClass(), actorId, true);
+            }
+            cancelTimers();
             destroyActor();
+            removed = true;
         }
     }
 
     private void processDestroy() {
+        parentService.recordHotness(actorId, processedMessages);
         preDestroy();
+        cancelTimers();
         parentService.removeActor(actorId, ActorContext.getCurrentActorRef());
+        ActorEventSink eventSink = ActorEvents.getSink();
+        if (eventSink != null) {
+            eventSink.actorEvicted(getClass(), actorId, false);
+        }
         destroyActor();
     }
 
+    void timerScheduled(ScheduledMessage scheduledMessage) {
+        if (timers == null) {
+            timers = new ArrayList<ScheduledMessage>(4);
+        }
+        else if (timers.size() >= 16 && Integer.bitCount(timers.size()) == 1) {
+            for (Iterator<ScheduledMessage> it = timers.iterator(); it.hasNext(); ) {
+                if (it.next().isDone()) {
+                    it.remove();
+                }
+            }
+        }
+        timers.add(scheduledMessage);
+    }
+
+    private void cancelTimers() {
+        if (timers != null) {
+            for (ScheduledMessage scheduledMessage : timers) {
+                scheduledMessage.cancel();
+            }
+            timers = null;
+        }
+    }
+
     /**
      * Called before attempting to remove this actor from the system. Good place
      * for persisting state to DB.
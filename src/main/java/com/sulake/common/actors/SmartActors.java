@@ -3,8 +3,14 @@
  */
 package com.sulake.common.actors;
 
+import com.sulake.common.actors.durable.DurableMessage;
+import com.sulake.common.actors.durable.DurableMessageLog;
+import com.sulake.common.actors.jfr.ActorEventSink;
+import com.sulake.common.actors.jfr.ActorEvents;
 import com.sulake.common.actors.spi.ActorsRuntime;
+import com.sulake.common.actors.spi.GroupAwareActorsRuntime;
 import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.beans.factory.annotation.Required;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
@@ -12,10 +18,21 @@ import org.springframework.jmx.export.annotation.ManagedResource;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * "Smart" actors:
@@ -26,6 +43,8 @@ import java.util.concurrent.TimeUnit;
  * <li>Actor instances are removed from the system ("expired") based on result
  * returned by {@link SmartActor#canBeRemoved()}
  * <li>There is support for periodic ping message ({@link #setPingPeriodInMillis(long)}.
+ * <li>Resident actors can be pre-created after restart ({@link #setWarmStartFile(File)}).
+ * <li>Messages can survive JVM crash ({@link #setDurableMessageLog(DurableMessageLog)}).
  * </ul>
  *
  * @param <T> type of {@code actorId}
@@ -45,12 +64,23 @@ public class SmartActors<T> {
      */
     public static final Object DESTROY_MESSAGE = "<DIE!!!!>";
 
+    /**
+     * System message - initializes actor ahead of business messages
+     */
+    public static final Object WARM_UP_MESSAGE = "<WARM UP>";
+
     public static final long SHUTDOWN_WAIT_TIME = TimeUnit.SECONDS.toMillis(30);
 
     public static final int PREFERRED_PING_BATCH_SIZE = 100;
 
     public static final int MIN_PING_BATCH_PERIOD_IN_MILLIS = 1000;
 
+    public static final int DEFAULT_WARM_START_RATE_PER_SECOND = 1000;
+
+    private static final long REPLAY_RETRY_DELAY_IN_MILLIS = 10;
+
+    private static final long SHUTDOWN_PROGRESS_REPORT_PERIOD = TimeUnit.SECONDS.toMillis(5);
+
     private static final Logger logger = Logger.getLogger(SmartActors.class);
 
     private ActorsRuntime actorsRuntime;
@@ -61,6 +91,8 @@ public class SmartActors<T> {
 
     private long pingPeriodInMillis;
 
+    private String actorGroup;
+
     private final ConcurrentMap<T, ActorRef> actorRefById = new ConcurrentHashMap<T, ActorRef>();
 
     private Iterator<ActorRef> pingIterator = actorRefById.values().iterator();
@@ -71,6 +103,45 @@ public class SmartActors<T> {
 
     private volatile boolean stopped;
 
+    private int shutdownConcurrency;
+
+    private int shutdownRatePerSecond;
+
+    private long shutdownPhaseTimeoutInMillis = SHUTDOWN_WAIT_TIME;
+
+    private volatile Semaphore shutdownPermits;
+
+    private volatile int shutdownTotal;
+
+    private final AtomicInteger destroyedOnShutdown = new AtomicInteger();
+
+    /**
+     * Actors sent destroy message by shutdown and not destroyed yet.
+     */
+    private final Set<T> destroyingOnShutdown = Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+
+    private File warmStartFile;
+
+    private ActorIdCodec<T> actorIdCodec;
+
+    private int warmStartMaxActors;
+
+    private int warmStartRatePerSecond = DEFAULT_WARM_START_RATE_PER_SECOND;
+
+    private volatile ConcurrentMap<T, Integer> hotnessById;
+
+    private final AtomicInteger warmedUpActors = new AtomicInteger();
+
+    private BlockingQueue<SmartActor<T>> actorPool;
+
+    private final AtomicLong actorPoolHits = new AtomicLong();
+
+    private final AtomicLong actorPoolMisses = new AtomicLong();
+
+    private DurableMessageLog durableMessageLog;
+
+    private boolean pingThreadEnabled = true;
+
     @Required
     public void setActorsRuntime(ActorsRuntime actorsRuntime) {
         this.actorsRuntime = actorsRuntime;
@@ -90,26 +161,200 @@ public class SmartActors<T> {
         this.pingPeriodInMillis = pingPeriodInMillis;
     }
 
+    /**
+     * Sets logical group of actors runtime which created actors belong to,
+     * subjecting them to group's pending messages quotas.
+     *
+     * @see GroupAwareActorsRuntime#getSupportFor(Actor, String)
+     */
+    public void setActorGroup(String actorGroup) {
+        this.actorGroup = actorGroup;
+    }
+
+    /**
+     * Enables staged shutdown with given maximum number of actors being
+     * destroyed at the same time; {@code 0} (default) sends destroy message
+     * to all actors at once.
+     *
+     * @see #shutdown()
+     */
+    public void setShutdownConcurrency(int shutdownConcurrency) {
+        this.shutdownConcurrency = shutdownConcurrency;
+    }
+
+    /**
+     * Limits rate of destroy messages in staged shutdown; {@code 0} (default)
+     * means no limit.
+     */
+    public void setShutdownRatePerSecond(int shutdownRatePerSecond) {
+        this.shutdownRatePerSecond = shutdownRatePerSecond;
+    }
+
+    public void setShutdownPhaseTimeoutInMillis(long shutdownPhaseTimeoutInMillis) {
+        this.shutdownPhaseTimeoutInMillis = shutdownPhaseTimeoutInMillis;
+    }
+
+    /**
+     * Enables warm start: resident {@code actorId}s are written to given file
+     * on {@link #stop()}, hottest (by number of processed messages) first,
+     * and on {@link #start()} actors are pre-created in background.
+     * Requires {@link #setActorIdCodec(ActorIdCodec)}.
+     */
+    public void setWarmStartFile(File warmStartFile) {
+        this.warmStartFile = warmStartFile;
+    }
+
+    public void setActorIdCodec(ActorIdCodec<T> actorIdCodec) {
+        this.actorIdCodec = actorIdCodec;
+    }
+
+    /**
+     * Limits number of actors pre-created on warm start; {@code 0} (default)
+     * means no limit.
+     */
+    public void setWarmStartMaxActors(int warmStartMaxActors) {
+        this.warmStartMaxActors = warmStartMaxActors;
+    }
+
+    public void setWarmStartRatePerSecond(int warmStartRatePerSecond) {
+        this.warmStartRatePerSecond = warmStartRatePerSecond;
+    }
+
+    /**
+     * Enables recycling of expired actors implementing {@link RecyclableActor}
+     * and sets maximum number of idle instances kept for reuse; {@code 0}
+     * (default) disables recycling.
+     */
+    public void setActorPoolSize(int actorPoolSize) {
+        actorPool = actorPoolSize > 0 ? new ArrayBlockingQueue<SmartActor<T>>(actorPoolSize) : null;
+    }
+
+    /**
+     * Enables durable mailboxes: every message sent via
+     * {@link #sendMessage(Object, Object)} is first committed to given log
+     * and acknowledged there once processed by actor; messages not processed
+     * before crash (or shutdown timeout) are re-sent on {@link #start()}.
+     * Lifecycle of the log is managed by this instance.
+     */
+    public void setDurableMessageLog(DurableMessageLog durableMessageLog) {
+        this.durableMessageLog = durableMessageLog;
+    }
+
+    /**
+     * Disables internal ping thread; ping messages are then sent only by
+     * explicit {@link #runHousekeeping()} calls, e.g. from simulation with
+     * virtual clock. Enabled by default.
+     */
+    public void setPingThreadEnabled(boolean pingThreadEnabled) {
+        this.pingThreadEnabled = pingThreadEnabled;
+    }
+
     @PostConstruct
-    public synchronized void start() {
-        Thread pingThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                pingLoop();
+    public synchronized void start() throws IOException {
+        if (durableMessageLog != null) {
+            durableMessageLog.open(new DurableMessageLog.ReplayHandler() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public void onMessage(Object actorId, DurableMessage message) {
+                    replayMessage((T) actorId, message);
+                }
+            });
+        }
+
+        if (pingThreadEnabled) {
+            Thread pingThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    pingLoop();
+                }
+            }, toString());
+            pingThread.setDaemon(true);
+            pingThread.start();
+        }
+
+        final WarmStartSnapshot<T> snapshot = getWarmStartSnapshot();
+        if (snapshot != null) {
+            Thread warmUpThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        warmUp(snapshot.read(warmStartMaxActors));
+                    }
+                    catch (IOException ex) {
+                        logger.error("Failed to read " + snapshot + ", skipping warm start", ex);
+                    }
+                    catch (InterruptedException ex) {
+                        logger.error("Unexpected interruption, stopping warm start", ex);
+                    }
+                }
+            }, toString() + "-warm-up");
+            warmUpThread.setDaemon(true);
+            warmUpThread.start();
+        }
+    }
+
+    @Nullable
+    private WarmStartSnapshot<T> getWarmStartSnapshot() {
+        if (warmStartFile == null) {
+            return null;
+        }
+        if (actorIdCodec == null) {
+            throw new IllegalStateException("actorIdCodec must be specified for warm start");
+        }
+        return new WarmStartSnapshot<T>(warmStartFile, actorIdCodec);
+    }
+
+    void warmUp(List<T> actorIds) throws InterruptedException {
+        long sendIntervalInNanos = warmStartRatePerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / warmStartRatePerSecond : 0;
+        long nextSendTime = System.nanoTime();
+
+        for (T actorId : actorIds) {
+            if (stopped) {
+                return;
+            }
+            if (actorRefById.containsKey(actorId)) {
+                continue;
+            }
+
+            nextSendTime = pace(nextSendTime, sendIntervalInNanos);
+
+            try {
+                deliverMessage(actorId, WARM_UP_MESSAGE);
+                warmedUpActors.incrementAndGet();
+            }
+            catch (TooManyPendingMessagesException ex) {
+                logger.warn(this + ": runtime is overloaded, stopping warm start");
+                return;
+            }
+            catch (IllegalStateException ex) {
+                logger.warn(this + ": " + ex.getMessage() + ", stopping warm start");
+                return;
+            }
+            catch (RuntimeException ex) {
+                logger.error("Unexpected exception warming up " + actorId + ", ignoring", ex);
             }
-        }, toString());
-        pingThread.setDaemon(true);
-        pingThread.start();
+        }
+
+        logger.info(this + ": warmed up " + warmedUpActors.get() + " of " + actorIds.size() + " actors");
+    }
+
+    private static long pace(long nextSendTime, long sendIntervalInNanos) throws InterruptedException {
+        if (sendIntervalInNanos <= 0) {
+            return nextSendTime;
+        }
+        long delay = nextSendTime - System.nanoTime();
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+        return Math.max(nextSendTime, System.nanoTime() - sendIntervalInNanos) + sendIntervalInNanos;
     }
 
     private void pingLoop() {
         while (!stopped) {
-            calculateNextPingBatch();
-
-            sendPingToNextBatch();
+            long delay = runHousekeeping();
 
             try {
-                Thread.sleep(pingBatchPeriod);
+                Thread.sleep(delay);
             }
             catch (InterruptedException ex) {
                 logger.error("Unexpected interruption, ignoring", ex);
@@ -118,6 +363,19 @@ public class SmartActors<T> {
 
     }
 
+    /**
+     * Sends ping message to next batch of actors; batch size and period are
+     * chosen so that every actor is pinged about once per
+     * {@code pingPeriodInMillis}.
+     *
+     * @return delay in milliseconds until next call
+     */
+    public long runHousekeeping() {
+        calculateNextPingBatch();
+        sendPingToNextBatch();
+        return pingBatchPeriod;
+    }
+
     void calculateNextPingBatch() {
         int size = actorRefById.size();
         if (size == 0) {
@@ -138,13 +396,17 @@ public class SmartActors<T> {
     }
 
     void sendPingToNextBatch() {
+        ActorEventSink eventSink = ActorEvents.getSink();
+        long startNanos = eventSink != null ? System.nanoTime() : 0;
+        int sent = 0;
         for (int i = 0; i < pingBatchSize; i++) {
             if (!pingIterator.hasNext()) {
                 pingIterator = actorRefById.values().iterator();
                 if (!pingIterator.hasNext()) {
-                    return;
+                    break;
                 }
             }
+            sent++;
 
             try {
                 pingIterator.next().sendMessage(PING_MESSAGE);
@@ -158,24 +420,144 @@ public class SmartActors<T> {
                 logger.error("Unexpected exception when sending ping message, ignoring", ex);
             }
         }
+
+        if (eventSink != null) {
+            eventSink.pingBatch(toString(), sent, System.nanoTime() - startNanos);
+        }
     }
 
     @PreDestroy
-    public synchronized void stop() throws InterruptedException {
-        stopped = true;
+    public void stop() throws InterruptedException {
+        WarmStartSnapshot<T> snapshot = getWarmStartSnapshot();
+        if (snapshot != null) {
+            hotnessById = new ConcurrentHashMap<T, Integer>();
+        }
+
+        int notDrained = shutdown();
+        if (notDrained > 0) {
+            logger.warn(this + ": " + notDrained + " actors were not destroyed on shutdown");
+        }
+
+        if (durableMessageLog != null) {
+            durableMessageLog.close();
+        }
 
-        for (ActorRef actorRef : actorRefById.values()) {
+        if (snapshot != null) {
+            for (T actorId : actorRefById.keySet()) {
+                hotnessById.putIfAbsent(actorId, 0);
+            }
             try {
-                actorRef.sendMessage(DESTROY_MESSAGE);
-                actorRef.release();
+                snapshot.write(hotnessById);
             }
-            catch (ActorRefReleasedException ignored) {
+            catch (IOException ex) {
+                logger.error("Failed to write " + snapshot, ex);
+            }
+            hotnessById = null;
+        }
+    }
+
+    /**
+     * Stops this instance, destroying all resident actors. If shutdown
+     * concurrency is set, actors are destroyed in stages: at most
+     * {@code shutdownConcurrency} destroys are in progress at any moment,
+     * optionally limited by {@code shutdownRatePerSecond}; each stage
+     * (dispatching destroy messages, draining remaining destroys) is limited
+     * by {@code shutdownPhaseTimeoutInMillis}.
+     *
+     * @return number of actors that were not destroyed
+     * @see #setShutdownConcurrency(int)
+     */
+    public int shutdown() throws InterruptedException {
+        synchronized (this) {
+            stopped = true;
+
+            shutdownTotal = actorRefById.size();
+            destroyedOnShutdown.set(0);
+            destroyingOnShutdown.clear();
+        }
+        // staged waits don't hold monitor
+        if (shutdownConcurrency > 0) {
+            return shutdownInStages();
+        }
+
+        for (Map.Entry<T, ActorRef> entry : actorRefById.entrySet()) {
+            sendDestroyOnShutdown(entry.getKey(), entry.getValue());
+        }
+
+        long deadline = System.currentTimeMillis() + shutdownPhaseTimeoutInMillis;
+        synchronized (this) {
+            while (!actorRefById.isEmpty()) {
+                long waitTime = deadline - System.currentTimeMillis();
+                if (waitTime <= 0) {
+                    break;
+                }
+                wait(waitTime);
             }
         }
+        return actorRefById.size();
+    }
+
+    private int shutdownInStages() throws InterruptedException {
+        Semaphore permits = new Semaphore(shutdownConcurrency);
+        shutdownPermits = permits;
+
+        long sendIntervalInNanos = shutdownRatePerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / shutdownRatePerSecond : 0;
+        long nextSendTime = System.nanoTime();
+        long nextProgressReport = System.currentTimeMillis() + SHUTDOWN_PROGRESS_REPORT_PERIOD;
+        long deadline = System.currentTimeMillis() + shutdownPhaseTimeoutInMillis;
+
+        logger.info(this + ": destroying " + shutdownTotal + " actors, concurrency " + shutdownConcurrency
+                + ", rate " + (shutdownRatePerSecond > 0 ? shutdownRatePerSecond + "/s" : "unlimited"));
+
+        for (Map.Entry<T, ActorRef> entry : actorRefById.entrySet()) {
+            long waitTime = deadline - System.currentTimeMillis();
+            if (waitTime <= 0 || !permits.tryAcquire(waitTime, TimeUnit.MILLISECONDS)) {
+                logger.warn(this + ": timed out dispatching destroy messages");
+                break;
+            }
+
+            nextSendTime = pace(nextSendTime, sendIntervalInNanos);
+
+            if (!sendDestroyOnShutdown(entry.getKey(), entry.getValue())) {
+                permits.release();
+            }
 
-        if (!actorRefById.isEmpty()) {
-            wait(SHUTDOWN_WAIT_TIME);
+            if (System.currentTimeMillis() >= nextProgressReport) {
+                logger.info(this + ": destroyed " + destroyedOnShutdown.get() + " of " + shutdownTotal + " actors");
+                nextProgressReport = System.currentTimeMillis() + SHUTDOWN_PROGRESS_REPORT_PERIOD;
+            }
+        }
+
+        if (!permits.tryAcquire(shutdownConcurrency, shutdownPhaseTimeoutInMillis, TimeUnit.MILLISECONDS)) {
+            logger.warn(this + ": timed out waiting for actors to be destroyed");
         }
+
+        logger.info(this + ": destroyed " + destroyedOnShutdown.get() + " of " + shutdownTotal + " actors");
+        return actorRefById.size();
+    }
+
+    /**
+     * Sends destroy message to actor on shutdown.
+     *
+     * @return {@code true} if actor will be destroyed
+     */
+    private boolean sendDestroyOnShutdown(T actorId, ActorRef actorRef) {
+        destroyingOnShutdown.add(actorId);
+        try {
+            actorRef.sendMessage(DESTROY_MESSAGE);
+            actorRef.release();
+            return true;
+        }
+        catch (ActorRefReleasedException ignored) {
+        }
+        catch (TooManyPendingMessagesException ex) {
+            logger.warn(this + ": mailbox of " + actorId + " is full, not destroying it");
+        }
+        catch (RuntimeException ex) {
+            logger.error("Unexpected exception when sending destroy message, ignoring", ex);
+        }
+        destroyingOnShutdown.remove(actorId);
+        return false;
     }
 
     @ManagedAttribute
@@ -188,21 +570,130 @@ public class SmartActors<T> {
         return pingBatchSize;
     }
 
+    @ManagedAttribute
+    public int getActorsToDestroyOnShutdown() {
+        return shutdownTotal;
+    }
+
+    @ManagedAttribute
+    public int getDestroyedOnShutdown() {
+        return destroyedOnShutdown.get();
+    }
+
+    @ManagedAttribute
+    public int getWarmedUpActors() {
+        return warmedUpActors.get();
+    }
+
+    @ManagedAttribute
+    public int getActorPoolSize() {
+        return actorPool != null ? actorPool.size() : 0;
+    }
+
+    @ManagedAttribute
+    public long getActorPoolHits() {
+        return actorPoolHits.get();
+    }
+
+    @ManagedAttribute
+    public long getActorPoolMisses() {
+        return actorPoolMisses.get();
+    }
+
+    @ManagedAttribute
+    public double getActorPoolHitRate() {
+        long hits = actorPoolHits.get();
+        long total = hits + actorPoolMisses.get();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
     @ManagedAttribute
     public int getEstimatedSize() {
         return actorRefById.size();
     }
 
+    /**
+     * Returns live view of {@code actorId}s of currently resident actors.
+     */
+    public Set<T> getResidentActorIds() {
+        return Collections.unmodifiableSet(actorRefById.keySet());
+    }
+
+    /**
+     * Asks actor addressed by given {@code actorId} to destroy itself after
+     * processing messages already sent to it. Next message for the same
+     * {@code actorId} will create new actor instance.
+     *
+     * @return {@code true} if actor was resident
+     */
+    public boolean passivateActor(T actorId) {
+        ActorRef actorRef = actorRefById.get(actorId);
+        if (actorRef == null) {
+            return false;
+        }
+        try {
+            actorRef.sendMessage(DESTROY_MESSAGE);
+            actorRef.release();
+            return true;
+        }
+        catch (ActorRefReleasedException ignored) {
+            return false;
+        }
+    }
+
     boolean tryToRemoveActor(T actorId, ActorRef actorRef) {
         if (actorRef.releaseIfIdle()) {
-            actorRefById.remove(actorId, actorRef);
+            removeActorRef(actorId, actorRef);
             return true;
         }
         return false;
     }
 
+    void actorInitFailed(T actorId, ActorRef actorRef) {
+        removeActorRef(actorId, actorRef);
+        actorRef.release();
+        // destroy message sent by shutdown won't be processed
+        destroyedOnShutdown(actorId);
+    }
+
+    void recycleActor(SmartActor<T> actor) {
+        if (actorPool == null || !(actor instanceof RecyclableActor)) {
+            return;
+        }
+        try {
+            ((RecyclableActor) actor).resetActor();
+        }
+        catch (RuntimeException ex) {
+            logger.error("Unexpected exception resetting " + actor + ", discarding", ex);
+            return;
+        }
+        actor.unbind();
+        actorPool.offer(actor);
+    }
+
+    void recordHotness(T actorId, int processedMessages) {
+        ConcurrentMap<T, Integer> hotness = hotnessById;
+        if (hotness != null) {
+            hotness.put(actorId, processedMessages);
+        }
+    }
+
     void removeActor(T actorId, ActorRef actorRef) {
-        actorRefById.remove(actorId, actorRef);
+        removeActorRef(actorId, actorRef);
+        destroyedOnShutdown(actorId);
+    }
+
+    private void destroyedOnShutdown(T actorId) {
+        if (destroyingOnShutdown.remove(actorId)) {
+            destroyedOnShutdown.incrementAndGet();
+            // other destroys didn't take permit
+            Semaphore permits = shutdownPermits;
+            if (permits != null) {
+                permits.release();
+                return;
+            }
+        }
+
         if (actorRefById.isEmpty()) {
             synchronized (this) {
                 notify();
@@ -218,6 +709,48 @@ public class SmartActors<T> {
      * @see SmartActor#canBeRemoved()
      */
     public void sendMessage(T actorId, Object message) {
+        if (durableMessageLog == null) {
+            deliverMessage(actorId, message);
+            return;
+        }
+
+        if (stopped) {
+            throw new IllegalStateException("SmartActors are stopped");
+        }
+        DurableMessage durableMessage = durableMessageLog.append(actorId, message);
+        try {
+            deliverMessage(actorId, durableMessage);
+        }
+        catch (RuntimeException ex) {
+            // sender is notified about failure, don't replay
+            durableMessage.acknowledge();
+            throw ex;
+        }
+    }
+
+    /**
+     * Delivers message recovered from durable log, waiting while actor
+     * mailbox is full.
+     */
+    private void replayMessage(T actorId, DurableMessage message) {
+        while (true) {
+            try {
+                deliverMessage(actorId, message);
+                return;
+            }
+            catch (TooManyPendingMessagesException ex) {
+                try {
+                    Thread.sleep(REPLAY_RETRY_DELAY_IN_MILLIS);
+                }
+                catch (InterruptedException interruptedEx) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    private void deliverMessage(T actorId, Object message) {
         boolean sent = false;
         do {
             if (stopped) {
@@ -244,11 +777,73 @@ public class SmartActors<T> {
         if (actorRef != null) {
             return actorRef;
         }
-        SmartActor<T> actor = actorsFactory.getObject();
-        actor.bind(actorId, this);
-        ActorRef actorRuntime = actorsRuntime.getSupportFor(actor);
-        ActorRef concurrentActorRef = actorRefById.putIfAbsent(actorId, actorRuntime);
-        return concurrentActorRef != null ? concurrentActorRef : actorRuntime;
+
+        // register placeholder first, so that concurrent senders don't create more instances
+        PendingActorRef pendingActorRef = new PendingActorRef();
+        ActorRef concurrentActorRef = actorRefById.putIfAbsent(actorId, pendingActorRef);
+        if (concurrentActorRef != null) {
+            return concurrentActorRef;
+        }
+
+        SmartActor<T> actor;
+        ActorRef actorRuntime;
+        boolean created = false;
+        try {
+            actor = obtainActor();
+            actor.bind(actorId, this);
+            actorRuntime = createActorSupport(actor);
+            created = true;
+        }
+        finally {
+            if (!created) {
+                actorRefById.remove(actorId, pendingActorRef);
+                pendingActorRef.fail();
+            }
+        }
+
+        pendingActorRef.bind(actorRuntime);
+        actorRefById.replace(actorId, pendingActorRef, actorRuntime);
+
+        ActorEventSink eventSink = ActorEvents.getSink();
+        if (eventSink != null) {
+            eventSink.actorCreated(actor.getClass(), actorId);
+        }
+        return actorRuntime;
+    }
+
+    /**
+     * Removes mapping for given {@code actorId} if it points to given
+     * {@code actorRef} either directly or via placeholder.
+     */
+    private boolean removeActorRef(T actorId, ActorRef actorRef) {
+        if (actorRefById.remove(actorId, actorRef)) {
+            return true;
+        }
+        ActorRef currentActorRef = actorRefById.get(actorId);
+        return currentActorRef instanceof PendingActorRef && ((PendingActorRef) currentActorRef).isBoundTo(actorRef)
+                && actorRefById.remove(actorId, currentActorRef);
+    }
+
+    private SmartActor<T> obtainActor() {
+        if (actorPool != null) {
+            SmartActor<T> actor = actorPool.poll();
+            if (actor != null) {
+                actorPoolHits.incrementAndGet();
+                return actor;
+            }
+            actorPoolMisses.incrementAndGet();
+        }
+        return actorsFactory.getObject();
+    }
+
+    private ActorRef createActorSupport(SmartActor<T> actor) {
+        if (actorGroup == null) {
+            return actorsRuntime.getSupportFor(actor);
+        }
+        if (!(actorsRuntime instanceof GroupAwareActorsRuntime)) {
+            throw new IllegalStateException(actorsRuntime + " doesn't support actor groups");
+        }
+        return ((GroupAwareActorsRuntime) actorsRuntime).getSupportFor(actor, actorGroup);
     }
 
 }
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact file snapshot of resident {@code actorId}s, hottest first.
+ *
+ * @param <T> type of {@code actorId}
+ * @author dmitrym
+ * @see SmartActors#setWarmStartFile(File)
+ */
+final class WarmStartSnapshot<T> {
+
+    private static final int MAGIC = 0x46415753;
+
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    private final ActorIdCodec<T> actorIdCodec;
+
+    WarmStartSnapshot(File file, ActorIdCodec<T> actorIdCodec) {
+        this.file = file;
+        this.actorIdCodec = actorIdCodec;
+    }
+
+    /**
+     * Writes snapshot atomically, replacing previous one.
+     *
+     * @param hotnessById number of processed messages by {@code actorId}
+     */
+    void write(Map<T, Integer> hotnessById) throws IOException {
+        List<Map.Entry<T, Integer>> entries = new ArrayList<Map.Entry<T, Integer>>(hotnessById.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<T, Integer>>() {
+            @Override
+            public int compare(Map.Entry<T, Integer> o1, Map.Entry<T, Integer> o2) {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<T, Integer> entry : entries) {
+                actorIdCodec.write(out, entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            if (!file.delete() || !tempFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tempFile + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Reads up to {@code maxActors} hottest {@code actorId}s; returns
+     * empty list if there is no snapshot.
+     */
+    List<T> read(int maxActors) throws IOException {
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a warm start snapshot");
+            }
+            int size = in.readInt();
+            if (maxActors > 0) {
+                size = Math.min(size, maxActors);
+            }
+            List<T> actorIds = new ArrayList<T>(size);
+            for (int i = 0; i < size; i++) {
+                actorIds.add(actorIdCodec.read(in));
+                in.readInt();
+            }
+            return actorIds;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WarmStartSnapshot{" + file + '}';
+    }
+}
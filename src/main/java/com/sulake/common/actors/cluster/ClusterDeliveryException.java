@@ -0,0 +1,31 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.cluster;
+
+import com.sulake.common.actors.ActorException;
+
+/**
+ * Indicates failure to deliver message to a remote cluster node.
+ *
+ * @author dmitrym
+ */
+@SuppressWarnings("serial")
+public class ClusterDeliveryException extends ActorException {
+
+    private final ClusterNode node;
+
+    public ClusterDeliveryException(ClusterNode node, Throwable cause) {
+        this.node = node;
+        initCause(cause);
+    }
+
+    public ClusterNode getNode() {
+        return node;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Failed to deliver message to " + node;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.cluster;
+
+import java.io.Serializable;
+
+/**
+ * Message addressed to an actor of particular {@link ClusteredSmartActors}
+ * {@code service} on another node.
+ *
+ * @author dmitrym
+ */
+@SuppressWarnings("serial")
+public final class ClusterMessage implements Serializable {
+
+    private final String service;
+
+    private final Object actorId;
+
+    private final Object message;
+
+    private final int hops;
+
+    public ClusterMessage(String service, Object actorId, Object message, int hops) {
+        this.service = service;
+        this.actorId = actorId;
+        this.message = message;
+        this.hops = hops;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public Object getActorId() {
+        return actorId;
+    }
+
+    public Object getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns number of times this message has been forwarded between nodes.
+     */
+    public int getHops() {
+        return hops;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("ClusterMessage{");
+        sb.append("service='").append(service).append('\'');
+        sb.append(", actorId=").append(actorId);
+        sb.append(", message=").append(message);
+        sb.append(", hops=").append(hops);
+        sb.append('}');
+        return sb.toString();
+    }
+}
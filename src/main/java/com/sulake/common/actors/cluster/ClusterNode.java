@@ -0,0 +1,48 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.cluster;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+/**
+ * Member of actors cluster, identified by unique {@code id}.
+ *
+ * @author dmitrym
+ */
+@SuppressWarnings("serial")
+public final class ClusterNode implements Serializable {
+
+    private final String id;
+
+    private final InetSocketAddress address;
+
+    public ClusterNode(String id, InetSocketAddress address) {
+        this.id = id;
+        this.address = address;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof ClusterNode && id.equals(((ClusterNode) o).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return id + "@" + address;
+    }
+}
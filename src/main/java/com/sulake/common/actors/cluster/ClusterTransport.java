@@ -0,0 +1,32 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.cluster;
+
+import java.io.IOException;
+
+/**
+ * Delivers {@link ClusterMessage}s between cluster nodes.
+ *
+ * @author dmitrym
+ * @see TcpClusterTransport
+ */
+public interface ClusterTransport {
+
+    /**
+     * Receives messages arriving for particular service.
+     */
+    interface Receiver {
+        void onMessage(ClusterMessage message);
+    }
+
+    void registerReceiver(String service, Receiver receiver);
+
+    void unregisterReceiver(String service);
+
+    /**
+     * Sends message to given node. Messages sent from the same thread to the
+     * same node are delivered in order.
+     */
+    void send(ClusterNode target, ClusterMessage message) throws IOException;
+}
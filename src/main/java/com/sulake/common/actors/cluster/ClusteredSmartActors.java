@@ -0,0 +1,224 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.cluster;
+
+import com.sulake.common.actors.SmartActors;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SmartActors} spread across cluster nodes. Each {@code actorId} is
+ * owned by single node, chosen with {@link ConsistentHashRing}; messages for
+ * actors owned by other nodes are sent over {@link ClusterTransport}.
+ * <p/>
+ * On membership change, local actors now owned by other nodes are handed off:
+ * they are destroyed locally (so {@code preDestroy()} can persist their state)
+ * and re-created by new owner on next message. Messages arriving to a node
+ * which is not an owner (e.g. sent with outdated membership) are forwarded,
+ * at most {@link #setMaxHops(int) maxHops} times.
+ * <p/>
+ * <b>Note:</b> handoff doesn't wait for local destroy to complete. New owner
+ * creates the actor on first message it gets, possibly while old owner is
+ * still processing earlier messages or persisting state in
+ * {@code preDestroy()}, so two instances of the same {@code actorId} can be
+ * live on different nodes for a short time. Actors MUST tolerate such
+ * overlap, e.g. by loading state lazily and writing it with optimistic
+ * versioning; messages are delivered to one of the instances, not ordered
+ * across them.
+ *
+ * @param <T> type of {@code actorId}, its {@code hashCode()} MUST be stable
+ *            across JVMs
+ * @author dmitrym
+ */
+@ManagedResource
+public class ClusteredSmartActors<T> implements ClusterTransport.Receiver {
+
+    public static final int DEFAULT_MAX_HOPS = 3;
+
+    private static final Logger logger = Logger.getLogger(ClusteredSmartActors.class);
+
+    private String service;
+
+    private SmartActors<T> localActors;
+
+    private ClusterTransport transport;
+
+    private ClusterNode localNode;
+
+    private int maxHops = DEFAULT_MAX_HOPS;
+
+    private final ConsistentHashRing<ClusterNode> ring = new ConsistentHashRing<ClusterNode>();
+
+    private final AtomicLong localMessages = new AtomicLong();
+
+    private final AtomicLong remoteMessages = new AtomicLong();
+
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    private final AtomicLong handedOffActors = new AtomicLong();
+
+    /**
+     * Sets name identifying this group of actors across cluster nodes.
+     */
+    @Required
+    public void setService(String service) {
+        this.service = service;
+    }
+
+    @Required
+    public void setLocalActors(SmartActors<T> localActors) {
+        this.localActors = localActors;
+    }
+
+    @Required
+    public void setTransport(ClusterTransport transport) {
+        this.transport = transport;
+    }
+
+    @Required
+    public void setLocalNode(ClusterNode localNode) {
+        this.localNode = localNode;
+    }
+
+    public void setMaxHops(int maxHops) {
+        this.maxHops = maxHops;
+    }
+
+    /**
+     * Sets all cluster members, including local node, handing off actors
+     * which are now owned by other nodes.
+     */
+    public synchronized void setNodes(Collection<ClusterNode> nodes) {
+        ring.setNodes(nodes);
+        handOff();
+    }
+
+    public synchronized void addNode(ClusterNode node) {
+        ring.addNode(node);
+        handOff();
+    }
+
+    public synchronized void removeNode(ClusterNode node) {
+        ring.removeNode(node);
+        handOff();
+    }
+
+    public Collection<ClusterNode> getNodes() {
+        return ring.getNodes();
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        if (!ring.getNodes().contains(localNode)) {
+            ring.addNode(localNode);
+        }
+        transport.registerReceiver(service, this);
+    }
+
+    @PreDestroy
+    public void stop() {
+        transport.unregisterReceiver(service);
+    }
+
+    /**
+     * Sends {@code message} to actor addressed by {@code actorId}, either
+     * locally or via owner node.
+     *
+     * @throws ClusterDeliveryException if owner node can't be reached
+     * @see SmartActors#sendMessage(Object, Object)
+     */
+    public void sendMessage(T actorId, Object message) {
+        deliver(actorId, message, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void onMessage(ClusterMessage message) {
+        deliver((T) message.getActorId(), message.getMessage(), message.getHops() + 1);
+    }
+
+    private void deliver(T actorId, Object message, int hops) {
+        ClusterNode owner = ring.getNode(actorId);
+        if (owner == null || owner.equals(localNode)) {
+            localActors.sendMessage(actorId, message);
+            localMessages.incrementAndGet();
+            return;
+        }
+
+        if (hops > maxHops) {
+            droppedMessages.incrementAndGet();
+            logger.error(this + ": " + message + " for " + actorId + " exceeded " + maxHops + " hops, dropping");
+            return;
+        }
+
+        try {
+            transport.send(owner, new ClusterMessage(service, actorId, message, hops));
+            remoteMessages.incrementAndGet();
+        }
+        catch (IOException ex) {
+            throw new ClusterDeliveryException(owner, ex);
+        }
+    }
+
+    /**
+     * Destroys local actors owned by other nodes. Returns as soon as destroy
+     * messages are queued, see class description for overlap with new owner.
+     *
+     * @return number of actors handed off
+     */
+    @ManagedOperation
+    public int handOff() {
+        int handedOff = 0;
+        for (T actorId : localActors.getResidentActorIds()) {
+            ClusterNode owner = ring.getNode(actorId);
+            if (owner != null && !owner.equals(localNode) && localActors.passivateActor(actorId)) {
+                handedOff++;
+            }
+        }
+        if (handedOff > 0) {
+            handedOffActors.addAndGet(handedOff);
+            logger.info(this + ": handed off " + handedOff + " actors");
+        }
+        return handedOff;
+    }
+
+    @ManagedAttribute
+    public long getLocalMessages() {
+        return localMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getRemoteMessages() {
+        return remoteMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getHandedOffActors() {
+        return handedOffActors.get();
+    }
+
+    @ManagedAttribute
+    public String getClusterNodes() {
+        return ring.getNodes().toString();
+    }
+
+    @Override
+    public String toString() {
+        return "ClusteredSmartActors{" + service + "@" + (localNode != null ? localNode.getId() : null) + '}';
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.cluster;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Consistent-hash ring mapping keys to nodes. Each node is placed on the ring
+ * multiple times ("virtual nodes") for even distribution. Lookups are
+ * lock-free, membership changes copy the ring.
+ * <p/>
+ * Node positions are derived from {@code node.toString()}, key positions from
+ * {@code key.hashCode()}, so both MUST be stable across JVMs.
+ *
+ * @param <N> type of node
+ * @author dmitrym
+ */
+public class ConsistentHashRing<N> {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int virtualNodes;
+
+    private volatile NavigableMap<Long, N> ring = new TreeMap<Long, N>();
+
+    public ConsistentHashRing(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public ConsistentHashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    public synchronized void addNode(N node) {
+        NavigableMap<Long, N> newRing = new TreeMap<Long, N>(ring);
+        for (int i = 0; i < virtualNodes; i++) {
+            newRing.put(nodeHash(node, i), node);
+        }
+        ring = newRing;
+    }
+
+    public synchronized void removeNode(N node) {
+        NavigableMap<Long, N> newRing = new TreeMap<Long, N>(ring);
+        for (int i = 0; i < virtualNodes; i++) {
+            Long hash = nodeHash(node, i);
+            if (node.equals(newRing.get(hash))) {
+                newRing.remove(hash);
+            }
+        }
+        ring = newRing;
+    }
+
+    public synchronized void setNodes(Collection<N> nodes) {
+        NavigableMap<Long, N> newRing = new TreeMap<Long, N>();
+        for (N node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                newRing.put(nodeHash(node, i), node);
+            }
+        }
+        ring = newRing;
+    }
+
+    /**
+     * Returns node owning given key, or {@code null} if ring is empty.
+     */
+    @Nullable
+    public N getNode(Object key) {
+        NavigableMap<Long, N> currentRing = ring;
+        if (currentRing.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, N> entry = currentRing.ceilingEntry(keyHash(key));
+        return entry != null ? entry.getValue() : currentRing.firstEntry().getValue();
+    }
+
+    public Set<N> getNodes() {
+        return new HashSet<N>(ring.values());
+    }
+
+    private static long keyHash(Object key) {
+        // murmur3 finalizer, spreads poorly distributed hash codes (e.g. of Integers)
+        long h = key.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long nodeHash(Object node, int replica) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest((node + "#" + replica).getBytes(UTF8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("MD5 is not supported", ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConsistentHashRing{nodes=" + getNodes() + '}';
+    }
+}
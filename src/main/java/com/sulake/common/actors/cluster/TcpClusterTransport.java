@@ -0,0 +1,411 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.cluster;
+
+import com.sulake.common.actors.codec.BinaryFormat;
+import com.sulake.common.actors.codec.ByteBufferPool;
+import com.sulake.common.actors.codec.MessageCodec;
+import com.sulake.common.actors.codec.SerializingMessageCodec;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ClusterTransport} over plain TCP connections, one outgoing
+ * connection per target node. Messages are written as length-prefixed
+ * frames, actor ids and messages are encoded with {@link MessageCodec}
+ * (Java serialization by default) directly into pooled direct buffers.
+ *
+ * @author dmitrym
+ */
+@ManagedResource
+public class TcpClusterTransport implements ClusterTransport {
+
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private static final int FRAME_HEADER_SIZE = 4;
+
+    private static final Logger logger = Logger.getLogger(TcpClusterTransport.class);
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+
+        private Connection(InetSocketAddress address) throws IOException {
+            channel = SocketChannel.open();
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(address);
+        }
+
+        private synchronized void send(ClusterMessage message) throws IOException {
+            ByteBuffer buffer = bufferPool.acquire();
+            try {
+                while (true) {
+                    try {
+                        encodeFrame(message, buffer);
+                        break;
+                    }
+                    catch (BufferOverflowException ex) {
+                        if (buffer.capacity() >= MAX_FRAME_SIZE) {
+                            throw new IOException(message + " exceeds maximum frame size");
+                        }
+                        int newCapacity = Math.min(buffer.capacity() * 2, MAX_FRAME_SIZE);
+                        bufferPool.release(buffer);
+                        // not to release it again if allocation fails
+                        buffer = null;
+                        buffer = ByteBuffer.allocateDirect(newCapacity);
+                    }
+                }
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            finally {
+                if (buffer != null) {
+                    bufferPool.release(buffer);
+                }
+            }
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    private InetSocketAddress bindAddress;
+
+    private MessageCodec messageCodec = new SerializingMessageCodec();
+
+    private ByteBufferPool bufferPool = new ByteBufferPool();
+
+    private ServerSocketChannel serverChannel;
+
+    private final ConcurrentMap<String, Receiver> receivers = new ConcurrentHashMap<String, Receiver>();
+
+    private final ConcurrentMap<ClusterNode, Connection> connections = new ConcurrentHashMap<ClusterNode, Connection>();
+
+    private final Set<SocketChannel> inboundChannels =
+            Collections.newSetFromMap(new ConcurrentHashMap<SocketChannel, Boolean>());
+
+    private final AtomicLong sentMessages = new AtomicLong();
+
+    private final AtomicLong receivedMessages = new AtomicLong();
+
+    private final AtomicLong failedMessages = new AtomicLong();
+
+    private final AtomicLong undeliveredMessages = new AtomicLong();
+
+    private volatile boolean stopped;
+
+    public TcpClusterTransport(InetSocketAddress bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Constructor for Spring.
+     */
+    public TcpClusterTransport() {
+    }
+
+    @Required
+    public void setBindAddress(InetSocketAddress bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Sets codec for actor ids and messages, MUST be the same on all nodes.
+     */
+    public void setMessageCodec(MessageCodec messageCodec) {
+        this.messageCodec = messageCodec;
+    }
+
+    public void setBufferPool(ByteBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Returns actual address this transport listens on, useful when bound to
+     * ephemeral port.
+     */
+    public InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(bindAddress);
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, toString());
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        try {
+            serverChannel.close();
+        }
+        catch (IOException ex) {
+            logger.error("Failed to close " + serverChannel, ex);
+        }
+        for (Connection connection : connections.values()) {
+            connection.close();
+        }
+        connections.clear();
+        // reader threads exit once their channels are closed
+        for (SocketChannel channel : inboundChannels) {
+            closeQuietly(channel);
+        }
+        inboundChannels.clear();
+    }
+
+    @Override
+    public void registerReceiver(String service, Receiver receiver) {
+        if (receivers.putIfAbsent(service, receiver) != null) {
+            throw new IllegalStateException("Receiver for " + service + " is already registered");
+        }
+    }
+
+    @Override
+    public void unregisterReceiver(String service) {
+        receivers.remove(service);
+    }
+
+    @Override
+    public void send(ClusterNode target, ClusterMessage message) throws IOException {
+        Connection connection = getConnection(target);
+        try {
+            connection.send(message);
+            sentMessages.incrementAndGet();
+        }
+        catch (IOException ex) {
+            failedMessages.incrementAndGet();
+            connections.remove(target, connection);
+            connection.close();
+            throw ex;
+        }
+    }
+
+    @ManagedAttribute
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getReceivedMessages() {
+        return receivedMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getFailedMessages() {
+        return failedMessages.get();
+    }
+
+    /**
+     * Returns number of received messages which had no receiver or were
+     * rejected by it.
+     */
+    @ManagedAttribute
+    public long getUndeliveredMessages() {
+        return undeliveredMessages.get();
+    }
+
+    @ManagedAttribute
+    public int getOpenConnections() {
+        return connections.size();
+    }
+
+    @ManagedAttribute
+    public int getInboundConnections() {
+        return inboundChannels.size();
+    }
+
+    private Connection getConnection(ClusterNode target) throws IOException {
+        Connection connection = connections.get(target);
+        if (connection != null) {
+            return connection;
+        }
+        if (stopped) {
+            throw new IOException("Transport is stopped");
+        }
+
+        connection = new Connection(target.getAddress());
+        Connection concurrentConnection = connections.putIfAbsent(target, connection);
+        if (concurrentConnection != null) {
+            connection.close();
+            return concurrentConnection;
+        }
+        return connection;
+    }
+
+    private void encodeFrame(ClusterMessage message, ByteBuffer buffer) {
+        buffer.clear();
+        buffer.position(FRAME_HEADER_SIZE);
+        BinaryFormat.writeString(buffer, message.getService());
+        BinaryFormat.writeVarInt(buffer, message.getHops());
+        messageCodec.encode(message.getActorId(), buffer);
+        messageCodec.encode(message.getMessage(), buffer);
+        buffer.flip();
+        buffer.putInt(0, buffer.limit() - FRAME_HEADER_SIZE);
+    }
+
+    private ClusterMessage decodeFrame(ByteBuffer buffer) {
+        String service = BinaryFormat.readString(buffer);
+        int hops = BinaryFormat.readVarInt(buffer);
+        Object actorId = messageCodec.decode(buffer);
+        Object message = messageCodec.decode(buffer);
+        return new ClusterMessage(service, actorId, message, hops);
+    }
+
+    private void acceptLoop() {
+        while (!stopped) {
+            try {
+                final SocketChannel channel = serverChannel.accept();
+                inboundChannels.add(channel);
+                if (stopped) {
+                    // raced with stop()
+                    inboundChannels.remove(channel);
+                    closeQuietly(channel);
+                    return;
+                }
+                Thread readerThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        readLoop(channel);
+                    }
+                }, toString() + "-" + channel.socket().getRemoteSocketAddress());
+                readerThread.setDaemon(true);
+                readerThread.start();
+            }
+            catch (IOException ex) {
+                if (!stopped) {
+                    logger.error("Unexpected exception accepting connection, ignoring", ex);
+                }
+            }
+        }
+    }
+
+    private void readLoop(SocketChannel channel) {
+        SocketAddress remoteAddress = channel.socket().getRemoteSocketAddress();
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        try {
+            while (!stopped) {
+                header.clear();
+                if (!readFully(channel, header)) {
+                    return;
+                }
+                int length = header.getInt(0);
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    throw new IOException("Malformed frame length " + length);
+                }
+
+                ByteBuffer frame = length <= bufferPool.getBufferSize() ? bufferPool.acquire()
+                        : ByteBuffer.allocateDirect(length);
+                try {
+                    frame.limit(length);
+                    if (!readFully(channel, frame)) {
+                        return;
+                    }
+                    frame.flip();
+                    ClusterMessage message;
+                    try {
+                        message = decodeFrame(frame);
+                    }
+                    catch (RuntimeException ex) {
+                        failedMessages.incrementAndGet();
+                        logger.error("Failed to decode message from " + remoteAddress + ", dropping", ex);
+                        continue;
+                    }
+                    deliver(message);
+                }
+                finally {
+                    bufferPool.release(frame);
+                }
+            }
+        }
+        catch (ClosedChannelException ignored) {
+            // transport is stopping
+        }
+        catch (IOException ex) {
+            if (!stopped) {
+                logger.error("Unexpected exception reading from " + remoteAddress, ex);
+            }
+        }
+        finally {
+            inboundChannels.remove(channel);
+            closeQuietly(channel);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * @return {@code false} if peer closed connection
+     */
+    private static boolean readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void deliver(ClusterMessage message) {
+        receivedMessages.incrementAndGet();
+        Receiver receiver = receivers.get(message.getService());
+        if (receiver == null) {
+            undeliveredMessages.incrementAndGet();
+            logger.error("No receiver for " + message + ", dropping");
+            return;
+        }
+        try {
+            receiver.onMessage(message);
+        }
+        catch (RuntimeException ex) {
+            undeliveredMessages.incrementAndGet();
+            logger.error("Unexpected exception delivering " + message + ", dropping", ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TcpClusterTransport{" + bindAddress + '}';
+    }
+}
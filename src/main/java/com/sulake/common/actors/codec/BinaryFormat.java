@@ -0,0 +1,132 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.codec;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary encoding of primitive values: variable-length integers
+ * (with zig-zag encoding for signed values) and strings, written directly to
+ * {@link ByteBuffer}s without intermediate arrays.
+ *
+ * @author dmitrym
+ */
+public final class BinaryFormat {
+
+    private BinaryFormat() {
+    }
+
+    public static void writeVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    public static void writeVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varlong");
+    }
+
+    public static void writeSignedVarInt(ByteBuffer out, int value) {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    public static int readSignedVarInt(ByteBuffer in) {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void writeSignedVarLong(ByteBuffer out, long value) {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    public static long readSignedVarLong(ByteBuffer in) {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes string as number of chars followed by chars in (modified) UTF-8,
+     * {@code null} is supported.
+     */
+    public static void writeString(ByteBuffer out, @Nullable String value) {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        int length = value.length();
+        writeVarInt(out, length + 1);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c > 0 && c < 0x80) {
+                out.put((byte) c);
+            }
+            else if (c < 0x800) {
+                out.put((byte) (0xc0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3f)));
+            }
+            else {
+                out.put((byte) (0xe0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                out.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
+    @Nullable
+    public static String readString(ByteBuffer in) {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new IllegalStateException("Malformed string length " + length);
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            int b = in.get() & 0xff;
+            if (b < 0x80) {
+                chars[i] = (char) b;
+            }
+            else if (b < 0xe0) {
+                chars[i] = (char) (((b & 0x1f) << 6) | (in.get() & 0x3f));
+            }
+            else {
+                chars[i] = (char) (((b & 0x0f) << 12) | ((in.get() & 0x3f) << 6) | (in.get() & 0x3f));
+            }
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Fast {@link MessageCodec} for registered message types. Each message is
+ * written as varint type id followed by data written by type's
+ * {@link MessageSerializer}. Type ids below {@link #MIN_USER_TYPE_ID} are
+ * reserved for built-in types: {@code null}, {@link String},
+ * {@link Integer}, {@link Long}, {@link Boolean} and {@link Double}.
+ * <p/>
+ * Type ids MUST be the same on encoding and decoding side; registration is
+ * expected to happen on start-up.
+ *
+ * @author dmitrym
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+    public static final int MIN_USER_TYPE_ID = 16;
+
+    private static final int NULL_TYPE_ID = 0;
+
+    private static final class Registration {
+        private final int typeId;
+        private final MessageSerializer<Object> serializer;
+
+        private Registration(int typeId, MessageSerializer<Object> serializer) {
+            this.typeId = typeId;
+            this.serializer = serializer;
+        }
+    }
+
+    private final ConcurrentMap<Class<?>, Registration> registrationsByClass = new ConcurrentHashMap<Class<?>, Registration>();
+
+    private volatile Registration[] registrationsById = new Registration[MIN_USER_TYPE_ID * 2];
+
+    public BinaryMessageCodec() {
+        registerType(1, STRING_SERIALIZER);
+        registerType(2, INTEGER_SERIALIZER);
+        registerType(3, LONG_SERIALIZER);
+        registerType(4, BOOLEAN_SERIALIZER);
+        registerType(5, DOUBLE_SERIALIZER);
+    }
+
+    /**
+     * Registers serializers by type id, for Spring.
+     */
+    public void setSerializers(Map<Integer, MessageSerializer<?>> serializers) {
+        for (Map.Entry<Integer, MessageSerializer<?>> entry : serializers.entrySet()) {
+            register(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public void register(int typeId, MessageSerializer<?> serializer) {
+        if (typeId < MIN_USER_TYPE_ID) {
+            throw new IllegalArgumentException("Type id " + typeId + " is reserved");
+        }
+        registerType(typeId, serializer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void registerType(int typeId, MessageSerializer<?> serializer) {
+        Registration[] registrations = registrationsById;
+        if (typeId < registrations.length && registrations[typeId] != null) {
+            throw new IllegalArgumentException("Type id " + typeId + " is already used for "
+                    + registrations[typeId].serializer.getMessageType().getName());
+        }
+        Registration registration = new Registration(typeId, (MessageSerializer<Object>) serializer);
+        if (registrationsByClass.putIfAbsent(serializer.getMessageType(), registration) != null) {
+            throw new IllegalArgumentException(serializer.getMessageType().getName() + " is already registered");
+        }
+        Registration[] newRegistrations = Arrays.copyOf(registrations, Math.max(registrations.length, typeId + 1));
+        newRegistrations[typeId] = registration;
+        registrationsById = newRegistrations;
+    }
+
+    @Override
+    public void encode(Object message, ByteBuffer buffer) {
+        if (message == null) {
+            BinaryFormat.writeVarInt(buffer, NULL_TYPE_ID);
+            return;
+        }
+        Registration registration = registrationsByClass.get(message.getClass());
+        if (registration == null) {
+            throw new IllegalArgumentException("No serializer registered for " + message.getClass().getName());
+        }
+        BinaryFormat.writeVarInt(buffer, registration.typeId);
+        registration.serializer.write(message, buffer, this);
+    }
+
+    @Override
+    public Object decode(ByteBuffer buffer) {
+        int typeId = BinaryFormat.readVarInt(buffer);
+        if (typeId == NULL_TYPE_ID) {
+            return null;
+        }
+        Registration[] registrations = registrationsById;
+        if (typeId < 0 || typeId >= registrations.length || registrations[typeId] == null) {
+            throw new IllegalStateException("Unknown message type id " + typeId);
+        }
+        return registrations[typeId].serializer.read(buffer, this);
+    }
+
+    private static final MessageSerializer<String> STRING_SERIALIZER = new MessageSerializer<String>() {
+        @Override
+        public Class<String> getMessageType() {
+            return String.class;
+        }
+
+        @Override
+        public void write(String message, ByteBuffer out, MessageCodec codec) {
+            BinaryFormat.writeString(out, message);
+        }
+
+        @Override
+        public String read(ByteBuffer in, MessageCodec codec) {
+            return BinaryFormat.readString(in);
+        }
+    };
+
+    private static final MessageSerializer<Integer> INTEGER_SERIALIZER = new MessageSerializer<Integer>() {
+        @Override
+        public Class<Integer> getMessageType() {
+            return Integer.class;
+        }
+
+        @Override
+        public void write(Integer message, ByteBuffer out, MessageCodec codec) {
+            BinaryFormat.writeSignedVarInt(out, message);
+        }
+
+        @Override
+        public Integer read(ByteBuffer in, MessageCodec codec) {
+            return BinaryFormat.readSignedVarInt(in);
+        }
+    };
+
+    private static final MessageSerializer<Long> LONG_SERIALIZER = new MessageSerializer<Long>() {
+        @Override
+        public Class<Long> getMessageType() {
+            return Long.class;
+        }
+
+        @Override
+        public void write(Long message, ByteBuffer out, MessageCodec codec) {
+            BinaryFormat.writeSignedVarLong(out, message);
+        }
+
+        @Override
+        public Long read(ByteBuffer in, MessageCodec codec) {
+            return BinaryFormat.readSignedVarLong(in);
+        }
+    };
+
+    private static final MessageSerializer<Boolean> BOOLEAN_SERIALIZER = new MessageSerializer<Boolean>() {
+        @Override
+        public Class<Boolean> getMessageType() {
+            return Boolean.class;
+        }
+
+        @Override
+        public void write(Boolean message, ByteBuffer out, MessageCodec codec) {
+            out.put(message ? (byte) 1 : (byte) 0);
+        }
+
+        @Override
+        public Boolean read(ByteBuffer in, MessageCodec codec) {
+            return in.get() != 0;
+        }
+    };
+
+    private static final MessageSerializer<Double> DOUBLE_SERIALIZER = new MessageSerializer<Double>() {
+        @Override
+        public Class<Double> getMessageType() {
+            return Double.class;
+        }
+
+        @Override
+        public void write(Double message, ByteBuffer out, MessageCodec codec) {
+            out.putDouble(message);
+        }
+
+        @Override
+        public Double read(ByteBuffer in, MessageCodec codec) {
+            return in.getDouble();
+        }
+    };
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.codec;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct {@link ByteBuffer}s of the same size, to avoid costly
+ * allocation of direct memory for every encoded message.
+ *
+ * @author dmitrym
+ */
+@ManagedResource
+public class ByteBufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    public static final int DEFAULT_MAX_POOLED_BUFFERS = 64;
+
+    private final int bufferSize;
+
+    private final int maxPooledBuffers;
+
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    private final AtomicLong allocatedBuffers = new AtomicLong();
+
+    private final AtomicLong reusedBuffers = new AtomicLong();
+
+    public ByteBufferPool(int bufferSize, int maxPooledBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    public ByteBufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED_BUFFERS);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns cleared buffer of {@link #getBufferSize()} capacity.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            allocatedBuffers.incrementAndGet();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooledBuffers.decrementAndGet();
+        reusedBuffers.incrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns buffer to the pool; buffers of other sizes are ignored.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || !buffer.isDirect()) {
+            return;
+        }
+        if (pooledBuffers.incrementAndGet() > maxPooledBuffers) {
+            pooledBuffers.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+
+    @ManagedAttribute
+    public int getPooledBuffers() {
+        return pooledBuffers.get();
+    }
+
+    @ManagedAttribute
+    public long getAllocatedBuffers() {
+        return allocatedBuffers.get();
+    }
+
+    @ManagedAttribute
+    public long getReusedBuffers() {
+        return reusedBuffers.get();
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes actor messages to and decodes them from {@link ByteBuffer}s, for
+ * delivery outside of current JVM.
+ *
+ * @author dmitrym
+ * @see BinaryMessageCodec
+ * @see SerializingMessageCodec
+ */
+public interface MessageCodec {
+
+    /**
+     * Encodes {@code message} at current position of {@code buffer},
+     * advancing the position.
+     *
+     * @throws IllegalArgumentException         if message type is not supported
+     * @throws java.nio.BufferOverflowException if there is not enough room in
+     *                                          buffer
+     */
+    void encode(Object message, ByteBuffer buffer);
+
+    /**
+     * Decodes message at current position of {@code buffer}, advancing the
+     * position.
+     *
+     * @throws IllegalStateException if buffer contents is not a valid message
+     */
+    Object decode(ByteBuffer buffer);
+}
@@ -0,0 +1,23 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes and reads messages of particular type for {@link BinaryMessageCodec}.
+ * Implementations use {@link BinaryFormat} for primitive values and
+ * {@code codec} for nested messages.
+ *
+ * @param <T> message type
+ * @author dmitrym
+ */
+public interface MessageSerializer<T> {
+
+    Class<T> getMessageType();
+
+    void write(T message, ByteBuffer out, MessageCodec codec);
+
+    T read(ByteBuffer in, MessageCodec codec);
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.codec;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link MessageCodec} using Java serialization, supports any
+ * {@link Serializable} message. Each message is written as its length
+ * followed by serialized form.
+ *
+ * @author dmitrym
+ */
+public class SerializingMessageCodec implements MessageCodec {
+
+    private static final class ByteBufferOutputStream extends OutputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+    }
+
+    @Override
+    public void encode(Object message, ByteBuffer buffer) {
+        int lengthPosition = buffer.position();
+        buffer.putInt(0);
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new ByteBufferOutputStream(buffer));
+            out.writeObject(message);
+            out.flush();
+        }
+        catch (NotSerializableException ex) {
+            throw new IllegalArgumentException(message.getClass().getName() + " is not serializable", ex);
+        }
+        catch (IOException ex) {
+            throw new IllegalArgumentException("Failed to serialize " + message, ex);
+        }
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+    }
+
+    @Override
+    public Object decode(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalStateException("Malformed message length " + length);
+        }
+        ByteBuffer messageBuffer = buffer.slice();
+        messageBuffer.limit(length);
+        buffer.position(buffer.position() + length);
+        try {
+            return new ObjectInputStream(new ByteBufferInputStream(messageBuffer)).readObject();
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException("Failed to deserialize message", ex);
+        }
+        catch (ClassNotFoundException ex) {
+            throw new IllegalStateException("Failed to deserialize message", ex);
+        }
+    }
+}
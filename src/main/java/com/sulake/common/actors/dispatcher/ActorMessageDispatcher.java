@@ -4,17 +4,39 @@
 package com.sulake.common.actors.dispatcher;
 
 import com.sulake.common.actors.Actor;
+import com.sulake.common.actors.ActorContext;
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.ActorRefReleasedException;
+import com.sulake.common.actors.Blocking;
 import com.sulake.common.util.ComponentsProvider;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
 
 import javax.annotation.PostConstruct;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Dispatches requests to matching {@link ActorMessageHandler}.
+ * <p/>
+ * Handlers returning {@link ListenableFuture} are asynchronous: when future
+ * completes, {@link AsyncCompletion} is sent to the actor which processed
+ * the request, so actor can overlap I/O without holding executor thread.
+ * If handler is annotated with {@code stash = true}, other messages of that
+ * actor are stashed and dispatched in order right after the completion.
+ * <p/>
+ * Handler taking {@code List<MessageType>} receives batch: the message
+ * being dispatched together with consecutive messages of the same type
+ * pending in mailbox of the actor, up to {@code maxBatchSize}, so that
+ * backlogged actor can amortize its I/O. Batches are formed only by
+ * runtimes supporting {@link com.sulake.common.actors.DrainableActorRef}.
  *
  * @author dmitrym
  */
@@ -32,21 +54,28 @@ public class ActorMessageDispatcher {
 
         private final boolean takesActor;
 
+        private final boolean stash;
+
+        private final boolean batch;
+
         private HandlerMethodInvoker(Object handler, Method method) {
             this.handler = handler;
             this.method = method;
+            this.stash = method.getAnnotation(ActorMessageHandler.class).stash();
 
-            if (!method.getReturnType().equals(Void.TYPE)) {
-                throw new IllegalArgumentException(method.toGenericString() + ": must be void");
+            if (!method.getReturnType().equals(Void.TYPE) && !method.getReturnType().equals(ListenableFuture.class)) {
+                throw new IllegalArgumentException(method.toGenericString() + ": must be void or return "
+                        + ListenableFuture.class.getName());
             }
 
+            int messageIndex;
             if (method.getParameterTypes().length == 1) {
                 takesActor = false;
-                messageType = method.getParameterTypes()[0];
+                messageIndex = 0;
             }
             else if (method.getParameterTypes().length == 2) {
                 takesActor = true;
-                messageType = method.getParameterTypes()[1];
+                messageIndex = 1;
                 if (!method.getParameterTypes()[0].isAssignableFrom(actorClass)) {
                     throw new IllegalArgumentException(method.toGenericString() + ": first parameter must be subclass of "
                             + Actor.class.getName());
@@ -55,16 +84,35 @@ public class ActorMessageDispatcher {
             else {
                 throw new IllegalArgumentException(method.toGenericString() + ": must take 2 parameters");
             }
+
+            batch = method.getParameterTypes()[messageIndex].equals(List.class);
+            if (batch) {
+                Type listType = method.getGenericParameterTypes()[messageIndex];
+                Type elementType = listType instanceof ParameterizedType
+                        ? ((ParameterizedType) listType).getActualTypeArguments()[0] : null;
+                if (!(elementType instanceof Class)) {
+                    throw new IllegalArgumentException(method.toGenericString()
+                            + ": batch parameter must be List of message class");
+                }
+                messageType = (Class<?>) elementType;
+            }
+            else {
+                messageType = method.getParameterTypes()[messageIndex];
+            }
         }
 
         private void invokeHandlingMethod(Object actor, Object message) {
             Throwable error;
             try {
+                Object result;
                 if (takesActor) {
-                    method.invoke(handler, actor, message);
+                    result = method.invoke(handler, actor, message);
                 }
                 else {
-                    method.invoke(handler, message);
+                    result = method.invoke(handler, message);
+                }
+                if (result != null) {
+                    awaitCompletion(message, (ListenableFuture<?>) result, stash);
                 }
                 return;
             }
@@ -73,6 +121,9 @@ public class ActorMessageDispatcher {
             } catch (IllegalAccessException e) {
                 error = e;
             }
+            catch (IllegalStateException e) {
+                error = e;
+            }
             catch (InvocationTargetException e) {
                 error = e.getCause() != null ? e.getCause() : e;
             }
@@ -81,9 +132,36 @@ public class ActorMessageDispatcher {
 
     }
 
+    /**
+     * Messages of an actor waiting for completions of stashing handlers.
+     */
+    private static final class Stash {
+
+        private Deque<Object> messages = new ArrayDeque<Object>();
+
+        private int pendingCompletions;
+
+        /**
+         * Stashing completions which could not be sent to actor, e.g.
+         * because its mailbox was full; added by completing threads.
+         */
+        private final Queue<AsyncCompletion> undeliveredCompletions = new ConcurrentLinkedQueue<AsyncCompletion>();
+    }
+
+    public static final int DEFAULT_MAX_STASHED_MESSAGES = 10000;
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
     protected Class<?> actorClass;
     private Collection<?> handlers;
     private final Map<Class<?>, List<HandlerMethodInvoker>> invokersByMessageClass = new HashMap<Class<?>, List<HandlerMethodInvoker>>();
+    /**
+     * Each entry is accessed only by its actor, i.e. by one thread at a time.
+     */
+    private final Map<ActorRef, Stash> stashes = new ConcurrentHashMap<ActorRef, Stash>();
+    private int maxStashedMessages = DEFAULT_MAX_STASHED_MESSAGES;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private final Map<Class<?>, String> blockingMessageTypes = new HashMap<Class<?>, String>();
 
     @Required
     public void setActorClass(Class<?> actorClass) {
@@ -101,6 +179,22 @@ public class ActorMessageDispatcher {
         setHandlers(provider.getComponents());
     }
 
+    /**
+     * Sets maximum number of messages stashed per actor; further messages are
+     * dropped with an error, {@value #DEFAULT_MAX_STASHED_MESSAGES} by default.
+     */
+    public void setMaxStashedMessages(int maxStashedMessages) {
+        this.maxStashedMessages = maxStashedMessages;
+    }
+
+    /**
+     * Sets maximum number of messages delivered to batch handler at once,
+     * {@value #DEFAULT_MAX_BATCH_SIZE} by default.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
     @PostConstruct
     public void init() {
         if (handlers == null) {
@@ -140,6 +234,11 @@ public class ActorMessageDispatcher {
             }
             invokersForMessageType.add(invoker);
 
+            Blocking blocking = method.getAnnotation(Blocking.class);
+            if (blocking != null) {
+                blockingMessageTypes.put(invoker.messageType, blocking.value());
+            }
+
             supported = true;
         }
 
@@ -151,18 +250,168 @@ public class ActorMessageDispatcher {
      *
      * @param actor   current actor
      * @param message message to dispatch
-     * @return {@code true} if message was dispatched; {@code false}
-     * if there are no handlers for it
+     * @return {@code true} if message was dispatched or stashed;
+     * {@code false} if there are no handlers for it
      */
     public boolean dispatchMessage(Object actor, Object message) {
+        if (stashes.isEmpty()) {
+            return invokeHandlers(actor, message, true);
+        }
+
+        ActorRef actorRef = ActorContext.getCurrentActorRef();
+        dispatchUndeliveredCompletions(actor, actorRef);
+        if (message instanceof AsyncCompletion && ((AsyncCompletion) message).isStashing()) {
+            boolean dispatched = invokeHandlers(actor, message, true);
+            completionProcessed(actor, actorRef);
+            return dispatched;
+        }
+
+        Stash stash = stashes.get(actorRef);
+        if (stash == null || message instanceof AsyncCompletion) {
+            return invokeHandlers(actor, message, true);
+        }
+        if (stash.messages.size() >= maxStashedMessages) {
+            logger.error("Too many stashed messages for " + actor + ", dropping " + message);
+            return true;
+        }
+        stash.messages.add(message);
+        return true;
+    }
+
+    /**
+     * Returns bulkhead names by message types of handlers marked
+     * {@link Blocking}, for
+     * {@link com.sulake.common.actors.spi.ExecutorBasedActorsRuntime#addBlockingMessageTypes(Class, Map)}
+     * with class of actors using this dispatcher.
+     */
+    public Map<Class<?>, String> getBlockingMessageTypes() {
+        return Collections.unmodifiableMap(blockingMessageTypes);
+    }
+
+    /**
+     * Returns number of actors currently stashing messages.
+     */
+    public int getStashingActors() {
+        return stashes.size();
+    }
+
+    private boolean invokeHandlers(Object actor, Object message, boolean mayDrain) {
         Collection<HandlerMethodInvoker> invokers = invokersByMessageClass.get(message.getClass());
         if (invokers == null || invokers.isEmpty()) {
             return false;
         }
 
+        List<Object> batch = null;
         for (HandlerMethodInvoker invoker : invokers) {
-            invoker.invokeHandlingMethod(actor, message);
+            if (invoker.batch) {
+                batch = new ArrayList<Object>();
+                batch.add(message);
+                if (mayDrain) {
+                    ActorContext.drainPendingMessages(message.getClass(), maxBatchSize - 1, batch);
+                }
+                break;
+            }
+        }
+
+        for (HandlerMethodInvoker invoker : invokers) {
+            if (invoker.batch) {
+                invoker.invokeHandlingMethod(actor, batch);
+            }
+            else if (batch == null) {
+                invoker.invokeHandlingMethod(actor, message);
+            }
+            else {
+                // drained messages are delivered to non-batch handlers too
+                for (Object batchMessage : batch) {
+                    invoker.invokeHandlingMethod(actor, batchMessage);
+                }
+            }
         }
         return true;
     }
+
+    private void awaitCompletion(final Object message, ListenableFuture<?> future, final boolean stash) {
+        final ActorRef actorRef = ActorContext.getCurrentActorRef();
+        if (stash) {
+            Stash actorStash = stashes.get(actorRef);
+            if (actorStash == null) {
+                actorStash = new Stash();
+                stashes.put(actorRef, actorStash);
+            }
+            actorStash.pendingCompletions++;
+        }
+
+        future.addCallback(new ListenableFutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                sendCompletion(actorRef, new AsyncCompletion(message, result, null, stash));
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                sendCompletion(actorRef, new AsyncCompletion(message, null, cause, stash));
+            }
+        });
+    }
+
+    private void sendCompletion(ActorRef actorRef, AsyncCompletion completion) {
+        try {
+            actorRef.sendMessage(completion);
+        }
+        catch (ActorRefReleasedException e) {
+            stashes.remove(actorRef);
+            logger.warn("Actor released before " + completion);
+        }
+        catch (RuntimeException e) {
+            Stash stash = completion.isStashing() ? stashes.get(actorRef) : null;
+            if (stash != null) {
+                // otherwise stash would never be dispatched
+                stash.undeliveredCompletions.add(completion);
+                logger.warn("Failed to send " + completion + " to " + actorRef
+                        + ", delivering it before next message", e);
+            }
+            else {
+                logger.error("Failed to deliver " + completion + " to " + actorRef, e);
+            }
+        }
+    }
+
+    /**
+     * Dispatches stashing completions which failed to be sent; actor with
+     * pending stash receives further messages, since they are the ones that
+     * get stashed.
+     */
+    private void dispatchUndeliveredCompletions(Object actor, ActorRef actorRef) {
+        Stash stash = stashes.get(actorRef);
+        AsyncCompletion completion;
+        while (stash != null && (completion = stash.undeliveredCompletions.poll()) != null) {
+            invokeHandlers(actor, completion, false);
+            completionProcessed(actor, actorRef);
+            stash = stashes.get(actorRef);
+        }
+    }
+
+    /**
+     * Dispatches stashed messages once all stashing completions of actor are
+     * processed; if one of them starts stashing again, the rest stay stashed.
+     */
+    private void completionProcessed(Object actor, ActorRef actorRef) {
+        Stash stash = stashes.get(actorRef);
+        if (stash == null || --stash.pendingCompletions > 0) {
+            return;
+        }
+        stashes.remove(actorRef);
+
+        Deque<Object> stashed = stash.messages;
+        Object message;
+        while ((message = stashed.poll()) != null) {
+            // draining mailbox would overtake the rest of stashed messages
+            invokeHandlers(actor, message, false);
+            Stash newStash = stashes.get(actorRef);
+            if (newStash != null) {
+                newStash.messages = stashed;
+                return;
+            }
+        }
+    }
 }
@@ -10,10 +10,21 @@ import java.lang.annotation.Target;
 
 /**
  * Marker annotation for handlers of {@link com.sulake.common.actors.Actor} requests.
+ * <p/>
+ * Handler method is either {@code void} or asynchronous, returning
+ * {@link org.springframework.util.concurrent.ListenableFuture}: completion
+ * of the future is delivered back to the actor as {@link AsyncCompletion}.
  *
  * @author dmitrym
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface ActorMessageHandler {
+
+    /**
+     * For asynchronous handler, whether to stash other messages of the
+     * actor until {@link AsyncCompletion} is processed, so that they observe
+     * state after completion. Ignored for {@code void} handlers.
+     */
+    boolean stash() default false;
 }
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.dispatcher;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Continuation message delivered to the same actor when future returned by
+ * asynchronous {@link ActorMessageHandler} method completes. Handle it with
+ * {@link ActorMessageHandler} method taking {@code AsyncCompletion}; state
+ * of actor can be accessed safely as usual, since it is processed as any
+ * other message.
+ *
+ * @author dmitrym
+ */
+public final class AsyncCompletion {
+
+    private final Object request;
+
+    @Nullable
+    private final Object result;
+
+    @Nullable
+    private final Throwable failure;
+
+    private final boolean stashing;
+
+    AsyncCompletion(Object request, @Nullable Object result, @Nullable Throwable failure, boolean stashing) {
+        this.request = request;
+        this.result = result;
+        this.failure = failure;
+        this.stashing = stashing;
+    }
+
+    /**
+     * Returns message which handler returned the future.
+     */
+    public Object getRequest() {
+        return request;
+    }
+
+    /**
+     * Returns result of future, {@code null} if it failed.
+     */
+    @Nullable
+    public Object getResult() {
+        return result;
+    }
+
+    /**
+     * Returns failure of future, {@code null} if it succeeded.
+     */
+    @Nullable
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    boolean isStashing() {
+        return stashing;
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncCompletion{request=" + request + (failure != null ? ", failure=" + failure : ", result=" + result)
+                + '}';
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.durable;
+
+import com.sulake.common.actors.ActorException;
+
+/**
+ * Thrown when message can't be written to {@link DurableMessageLog}.
+ *
+ * @author dmitrym
+ */
+@SuppressWarnings("serial")
+public class DurableMailboxException extends ActorException {
+
+    private final String reason;
+
+    public DurableMailboxException(String reason) {
+        this.reason = reason;
+    }
+
+    public DurableMailboxException(String reason, Throwable cause) {
+        this.reason = reason;
+        initCause(cause);
+    }
+
+    @Override
+    public String getMessage() {
+        return reason;
+    }
+}
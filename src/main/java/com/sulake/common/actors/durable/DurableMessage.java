@@ -0,0 +1,46 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.durable;
+
+import com.sulake.common.actors.AcknowledgedMessage;
+
+/**
+ * Message persisted in {@link DurableMessageLog}; acknowledging it marks log
+ * record as processed, so that it is not replayed on restart.
+ *
+ * @author dmitrym
+ */
+public final class DurableMessage implements AcknowledgedMessage {
+
+    private final DurableMessageLog log;
+
+    private final long sequence;
+
+    private final Object message;
+
+    DurableMessage(DurableMessageLog log, long sequence, Object message) {
+        this.log = log;
+        this.sequence = sequence;
+        this.message = message;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public Object getMessage() {
+        return message;
+    }
+
+    @Override
+    public void acknowledge() {
+        log.acknowledge(sequence);
+    }
+
+    @Override
+    public String toString() {
+        return "DurableMessage{" + sequence + ", " + message + '}';
+    }
+}
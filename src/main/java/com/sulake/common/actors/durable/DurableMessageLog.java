@@ -0,0 +1,705 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.durable;
+
+import com.sulake.common.actors.codec.MessageCodec;
+import com.sulake.common.actors.codec.SerializingMessageCodec;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of messages pending delivery to actors, stored in
+ * memory-mapped segment files.
+ * <p/>
+ * Appending thread copies encoded record to the active segment and waits
+ * until it is forced to disk. All forces are done by single commit thread,
+ * so that records appended by concurrent threads while previous force was in
+ * progress are committed together by the next one ("group commit"); under
+ * load the cost of {@code fsync} is shared by the whole batch.
+ * <p/>
+ * Acknowledgements are written to the same log but are not waited for: if
+ * JVM crashes before acknowledgement is committed, message is replayed once
+ * more (at-least-once delivery).
+ * <p/>
+ * When active segment is full, new one is started. Segments are deleted
+ * oldest first once all their messages are acknowledged; oldest segment
+ * with only few pending messages left is compacted by copying these messages
+ * to the active segment.
+ * <p/>
+ * Record layout: {@code [int length][int crc][byte type][long sequence][payload]},
+ * where {@code length} is payload length and is written last, and payload
+ * of append records is {@code actorId} followed by message, both encoded
+ * with {@link MessageCodec}.
+ *
+ * @author dmitrym
+ * @see com.sulake.common.actors.SmartActors#setDurableMessageLog(DurableMessageLog)
+ */
+@ManagedResource
+public class DurableMessageLog {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_RECORD_SIZE = 64 * 1024;
+
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.1;
+
+    public static final long HOUSEKEEPING_PERIOD_IN_MILLIS = 1000;
+
+    static final int RECORD_HEADER_SIZE = 4 + 4 + 1 + 8;
+
+    private static final byte APPEND_RECORD = 1;
+
+    private static final byte ACKNOWLEDGE_RECORD = 2;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final Logger logger = Logger.getLogger(DurableMessageLog.class);
+
+    /**
+     * Callback for messages not acknowledged before previous shutdown.
+     */
+    public interface ReplayHandler {
+
+        void onMessage(Object actorId, DurableMessage message);
+    }
+
+    private static final class Segment {
+
+        private final long id;
+
+        private final File file;
+
+        private final MappedByteBuffer buffer;
+
+        private int position;
+
+        private int pendingMessages;
+
+        private int appendedMessages;
+
+        private boolean dirty;
+
+        private Segment(long id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public String toString() {
+            return "Segment{" + file.getName() + ", pending=" + pendingMessages + '}';
+        }
+    }
+
+    private final class RecordBuffer {
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + maxRecordSize);
+
+        private final CRC32 crc = new CRC32();
+
+        private void encode(byte type, long sequence, Object actorId, Object message) {
+            buffer.clear();
+            buffer.position(8);
+            buffer.put(type);
+            buffer.putLong(sequence);
+            if (type == APPEND_RECORD) {
+                messageCodec.encode(actorId, buffer);
+                messageCodec.encode(message, buffer);
+            }
+            buffer.flip();
+
+            crc.reset();
+            crc.update(buffer.array(), 8, buffer.limit() - 8);
+            buffer.putInt(0, buffer.limit() - RECORD_HEADER_SIZE);
+            buffer.putInt(4, (int) crc.getValue());
+        }
+    }
+
+    private File directory;
+
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+
+    private int maxRecordSize = DEFAULT_MAX_RECORD_SIZE;
+
+    private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    private MessageCodec messageCodec = new SerializingMessageCodec();
+
+    private final ThreadLocal<RecordBuffer> recordBuffer = new ThreadLocal<RecordBuffer>() {
+        @Override
+        protected RecordBuffer initialValue() {
+            return new RecordBuffer();
+        }
+    };
+
+    // guarded by this
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    // guarded by this
+    private final Map<Long, Segment> segmentBySequence = new HashMap<Long, Segment>();
+
+    // guarded by this
+    private Segment activeSegment;
+
+    // guarded by this
+    private long writtenRecords;
+
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    private final Object commitMonitor = new Object();
+
+    // guarded by commitMonitor
+    private long committedRecords;
+
+    // guarded by commitMonitor
+    private boolean commitRequested;
+
+    // guarded by commitMonitor, records up to this number were in failed commit
+    private long failedRecords;
+
+    // guarded by commitMonitor
+    private Throwable commitFailure;
+
+    private volatile boolean closed = true;
+
+    private Thread commitThread;
+
+    private final AtomicLong appendedMessages = new AtomicLong();
+
+    private final AtomicLong acknowledgedMessages = new AtomicLong();
+
+    private final AtomicLong replayedMessages = new AtomicLong();
+
+    private final AtomicLong compactedMessages = new AtomicLong();
+
+    private final AtomicLong commits = new AtomicLong();
+
+    public DurableMessageLog(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Constructor for Spring.
+     */
+    public DurableMessageLog() {
+    }
+
+    @Required
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Sets maximum size of encoded {@code actorId} and message; MUST be
+     * less than segment size.
+     */
+    public void setMaxRecordSize(int maxRecordSize) {
+        this.maxRecordSize = maxRecordSize;
+    }
+
+    /**
+     * Sets fraction of pending messages below which oldest segment is
+     * compacted; {@code 0} disables compaction.
+     */
+    public void setCompactionThreshold(double compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Sets codec for {@code actorId}s and messages; MUST NOT be changed
+     * between restarts unless log is empty.
+     */
+    public void setMessageCodec(MessageCodec messageCodec) {
+        this.messageCodec = messageCodec;
+    }
+
+    /**
+     * Recovers log from {@code directory}, starts commit thread and passes
+     * messages which were not acknowledged to {@code replayHandler}, oldest
+     * first.
+     */
+    public void open(ReplayHandler replayHandler) throws IOException {
+        if (maxRecordSize + RECORD_HEADER_SIZE > segmentSize) {
+            throw new IllegalStateException("maxRecordSize " + maxRecordSize + " doesn't fit in segment");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+
+        TreeMap<Long, byte[]> pendingPayloads = recover();
+        closed = false;
+
+        commitThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                commitLoop();
+            }
+        }, toString());
+        commitThread.setDaemon(true);
+        commitThread.start();
+
+        for (Map.Entry<Long, byte[]> entry : pendingPayloads.entrySet()) {
+            long sequence = entry.getKey();
+            Object actorId;
+            Object message;
+            try {
+                ByteBuffer payload = ByteBuffer.wrap(entry.getValue());
+                actorId = messageCodec.decode(payload);
+                message = messageCodec.decode(payload);
+            }
+            catch (RuntimeException ex) {
+                logger.error(this + ": failed to decode message " + sequence + ", dropping", ex);
+                acknowledge(sequence);
+                continue;
+            }
+            replayedMessages.incrementAndGet();
+            replayHandler.onMessage(actorId, new DurableMessage(this, sequence, message));
+        }
+    }
+
+    /**
+     * Commits all written records, stops commit thread and unmaps segments;
+     * messages which are not acknowledged yet will be replayed on next
+     * {@link #open(ReplayHandler)}.
+     * If the final commit fails, appenders still waiting for it fail with
+     * {@link DurableMailboxException}.
+     */
+    public void close() throws InterruptedException {
+        synchronized (commitMonitor) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            commitMonitor.notifyAll();
+        }
+        commitThread.join();
+        try {
+            commit();
+        }
+        finally {
+            unmapSegments();
+        }
+    }
+
+    /**
+     * Unmaps all segments and forgets pending messages, so that next
+     * {@link #open(ReplayHandler)} recovers them from files again.
+     */
+    private synchronized void unmapSegments() {
+        for (Segment segment : segments) {
+            MappedBuffers.unmap(segment.buffer);
+        }
+        segments.clear();
+        segmentBySequence.clear();
+        activeSegment = null;
+    }
+
+    /**
+     * Appends message to the log and waits until it is committed.
+     *
+     * @return message to be delivered to actor, which acknowledges log
+     *         record once processed
+     * @throws DurableMailboxException if message is too big or log can't
+     *                                 be written or committed
+     * @throws IllegalStateException   if log is closed
+     */
+    public DurableMessage append(Object actorId, Object message) {
+        long sequence = nextSequence.getAndIncrement();
+
+        RecordBuffer record = recordBuffer.get();
+        try {
+            record.encode(APPEND_RECORD, sequence, actorId, message);
+        }
+        catch (BufferOverflowException ex) {
+            throw new DurableMailboxException(message + " exceeds maximum record size " + maxRecordSize);
+        }
+
+        long recordNumber;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException(this + " is closed");
+            }
+            Segment segment = write(record.buffer);
+            segment.pendingMessages++;
+            segment.appendedMessages++;
+            segmentBySequence.put(sequence, segment);
+            recordNumber = writtenRecords;
+        }
+        appendedMessages.incrementAndGet();
+
+        awaitCommit(recordNumber);
+        return new DurableMessage(this, sequence, message);
+    }
+
+    /**
+     * Marks message as processed; acknowledging already acknowledged message
+     * has no effect.
+     */
+    void acknowledge(long sequence) {
+        RecordBuffer record = recordBuffer.get();
+        record.encode(ACKNOWLEDGE_RECORD, sequence, null, null);
+
+        synchronized (this) {
+            Segment segment = segmentBySequence.remove(sequence);
+            if (segment == null) {
+                return;
+            }
+            segment.pendingMessages--;
+            if (!closed) {
+                write(record.buffer);
+            }
+        }
+        acknowledgedMessages.incrementAndGet();
+    }
+
+    @ManagedAttribute
+    public long getAppendedMessages() {
+        return appendedMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getAcknowledgedMessages() {
+        return acknowledgedMessages.get();
+    }
+
+    @ManagedAttribute
+    public synchronized int getPendingMessages() {
+        return segmentBySequence.size();
+    }
+
+    @ManagedAttribute
+    public long getReplayedMessages() {
+        return replayedMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getCompactedMessages() {
+        return compactedMessages.get();
+    }
+
+    @ManagedAttribute
+    public synchronized int getSegments() {
+        return segments.size();
+    }
+
+    @ManagedAttribute
+    public long getCommits() {
+        return commits.get();
+    }
+
+    /**
+     * Returns average number of messages made durable by single
+     * {@code fsync}.
+     */
+    @ManagedAttribute
+    public double getAverageCommitBatchSize() {
+        long commitCount = commits.get();
+        return commitCount > 0 ? (double) appendedMessages.get() / commitCount : 0;
+    }
+
+    private void awaitCommit(long recordNumber) {
+        boolean interrupted = false;
+        synchronized (commitMonitor) {
+            if (!commitRequested) {
+                commitRequested = true;
+                commitMonitor.notifyAll();
+            }
+            while (committedRecords < recordNumber) {
+                if (failedRecords >= recordNumber) {
+                    throw new DurableMailboxException("Failed to commit " + this, commitFailure);
+                }
+                try {
+                    commitMonitor.wait(HOUSEKEEPING_PERIOD_IN_MILLIS);
+                }
+                catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            synchronized (commitMonitor) {
+                if (!commitRequested && !closed) {
+                    try {
+                        commitMonitor.wait(HOUSEKEEPING_PERIOD_IN_MILLIS);
+                    }
+                    catch (InterruptedException ex) {
+                        logger.error("Unexpected interruption, ignoring", ex);
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                commitRequested = false;
+            }
+
+            try {
+                compactOldestSegment();
+                commit();
+                deleteAcknowledgedSegments();
+            }
+            catch (RuntimeException ex) {
+                logger.error(this + ": unexpected exception in commit thread, ignoring", ex);
+            }
+        }
+    }
+
+    /**
+     * Forces all segments written since last commit and wakes up appenders
+     * waiting for their records.
+     */
+    private void commit() {
+        List<Segment> dirtySegments = new ArrayList<Segment>(2);
+        long recordNumber;
+        synchronized (this) {
+            recordNumber = writtenRecords;
+            for (Segment segment : segments) {
+                if (segment.dirty) {
+                    segment.dirty = false;
+                    dirtySegments.add(segment);
+                }
+            }
+        }
+        if (dirtySegments.isEmpty()) {
+            return;
+        }
+
+        try {
+            for (Segment segment : dirtySegments) {
+                segment.buffer.force();
+            }
+        }
+        catch (RuntimeException ex) {
+            synchronized (this) {
+                for (Segment segment : dirtySegments) {
+                    segment.dirty = true;
+                }
+            }
+            // records may still be committed by retry, but appenders can't wait for it
+            synchronized (commitMonitor) {
+                failedRecords = recordNumber;
+                commitFailure = ex;
+                commitMonitor.notifyAll();
+            }
+            throw ex;
+        }
+        commits.incrementAndGet();
+
+        synchronized (commitMonitor) {
+            committedRecords = recordNumber;
+            commitMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Writes encoded record to active segment, starting new one if it is
+     * full. Length is written last, so that partially written record is
+     * never read back.
+     */
+    private Segment write(ByteBuffer record) {
+        assert Thread.holdsLock(this);
+
+        int length = record.remaining();
+        if (activeSegment.position + length > segmentSize) {
+            try {
+                activeSegment = createSegment(activeSegment.id + 1);
+            }
+            catch (IOException ex) {
+                throw new DurableMailboxException("Failed to create segment in " + directory, ex);
+            }
+        }
+
+        Segment segment = activeSegment;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.position(segment.position + 4);
+        buffer.put(record.array(), 4, length - 4);
+        buffer.putInt(segment.position, record.getInt(0));
+        segment.position += length;
+        segment.dirty = true;
+        writtenRecords++;
+        return segment;
+    }
+
+    /**
+     * Copies pending messages of oldest segment to the active one, if there
+     * are only few of them left; old segment is deleted after copies are
+     * committed.
+     */
+    private synchronized void compactOldestSegment() {
+        if (compactionThreshold <= 0 || segments.size() < 2) {
+            return;
+        }
+        Segment segment = segments.get(0);
+        if (segment.pendingMessages == 0 || segment.pendingMessages > segment.appendedMessages * compactionThreshold) {
+            return;
+        }
+
+        ByteBuffer source = segment.buffer.duplicate();
+        ByteBuffer record = ByteBuffer.allocate(maxRecordSize + RECORD_HEADER_SIZE);
+        int position = 0;
+        while (position + RECORD_HEADER_SIZE <= segment.position) {
+            int length = source.getInt(position);
+            long sequence = source.getLong(position + 9);
+            int recordLength = RECORD_HEADER_SIZE + length;
+            if (source.get(position + 8) == APPEND_RECORD && segmentBySequence.get(sequence) == segment) {
+                record.clear();
+                source.limit(position + recordLength).position(position);
+                record.put(source).flip();
+                source.limit(source.capacity());
+
+                Segment target = write(record);
+                target.pendingMessages++;
+                target.appendedMessages++;
+                segmentBySequence.put(sequence, target);
+                segment.pendingMessages--;
+                compactedMessages.incrementAndGet();
+            }
+            position += recordLength;
+        }
+    }
+
+    private synchronized void deleteAcknowledgedSegments() {
+        // dirty segment is still to be forced
+        while (segments.size() > 1 && segments.get(0).pendingMessages == 0 && !segments.get(0).dirty) {
+            Segment segment = segments.remove(0);
+            MappedBuffers.unmap(segment.buffer);
+            if (!segment.file.delete()) {
+                logger.error(this + ": failed to delete " + segment.file);
+            }
+        }
+    }
+
+    /**
+     * Reads all segments, restoring pending messages, and starts new active
+     * segment.
+     *
+     * @return payloads of pending messages by sequence
+     */
+    private synchronized TreeMap<Long, byte[]> recover() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+
+        TreeMap<Long, byte[]> pendingPayloads = new TreeMap<Long, byte[]>();
+        Map<Long, Segment> pendingSegments = new HashMap<Long, Segment>();
+        CRC32 crc = new CRC32();
+        long maxSequence = -1;
+        long lastSegmentId = 0;
+
+        for (File file : files) {
+            long segmentId;
+            try {
+                segmentId = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+            }
+            catch (NumberFormatException ex) {
+                logger.warn(this + ": ignoring unexpected file " + file);
+                continue;
+            }
+            Segment segment = new Segment(segmentId, file, map(file, (int) file.length()));
+            segments.add(segment);
+            lastSegmentId = segmentId;
+
+            ByteBuffer buffer = segment.buffer;
+            int position = 0;
+            while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length < 0 || length == 0 && buffer.get(position + 8) == 0
+                        || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                    break;
+                }
+                byte[] data = new byte[1 + 8 + length];
+                buffer.position(position + 8);
+                buffer.get(data);
+                crc.reset();
+                crc.update(data, 0, data.length);
+                if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                    logger.warn(this + ": corrupted record at " + file + ":" + position + ", skipping rest of segment");
+                    break;
+                }
+
+                long sequence = buffer.getLong(position + 9);
+                maxSequence = Math.max(maxSequence, sequence);
+                if (data[0] == APPEND_RECORD) {
+                    segment.appendedMessages++;
+                    pendingPayloads.put(sequence, Arrays.copyOfRange(data, 9, data.length));
+                    pendingSegments.put(sequence, segment);
+                }
+                else {
+                    pendingPayloads.remove(sequence);
+                    pendingSegments.remove(sequence);
+                }
+                position += RECORD_HEADER_SIZE + length;
+            }
+            segment.position = position;
+        }
+
+        for (Map.Entry<Long, Segment> entry : pendingSegments.entrySet()) {
+            entry.getValue().pendingMessages++;
+            segmentBySequence.put(entry.getKey(), entry.getValue());
+        }
+        nextSequence.set(maxSequence + 1);
+        activeSegment = createSegment(lastSegmentId + 1);
+        deleteAcknowledgedSegments();
+
+        if (!pendingPayloads.isEmpty()) {
+            logger.info(this + ": recovered " + pendingPayloads.size() + " pending messages from "
+                    + (segments.size() - 1) + " segments");
+        }
+        return pendingPayloads;
+    }
+
+    private Segment createSegment(long id) throws IOException {
+        File file = new File(directory, String.format("%020d%s", id, SEGMENT_SUFFIX));
+        Segment segment = new Segment(id, file, map(file, segmentSize));
+        segments.add(segment);
+        return segment;
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DurableMessageLog{" + directory + '}';
+    }
+}
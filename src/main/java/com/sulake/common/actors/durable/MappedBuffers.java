@@ -0,0 +1,76 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.durable;
+
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Unmaps memory-mapped buffers eagerly, instead of leaving it to GC, so
+ * that deleted segment files don't keep occupying disk space and address
+ * space. JDK internals are looked up reflectively: {@code Unsafe.invokeCleaner}
+ * on JDK 9+, buffer's cleaner on JDK 8. If neither is accessible, unmapping
+ * is left to GC.
+ * <p/>
+ * <b>Note:</b> buffer MUST NOT be accessed after it is unmapped.
+ *
+ * @author dmitrym
+ */
+final class MappedBuffers {
+
+    private static final Logger logger = Logger.getLogger(MappedBuffers.class);
+
+    @Nullable
+    private static final Object UNSAFE;
+
+    @Nullable
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe;
+        Method invokeCleaner;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        }
+        catch (Exception ex) {
+            // JDK 8, buffer's cleaner is used instead
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private MappedBuffers() {
+    }
+
+    static void unmap(MappedByteBuffer buffer) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                return;
+            }
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method cleanMethod = cleaner.getClass().getMethod("clean");
+                cleanMethod.setAccessible(true);
+                cleanMethod.invoke(cleaner);
+            }
+        }
+        catch (Exception ex) {
+            logger.warn("Failed to unmap buffer, leaving it to GC", ex);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.ipc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Multi-producer, single-consumer ring buffer of variable-length records in
+ * a memory-mapped file, usable by several processes at once.
+ * <p/>
+ * Producers claim space by CAS on shared tail sequence, copy record and
+ * publish it by ordered write of record length. Consumer reads published
+ * records in order, zeroes consumed space and advances head sequence. Records
+ * which don't fit before the end of the buffer are preceded by padding.
+ * <p/>
+ * <b>Note:</b> a producer dying between claiming and publishing a record
+ * stalls the consumer; recreate the file in that case.
+ *
+ * @author dmitrym
+ */
+public final class MappedRingBuffer implements Closeable {
+
+    /**
+     * Consumes records.
+     */
+    public interface Handler {
+        /**
+         * @param payload record contents between position and limit, valid
+         *                only during the call
+         */
+        void onRecord(ByteBuffer payload);
+    }
+
+    private static final int MAGIC = 0x46415242;
+
+    private static final int MAGIC_OFFSET = 0;
+
+    private static final int CAPACITY_OFFSET = 4;
+
+    // head and tail on separate cache lines
+    private static final int TAIL_OFFSET = 64;
+
+    private static final int HEAD_OFFSET = 128;
+
+    private static final int HEADER_SIZE = 192;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int RECORD_ALIGNMENT = 8;
+
+    private static final int PADDING_TYPE = -1;
+
+    private static final int MESSAGE_TYPE = 1;
+
+    private static final long INITIALIZATION_TIMEOUT_IN_MILLIS = 1000;
+
+    private final File file;
+
+    private final RandomAccessFile randomAccessFile;
+
+    private final MappedByteBuffer buffer;
+
+    private final ByteBuffer readView;
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final long tailAddress;
+
+    private final long headAddress;
+
+    private final long dataAddress;
+
+    private MappedRingBuffer(File file, int capacity) throws IOException {
+        if (Integer.bitCount(capacity) != 1 || capacity < RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+        }
+        this.file = file;
+        this.capacity = capacity;
+        mask = capacity - 1;
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        boolean created = randomAccessFile.length() == 0;
+        if (created) {
+            randomAccessFile.setLength(HEADER_SIZE + capacity);
+        }
+        else if (randomAccessFile.length() != HEADER_SIZE + capacity) {
+            randomAccessFile.close();
+            throw new IOException(file + " has unexpected size " + randomAccessFile.length());
+        }
+
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        readView = buffer.duplicate();
+        long address = UnsafeAccess.address(buffer);
+        tailAddress = address + TAIL_OFFSET;
+        headAddress = address + HEAD_OFFSET;
+        dataAddress = address + HEADER_SIZE;
+
+        if (created) {
+            UnsafeAccess.putInt(address + CAPACITY_OFFSET, capacity);
+            UnsafeAccess.putOrderedInt(address + MAGIC_OFFSET, MAGIC);
+        }
+        else {
+            awaitInitialization(address);
+        }
+    }
+
+    /**
+     * Opens ring buffer in given file, creating and initializing the file if
+     * it doesn't exist. All parties MUST use the same capacity.
+     *
+     * @param capacity size of data area, power of 2
+     */
+    public static MappedRingBuffer open(File file, int capacity) throws IOException {
+        return new MappedRingBuffer(file, capacity);
+    }
+
+    private void awaitInitialization(long address) throws IOException {
+        long deadline = System.currentTimeMillis() + INITIALIZATION_TIMEOUT_IN_MILLIS;
+        while (UnsafeAccess.getIntVolatile(address + MAGIC_OFFSET) != MAGIC) {
+            if (System.currentTimeMillis() > deadline) {
+                close();
+                throw new IOException(file + " is not a ring buffer");
+            }
+            Thread.yield();
+        }
+        if (UnsafeAccess.getInt(address + CAPACITY_OFFSET) != capacity) {
+            close();
+            throw new IOException(file + " has different capacity");
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns number of bytes claimed by producers and not yet consumed.
+     */
+    public long getUsedBytes() {
+        return UnsafeAccess.getLongVolatile(tailAddress) - UnsafeAccess.getLongVolatile(headAddress);
+    }
+
+    /**
+     * Writes contents of direct {@code payload} buffer between its position and
+     * limit as single record. Safe to call from multiple threads and processes.
+     *
+     * @return {@code false} if there is not enough free space
+     * @throws IllegalArgumentException if record exceeds half of capacity
+     */
+    public boolean write(ByteBuffer payload) {
+        int length = payload.remaining();
+        int recordLength = align(RECORD_HEADER_SIZE + length);
+        // larger records might never fit together with padding
+        if (recordLength > capacity / 2) {
+            throw new IllegalArgumentException("Record of " + length + " bytes exceeds half of capacity " + capacity);
+        }
+
+        long tail;
+        int index;
+        int toEnd;
+        do {
+            tail = UnsafeAccess.getLongVolatile(tailAddress);
+            long head = UnsafeAccess.getLongVolatile(headAddress);
+            index = (int) (tail & mask);
+            toEnd = capacity - index;
+            long required = toEnd < recordLength ? toEnd + recordLength : recordLength;
+            if (tail + required - head > capacity) {
+                return false;
+            }
+            if (UnsafeAccess.compareAndSwapLong(tailAddress, tail, tail + required)) {
+                break;
+            }
+        }
+        while (true);
+
+        if (toEnd < recordLength) {
+            long paddingAddress = dataAddress + index;
+            UnsafeAccess.putInt(paddingAddress + 4, PADDING_TYPE);
+            UnsafeAccess.putOrderedInt(paddingAddress, toEnd);
+            index = 0;
+        }
+
+        long recordAddress = dataAddress + index;
+        UnsafeAccess.copyMemory(UnsafeAccess.address(payload) + payload.position(),
+                recordAddress + RECORD_HEADER_SIZE, length);
+        UnsafeAccess.putInt(recordAddress + 4, MESSAGE_TYPE);
+        UnsafeAccess.putOrderedInt(recordAddress, RECORD_HEADER_SIZE + length);
+        return true;
+    }
+
+    /**
+     * Reads up to {@code maxRecords} published records. MUST be called by
+     * single consumer only.
+     *
+     * @return number of records read
+     */
+    public int read(Handler handler, int maxRecords) {
+        int records = 0;
+        while (records < maxRecords) {
+            long head = UnsafeAccess.getLong(headAddress);
+            int index = (int) (head & mask);
+            long recordAddress = dataAddress + index;
+            int length = UnsafeAccess.getIntVolatile(recordAddress);
+            if (length == 0) {
+                break;
+            }
+
+            int recordLength = align(length);
+            try {
+                if (UnsafeAccess.getInt(recordAddress + 4) == MESSAGE_TYPE) {
+                    records++;
+                    readView.clear();
+                    readView.position(HEADER_SIZE + index + RECORD_HEADER_SIZE);
+                    readView.limit(HEADER_SIZE + index + length);
+                    handler.onRecord(readView);
+                }
+            }
+            finally {
+                UnsafeAccess.setMemory(recordAddress, recordLength, (byte) 0);
+                UnsafeAccess.putOrderedLong(headAddress, head + recordLength);
+            }
+        }
+        return records;
+    }
+
+    private static int align(int length) {
+        return (length + RECORD_ALIGNMENT - 1) & ~(RECORD_ALIGNMENT - 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    @Override
+    public String toString() {
+        return "MappedRingBuffer{" + file + ", capacity=" + capacity + '}';
+    }
+}
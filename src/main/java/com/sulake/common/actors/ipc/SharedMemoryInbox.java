@@ -0,0 +1,186 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.ipc;
+
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.codec.BinaryFormat;
+import com.sulake.common.actors.codec.BinaryMessageCodec;
+import com.sulake.common.actors.codec.MessageCodec;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Receiving side of shared-memory transport between co-located JVMs: polls
+ * {@link MappedRingBuffer} and delivers messages to local {@link ActorRef}s
+ * registered by name. Other JVMs send messages via
+ * {@link SharedMemoryOutbox} mapping the same file.
+ *
+ * @author dmitrym
+ */
+@ManagedResource
+public class SharedMemoryInbox implements MappedRingBuffer.Handler {
+
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    private static final int READ_BATCH_SIZE = 256;
+
+    private static final int SPIN_ITERATIONS = 1000;
+
+    private static final int YIELD_ITERATIONS = 1100;
+
+    private static final long PARK_TIME_IN_NANOS = 50000;
+
+    private static final Logger logger = Logger.getLogger(SharedMemoryInbox.class);
+
+    private File file;
+
+    private int capacity = DEFAULT_CAPACITY;
+
+    private MessageCodec messageCodec = new BinaryMessageCodec();
+
+    private final ConcurrentMap<String, ActorRef> actorRefs = new ConcurrentHashMap<String, ActorRef>();
+
+    private MappedRingBuffer ringBuffer;
+
+    private volatile boolean stopped;
+
+    private final AtomicLong receivedMessages = new AtomicLong();
+
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    @Required
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Sets codec of messages, {@link BinaryMessageCodec} by default. MUST be
+     * configured the same way as codec of the other side.
+     */
+    public void setMessageCodec(MessageCodec messageCodec) {
+        this.messageCodec = messageCodec;
+    }
+
+    /**
+     * Makes given actor reachable from other JVMs by {@code name}.
+     *
+     * @see SharedMemoryOutbox#getActorRef(String)
+     */
+    public void register(String name, ActorRef actorRef) {
+        if (actorRefs.putIfAbsent(name, actorRef) != null) {
+            throw new IllegalStateException(name + " is already registered");
+        }
+    }
+
+    public void unregister(String name) {
+        actorRefs.remove(name);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        ringBuffer = MappedRingBuffer.open(file, capacity);
+
+        Thread pollThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pollLoop();
+            }
+        }, toString());
+        pollThread.setDaemon(true);
+        pollThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+    }
+
+    private void pollLoop() {
+        int idleIterations = 0;
+        while (!stopped) {
+            if (ringBuffer.read(this, READ_BATCH_SIZE) > 0) {
+                idleIterations = 0;
+            }
+            else if (++idleIterations > YIELD_ITERATIONS) {
+                LockSupport.parkNanos(PARK_TIME_IN_NANOS);
+            }
+            else if (idleIterations > SPIN_ITERATIONS) {
+                Thread.yield();
+            }
+        }
+
+        try {
+            ringBuffer.close();
+        }
+        catch (IOException ex) {
+            logger.error("Failed to close " + ringBuffer, ex);
+        }
+    }
+
+    @Override
+    public void onRecord(ByteBuffer payload) {
+        receivedMessages.incrementAndGet();
+        String name;
+        Object message;
+        try {
+            name = BinaryFormat.readString(payload);
+            message = messageCodec.decode(payload);
+        }
+        catch (RuntimeException ex) {
+            droppedMessages.incrementAndGet();
+            logger.error(this + ": failed to decode message, dropping", ex);
+            return;
+        }
+
+        ActorRef actorRef = actorRefs.get(name);
+        if (actorRef == null) {
+            droppedMessages.incrementAndGet();
+            logger.error(this + ": no actor registered as " + name + ", dropping " + message);
+            return;
+        }
+        try {
+            actorRef.sendMessage(message);
+        }
+        catch (RuntimeException ex) {
+            droppedMessages.incrementAndGet();
+            logger.error(this + ": failed to deliver " + message + " to " + name + ", dropping", ex);
+        }
+    }
+
+    @ManagedAttribute
+    public long getReceivedMessages() {
+        return receivedMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getPendingBytes() {
+        return ringBuffer.getUsedBytes();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedMemoryInbox{" + file + '}';
+    }
+}
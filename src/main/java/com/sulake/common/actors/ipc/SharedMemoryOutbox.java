@@ -0,0 +1,173 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.ipc;
+
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.ActorRefReleasedException;
+import com.sulake.common.actors.TooManyPendingMessagesException;
+import com.sulake.common.actors.codec.BinaryFormat;
+import com.sulake.common.actors.codec.BinaryMessageCodec;
+import com.sulake.common.actors.codec.MessageCodec;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sending side of shared-memory transport between co-located JVMs: provides
+ * {@link ActorRef} proxies for actors registered in {@link SharedMemoryInbox}
+ * of another JVM mapping the same file. Messages are encoded into
+ * thread-local direct buffers and copied into the ring.
+ *
+ * @author dmitrym
+ */
+@ManagedResource
+public class SharedMemoryOutbox {
+
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 16 * 1024;
+
+    private final class RemoteActorRef implements ActorRef {
+
+        private final String name;
+
+        private volatile boolean released;
+
+        private RemoteActorRef(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void sendMessage(Object message) throws TooManyPendingMessagesException, ActorRefReleasedException {
+            if (released) {
+                throw new ActorRefReleasedException();
+            }
+            send(name, message);
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+
+        @Override
+        public boolean releaseIfIdle() {
+            release();
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "RemoteActorRef{" + name + "@" + file + '}';
+        }
+    }
+
+    private File file;
+
+    private int capacity = SharedMemoryInbox.DEFAULT_CAPACITY;
+
+    private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+
+    private MessageCodec messageCodec = new BinaryMessageCodec();
+
+    private final ThreadLocal<ByteBuffer> encodeBuffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(maxMessageSize);
+        }
+    };
+
+    private MappedRingBuffer ringBuffer;
+
+    private volatile boolean stopped = true;
+
+    private final AtomicLong sentMessages = new AtomicLong();
+
+    private final AtomicLong rejectedMessages = new AtomicLong();
+
+    @Required
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void setMaxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Sets codec of messages, {@link BinaryMessageCodec} by default. MUST be
+     * configured the same way as codec of the other side.
+     */
+    public void setMessageCodec(MessageCodec messageCodec) {
+        this.messageCodec = messageCodec;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        ringBuffer = MappedRingBuffer.open(file, capacity);
+        stopped = false;
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        stopped = true;
+        ringBuffer.close();
+    }
+
+    /**
+     * Returns proxy for actor registered by {@code name} in receiving JVM.
+     * {@link ActorRef#sendMessage(Object)} throws
+     * {@link TooManyPendingMessagesException} if the ring is full.
+     */
+    public ActorRef getActorRef(String name) {
+        return new RemoteActorRef(name);
+    }
+
+    private void send(String name, Object message) {
+        if (stopped) {
+            throw new IllegalStateException(this + " is stopped");
+        }
+        ByteBuffer buffer = encodeBuffers.get();
+        buffer.clear();
+        try {
+            BinaryFormat.writeString(buffer, name);
+            messageCodec.encode(message, buffer);
+        }
+        catch (BufferOverflowException ex) {
+            throw new IllegalArgumentException(message + " exceeds maximum message size " + maxMessageSize, ex);
+        }
+        buffer.flip();
+
+        if (!ringBuffer.write(buffer)) {
+            rejectedMessages.incrementAndGet();
+            throw new TooManyPendingMessagesException();
+        }
+        sentMessages.incrementAndGet();
+    }
+
+    @ManagedAttribute
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getRejectedMessages() {
+        return rejectedMessages.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedMemoryOutbox{" + file + '}';
+    }
+}
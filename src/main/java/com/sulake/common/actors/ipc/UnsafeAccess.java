@@ -0,0 +1,204 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.ipc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Ordered and atomic operations on native memory shared between processes,
+ * which {@link ByteBuffer} doesn't provide. Delegates to
+ * {@code sun.misc.Unsafe} through method handles bound on class
+ * initialization, so that the proprietary type is not referenced at compile
+ * time; handles are constants and inlined by JIT.
+ *
+ * @author dmitrym
+ */
+final class UnsafeAccess {
+
+    private static final MethodHandle GET_INT;
+
+    private static final MethodHandle PUT_INT;
+
+    private static final MethodHandle GET_INT_VOLATILE;
+
+    private static final MethodHandle PUT_ORDERED_INT;
+
+    private static final MethodHandle GET_LONG;
+
+    private static final MethodHandle GET_LONG_VOLATILE;
+
+    private static final MethodHandle PUT_ORDERED_LONG;
+
+    private static final MethodHandle COMPARE_AND_SWAP_LONG;
+
+    private static final MethodHandle COPY_MEMORY;
+
+    private static final MethodHandle SET_MEMORY;
+
+    private static final MethodHandle GET_OBJECT_LONG;
+
+    /**
+     * Offset of {@code Buffer.address}, read through Unsafe so that the field
+     * doesn't need to be made accessible.
+     */
+    private static final long BUFFER_ADDRESS_OFFSET;
+
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+
+            GET_INT = bind(unsafe, unsafeClass.getMethod("getInt", long.class));
+            PUT_INT = bind(unsafe, unsafeClass.getMethod("putInt", long.class, int.class));
+            GET_INT_VOLATILE = bind(unsafe, unsafeClass.getMethod("getIntVolatile", Object.class, long.class));
+            PUT_ORDERED_INT = bind(unsafe, unsafeClass.getMethod("putOrderedInt", Object.class, long.class, int.class));
+            GET_LONG = bind(unsafe, unsafeClass.getMethod("getLong", long.class));
+            GET_LONG_VOLATILE = bind(unsafe, unsafeClass.getMethod("getLongVolatile", Object.class, long.class));
+            PUT_ORDERED_LONG = bind(unsafe, unsafeClass.getMethod("putOrderedLong", Object.class, long.class, long.class));
+            COMPARE_AND_SWAP_LONG = bind(unsafe, unsafeClass.getMethod("compareAndSwapLong",
+                    Object.class, long.class, long.class, long.class));
+            COPY_MEMORY = bind(unsafe, unsafeClass.getMethod("copyMemory", long.class, long.class, long.class));
+            SET_MEMORY = bind(unsafe, unsafeClass.getMethod("setMemory", long.class, long.class, byte.class));
+
+            GET_OBJECT_LONG = bind(unsafe, unsafeClass.getMethod("getLong", Object.class, long.class));
+            MethodHandle objectFieldOffset = bind(unsafe, unsafeClass.getMethod("objectFieldOffset", Field.class));
+            BUFFER_ADDRESS_OFFSET = (long) objectFieldOffset.invokeExact(Buffer.class.getDeclaredField("address"));
+        }
+        catch (Throwable ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private UnsafeAccess() {
+    }
+
+    private static MethodHandle bind(Object unsafe, Method method) throws IllegalAccessException {
+        return MethodHandles.lookup().unreflect(method).bindTo(unsafe);
+    }
+
+    /**
+     * Returns native address of direct buffer's memory.
+     */
+    static long address(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Buffer is not direct");
+        }
+        try {
+            return (long) GET_OBJECT_LONG.invokeExact((Object) buffer, BUFFER_ADDRESS_OFFSET);
+        }
+        catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static int getInt(long address) {
+        try {
+            return (int) GET_INT.invokeExact(address);
+        }
+        catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static void putInt(long address, int value) {
+        try {
+            PUT_INT.invokeExact(address, value);
+        }
+        catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static int getIntVolatile(long address) {
+        try {
+            return (int) GET_INT_VOLATILE.invokeExact((Object) null, address);
+        }
+        catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    /**
+     * Store which is not reordered with preceding stores (release semantics).
+     */
+    static void putOrderedInt(long address, int value) {
+        try {
+            PUT_ORDERED_INT.invokeExact((Object) null, address, value);
+        }
+        catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static long getLong(long address) {
+        try {
+            return (long) GET_LONG.invokeExact(address);
+        }
+        catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static long getLongVolatile(long address) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+        }
+        catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static void putOrderedLong(long address, long value) {
+        try {
+            PUT_ORDERED_LONG.invokeExact((Object) null, address, value);
+        }
+        catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static boolean compareAndSwapLong(long address, long expected, long value) {
+        try {
+            return (boolean) COMPARE_AND_SWAP_LONG.invokeExact((Object) null, address, expected, value);
+        }
+        catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static void copyMemory(long sourceAddress, long targetAddress, long bytes) {
+        try {
+            COPY_MEMORY.invokeExact(sourceAddress, targetAddress, bytes);
+        }
+        catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static void setMemory(long address, long bytes, byte value) {
+        try {
+            SET_MEMORY.invokeExact(address, bytes, value);
+        }
+        catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable ex) {
+        if (ex instanceof RuntimeException) {
+            return (RuntimeException) ex;
+        }
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        return new IllegalStateException(ex);
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.jfr;
+
+/**
+ * Receiver of actor runtime events, see {@link ActorEvents}.
+ *
+ * @author dmitrym
+ */
+public interface ActorEventSink {
+
+    void messageEnqueued(Class<?> actorClass, Class<?> messageType);
+
+    void messageRejected(Class<?> actorClass, Class<?> messageType);
+
+    void messageProcessed(Class<?> actorClass, Class<?> messageType, long durationNanos);
+
+    void actorCreated(Class<?> actorClass, Object actorId);
+
+    /**
+     * @param expired {@code true} if actor expired, {@code false} if it was
+     *                destroyed explicitly (e.g. on shutdown)
+     */
+    void actorEvicted(Class<?> actorClass, Object actorId, boolean expired);
+
+    void pingBatch(String service, int batchSize, long durationNanos);
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.jfr;
+
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Switch for JDK Flight Recorder events of actor runtime internals. Events
+ * are off by default, instrumented code then only checks
+ * {@link #getSink()} for {@code null}. They are enabled either by
+ * {@value #ENABLED_PROPERTY} system property or by {@link #enable()}, if JVM
+ * supports JFR; event classes are loaded only then. JFR sink is built only
+ * by {@code jfr} Maven profile, active when building on JDK with JFR.
+ * <p/>
+ * Once enabled, events are recorded according to JFR recording settings,
+ * under "Fuse Actors" category.
+ *
+ * @author dmitrym
+ */
+public final class ActorEvents {
+
+    public static final String ENABLED_PROPERTY = "com.sulake.common.actors.jfr";
+
+    private static final String JFR_EVENT_CLASS = "jdk.jfr.Event";
+
+    private static final String JFR_SINK_CLASS = "com.sulake.common.actors.jfr.JfrActorEventSink";
+
+    private static final Logger logger = Logger.getLogger(ActorEvents.class);
+
+    @Nullable
+    private static volatile ActorEventSink sink;
+
+    static {
+        if (Boolean.getBoolean(ENABLED_PROPERTY)) {
+            enable();
+        }
+    }
+
+    private ActorEvents() {
+    }
+
+    /**
+     * @return current sink or {@code null} if events are disabled
+     */
+    @Nullable
+    public static ActorEventSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Enables JFR events.
+     *
+     * @return {@code false} if JFR is not available in this JVM
+     */
+    public static synchronized boolean enable() {
+        if (sink != null) {
+            return true;
+        }
+        try {
+            Class.forName(JFR_EVENT_CLASS);
+            sink = (ActorEventSink) Class.forName(JFR_SINK_CLASS).getDeclaredConstructor().newInstance();
+            return true;
+        }
+        catch (ClassNotFoundException ex) {
+            logger.warn("JDK Flight Recorder or its support is not available, actor events are disabled");
+            return false;
+        }
+        catch (ReflectiveOperationException ex) {
+            logger.error("Failed to initialize actor events, leaving them disabled", ex);
+            return false;
+        }
+        catch (LinkageError ex) {
+            logger.error("Failed to initialize actor events, leaving them disabled", ex);
+            return false;
+        }
+    }
+
+    public static synchronized void disable() {
+        sink = null;
+    }
+
+    /**
+     * Sets custom sink, e.g. for testing; {@code null} disables events.
+     */
+    public static synchronized void setSink(@Nullable ActorEventSink sink) {
+        ActorEvents.sink = sink;
+    }
+}
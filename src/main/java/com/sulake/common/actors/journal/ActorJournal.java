@@ -0,0 +1,47 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.journal;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Append-only journal of events of single actor.
+ *
+ * @author dmitrym
+ * @see EventJournal#open(Object)
+ */
+public interface ActorJournal {
+
+    /**
+     * Callback for events read from journal.
+     */
+    interface EventHandler {
+
+        void onEvent(long sequence, Object event);
+    }
+
+    /**
+     * @return latest snapshot or {@code null} if there is none
+     */
+    @Nullable
+    JournalSnapshot readSnapshot() throws IOException;
+
+    /**
+     * Passes events with sequence greater than {@code afterSequence} to
+     * {@code handler}, in order.
+     */
+    void replay(long afterSequence, EventHandler handler) throws IOException;
+
+    void append(long sequence, Object event) throws IOException;
+
+    /**
+     * Replaces snapshot with given one, covering all events up to and
+     * including {@code sequence}; these events may be discarded.
+     */
+    void writeSnapshot(long sequence, Object state) throws IOException;
+
+    void close();
+}
@@ -0,0 +1,22 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.journal;
+
+import java.io.IOException;
+
+/**
+ * Storage of events and snapshots of {@link EventSourcedSmartActor}s.
+ *
+ * @param <T> type of {@code actorId}
+ * @author dmitrym
+ * @see FileEventJournal
+ */
+public interface EventJournal<T> {
+
+    /**
+     * Opens journal of single actor; returned instance is used only by that
+     * actor and closed when actor is destroyed.
+     */
+    ActorJournal open(T actorId) throws IOException;
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.journal;
+
+import com.sulake.common.actors.ActorException;
+
+/**
+ * Thrown when {@link EventSourcedSmartActor} fails to read or write its
+ * journal.
+ *
+ * @author dmitrym
+ */
+@SuppressWarnings("serial")
+public class EventJournalException extends ActorException {
+
+    private final Object actorId;
+
+    public EventJournalException(Object actorId, Throwable cause) {
+        this.actorId = actorId;
+        initCause(cause);
+    }
+
+    public Object getActorId() {
+        return actorId;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Journal of actor " + actorId + " failed";
+    }
+}
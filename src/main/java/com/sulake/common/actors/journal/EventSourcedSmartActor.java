@@ -0,0 +1,166 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.journal;
+
+import com.sulake.common.actors.SmartActor;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.io.IOException;
+
+/**
+ * Base class for {@link SmartActor}s keeping their state as sequence of
+ * events in {@link EventJournal}. State changes are made only via
+ * {@link #persistEvent(Object)}; every {@code snapshotInterval} events
+ * current state is written as snapshot, and on activation state is restored
+ * from the latest snapshot plus events after it, so that neither activation
+ * nor eviction needs full state load/store.
+ * <p/>
+ * Events and state MUST be supported by codec of the journal.
+ *
+ * @param <T> type of {@code actorId}
+ * @param <S> type of actor state
+ * @author dmitrym
+ */
+public abstract class EventSourcedSmartActor<T, S> extends SmartActor<T> {
+
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 100;
+
+    private EventJournal<T> eventJournal;
+
+    private int snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+
+    private ActorJournal journal;
+
+    private S state;
+
+    private long lastSequence;
+
+    private long snapshotSequence;
+
+    @Required
+    public void setEventJournal(EventJournal<T> eventJournal) {
+        this.eventJournal = eventJournal;
+    }
+
+    /**
+     * Sets number of events between snapshots; {@code 0} disables
+     * snapshots.
+     */
+    public void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    protected S getState() {
+        return state;
+    }
+
+    /**
+     * Returns sequence of last applied event, {@code 0} if there are none.
+     */
+    protected long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Restores state from journal; subclasses overriding this method MUST
+     * call {@code super.initActor(actorId)} first.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void initActor(T actorId) {
+        super.initActor(actorId);
+
+        state = null;
+        lastSequence = 0;
+        snapshotSequence = 0;
+        try {
+            journal = eventJournal.open(actorId);
+
+            JournalSnapshot snapshot = journal.readSnapshot();
+            if (snapshot != null) {
+                state = (S) snapshot.getState();
+                lastSequence = snapshot.getSequence();
+                snapshotSequence = lastSequence;
+            }
+            else {
+                state = createInitialState(actorId);
+            }
+
+            journal.replay(lastSequence, new ActorJournal.EventHandler() {
+                @Override
+                public void onEvent(long sequence, Object event) {
+                    state = applyEvent(state, event);
+                    lastSequence = sequence;
+                }
+            });
+
+            if (snapshot == null) {
+                // initial state is loaded only once, further activations start from snapshot
+                journal.writeSnapshot(lastSequence, state);
+                snapshotSequence = lastSequence;
+            }
+        }
+        catch (IOException ex) {
+            closeJournal();
+            throw new EventJournalException(actorId, ex);
+        }
+        catch (RuntimeException ex) {
+            closeJournal();
+            throw ex;
+        }
+    }
+
+    /**
+     * Creates state of actor which has no snapshot yet, e.g. by loading it
+     * from DB; called once per {@code actorId}, as initial snapshot is
+     * written right after.
+     */
+    protected abstract S createInitialState(T actorId);
+
+    /**
+     * Applies event to state, both when event is persisted and when it is
+     * replayed on activation; MUST NOT have other side effects.
+     *
+     * @return new state, may be the same (mutated) instance
+     */
+    protected abstract S applyEvent(S state, Object event);
+
+    /**
+     * Appends event to journal and applies it to state, writing snapshot if
+     * needed.
+     */
+    protected final void persistEvent(Object event) {
+        try {
+            journal.append(lastSequence + 1, event);
+            state = applyEvent(state, event);
+            lastSequence++;
+
+            if (snapshotInterval > 0 && lastSequence - snapshotSequence >= snapshotInterval) {
+                journal.writeSnapshot(lastSequence, state);
+                snapshotSequence = lastSequence;
+            }
+        }
+        catch (IOException ex) {
+            throw new EventJournalException(getActorId(), ex);
+        }
+    }
+
+    /**
+     * Closes journal; subclasses overriding this method MUST call
+     * {@code super.destroyActor()}.
+     */
+    @Override
+    protected void destroyActor() {
+        closeJournal();
+        state = null;
+        super.destroyActor();
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+}
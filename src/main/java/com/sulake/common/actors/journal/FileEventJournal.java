@@ -0,0 +1,307 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.journal;
+
+import com.sulake.common.actors.codec.MessageCodec;
+import com.sulake.common.actors.codec.SerializingMessageCodec;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * {@link EventJournal} storing each actor in two local files: append-only
+ * {@code .events} file with records
+ * {@code [int length][int crc][long sequence][event]}, CRC covering
+ * sequence and event, and {@code .snapshot} file
+ * {@code [int magic][long sequence][state]}, replaced atomically. Events
+ * file is truncated after each snapshot; record torn by crash is discarded
+ * on replay. Files are spread over 256 subdirectories by hash of
+ * {@code actorId}.
+ * <p/>
+ * Files are opened only for each read or write, so that number of resident
+ * actors is not limited by file descriptors.
+ * <p/>
+ * By default written data is left to OS, surviving JVM crash but not power
+ * loss; see {@link #setSync(boolean)}.
+ *
+ * @param <T> type of {@code actorId}
+ * @author dmitrym
+ */
+public class FileEventJournal<T> implements EventJournal<T> {
+
+    public static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private static final int EVENT_HEADER_SIZE = 4 + 4 + 8;
+
+    /**
+     * Offset of data covered by CRC, i.e. of sequence.
+     */
+    private static final int EVENT_CRC_OFFSET = 8;
+
+    private static final int SNAPSHOT_MAGIC = 0x46414a53;
+
+    private static final Logger logger = Logger.getLogger(FileEventJournal.class);
+
+    private final class FileActorJournal implements ActorJournal {
+
+        private final File eventsFile;
+
+        private final File snapshotFile;
+
+        private FileActorJournal(File eventsFile, File snapshotFile) {
+            this.eventsFile = eventsFile;
+            this.snapshotFile = snapshotFile;
+        }
+
+        @Nullable
+        @Override
+        public JournalSnapshot readSnapshot() throws IOException {
+            if (!snapshotFile.exists()) {
+                return null;
+            }
+            ByteBuffer buffer = readFully(snapshotFile);
+            if (buffer.remaining() < 12 || buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(snapshotFile + " is not a journal snapshot");
+            }
+            long sequence = buffer.getLong();
+            return new JournalSnapshot(sequence, messageCodec.decode(buffer));
+        }
+
+        @Override
+        public void replay(long afterSequence, EventHandler handler) throws IOException {
+            if (!eventsFile.exists()) {
+                return;
+            }
+            ByteBuffer buffer = readFully(eventsFile);
+            CRC32 crc = new CRC32();
+
+            while (buffer.remaining() >= EVENT_HEADER_SIZE) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length < 0 || length > buffer.remaining() - 8) {
+                    // last write was interrupted
+                    logger.warn(eventsFile + ": truncating incomplete event at " + start);
+                    buffer.position(start);
+                    break;
+                }
+                crc.reset();
+                crc.update(buffer.array(), start + EVENT_CRC_OFFSET, 8 + length);
+                if ((int) crc.getValue() != checksum) {
+                    logger.warn(eventsFile + ": truncating corrupted event at " + start);
+                    buffer.position(start);
+                    break;
+                }
+                long sequence = buffer.getLong();
+                int end = buffer.position() + length;
+                if (sequence > afterSequence) {
+                    ByteBuffer event = buffer.slice();
+                    event.limit(length);
+                    handler.onEvent(sequence, messageCodec.decode(event));
+                }
+                buffer.position(end);
+            }
+
+            if (buffer.hasRemaining()) {
+                truncateEvents(buffer.position());
+            }
+        }
+
+        @Override
+        public void append(long sequence, Object event) throws IOException {
+            ByteBuffer buffer = encode(EVENT_HEADER_SIZE, event);
+            buffer.putInt(0, buffer.limit() - EVENT_HEADER_SIZE);
+            buffer.putLong(EVENT_CRC_OFFSET, sequence);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), buffer.arrayOffset() + EVENT_CRC_OFFSET, buffer.limit() - EVENT_CRC_OFFSET);
+            buffer.putInt(4, (int) crc.getValue());
+
+            FileOutputStream out = new FileOutputStream(eventsFile, true);
+            try {
+                FileChannel channel = out.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (sync) {
+                    channel.force(false);
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+
+        @Override
+        public void writeSnapshot(long sequence, Object state) throws IOException {
+            ByteBuffer buffer = encode(12, state);
+            buffer.putInt(0, SNAPSHOT_MAGIC);
+            buffer.putLong(4, sequence);
+
+            File tempFile = new File(snapshotFile.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                FileChannel channel = out.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (sync) {
+                    channel.force(false);
+                }
+            }
+            finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(snapshotFile)) {
+                if (!snapshotFile.delete() || !tempFile.renameTo(snapshotFile)) {
+                    throw new IOException("Failed to rename " + tempFile + " to " + snapshotFile);
+                }
+            }
+
+            truncateEvents(0);
+        }
+
+        @Override
+        public void close() {
+            // files are not kept open
+        }
+
+        private void truncateEvents(long length) throws IOException {
+            if (!eventsFile.exists()) {
+                return;
+            }
+            RandomAccessFile file = new RandomAccessFile(eventsFile, "rw");
+            try {
+                file.setLength(length);
+            }
+            finally {
+                file.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "FileActorJournal{" + eventsFile + '}';
+        }
+    }
+
+    private File directory;
+
+    private MessageCodec messageCodec = new SerializingMessageCodec();
+
+    private boolean sync;
+
+    private final ThreadLocal<ByteBuffer> encodeBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+    };
+
+    public FileEventJournal(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Constructor for Spring.
+     */
+    public FileEventJournal() {
+    }
+
+    @Required
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Sets codec for events and snapshots; MUST stay compatible with already
+     * written journals.
+     */
+    public void setMessageCodec(MessageCodec messageCodec) {
+        this.messageCodec = messageCodec;
+    }
+
+    /**
+     * Enables forcing each write to disk, making journal survive power loss
+     * at the cost of {@code fsync} per event.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    @Override
+    public ActorJournal open(T actorId) throws IOException {
+        File actorDirectory = new File(directory, String.format("%02x", actorId.hashCode() & 0xff));
+        if (!actorDirectory.isDirectory() && !actorDirectory.mkdirs()) {
+            throw new IOException("Failed to create " + actorDirectory);
+        }
+        String name = toFileName(actorId);
+        return new FileActorJournal(new File(actorDirectory, name + ".events"),
+                new File(actorDirectory, name + ".snapshot"));
+    }
+
+    private static String toFileName(Object actorId) {
+        try {
+            return URLEncoder.encode(String.valueOf(actorId), "UTF-8");
+        }
+        catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Encodes {@code object} after {@code headerSize} bytes, growing
+     * thread-local buffer as needed.
+     *
+     * @return buffer ready for writing, including header
+     */
+    private ByteBuffer encode(int headerSize, Object object) throws IOException {
+        ByteBuffer buffer = encodeBuffer.get();
+        while (true) {
+            try {
+                buffer.clear();
+                buffer.position(headerSize);
+                messageCodec.encode(object, buffer);
+                buffer.flip();
+                return buffer;
+            }
+            catch (BufferOverflowException ex) {
+                if (buffer.capacity() >= MAX_RECORD_SIZE) {
+                    throw new IOException(object + " exceeds maximum record size");
+                }
+                buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_RECORD_SIZE));
+                encodeBuffer.set(buffer);
+            }
+        }
+    }
+
+    private static ByteBuffer readFully(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate((int) randomAccessFile.length());
+            randomAccessFile.readFully(buffer.array());
+            return buffer;
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileEventJournal{" + directory + '}';
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.journal;
+
+/**
+ * Actor state after applying all events up to and including
+ * {@code sequence}.
+ *
+ * @author dmitrym
+ */
+public final class JournalSnapshot {
+
+    private final long sequence;
+
+    private final Object state;
+
+    public JournalSnapshot(long sequence, Object state) {
+        this.sequence = sequence;
+        this.state = state;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Object getState() {
+        return state;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalSnapshot{" + sequence + ", " + state + '}';
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.routing;
+
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.cluster.ConsistentHashRing;
+
+import java.util.List;
+
+/**
+ * Sends messages with the same key to the same worker, so that work can be
+ * partitioned by key (e.g. by user id). When pool is resized, only keys of
+ * added or removed workers move.
+ * <p/>
+ * Per-key ordering holds only while pool size is fixed: after resize, new
+ * messages of a moved key may be processed by its new worker before the old
+ * worker has processed the pending ones. Don't enable resizing of
+ * {@link Router} if ordering matters.
+ *
+ * @author dmitrym
+ */
+public class ConsistentHashRoutingStrategy implements RoutingStrategy {
+
+    private final MessageKeyExtractor keyExtractor;
+
+    private volatile ConsistentHashRing<Integer> ring = new ConsistentHashRing<Integer>();
+
+    private volatile int ringSize;
+
+    public ConsistentHashRoutingStrategy(MessageKeyExtractor keyExtractor) {
+        this.keyExtractor = keyExtractor;
+    }
+
+    @Override
+    public ActorRef selectRoutee(Object message, List<ActorRef> routees) {
+        if (ringSize != routees.size()) {
+            updateRing(routees.size());
+        }
+        Integer index = ring.getNode(keyExtractor.getKey(message));
+        return routees.get(index != null && index < routees.size() ? index : 0);
+    }
+
+    /**
+     * Ring nodes are indexes of workers; pool grows and shrinks at the end.
+     */
+    private synchronized void updateRing(int size) {
+        if (ringSize == size) {
+            return;
+        }
+        ConsistentHashRing<Integer> newRing = new ConsistentHashRing<Integer>();
+        for (int i = 0; i < size; i++) {
+            newRing.addNode(i);
+        }
+        ring = newRing;
+        ringSize = size;
+    }
+
+    @Override
+    public String toString() {
+        return "ConsistentHashRoutingStrategy{" + keyExtractor + '}';
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.routing;
+
+/**
+ * Extracts key of message for {@link ConsistentHashRoutingStrategy}; messages
+ * with equal keys are processed by the same worker, in order.
+ *
+ * @author dmitrym
+ */
+public interface MessageKeyExtractor {
+
+    Object getKey(Object message);
+}
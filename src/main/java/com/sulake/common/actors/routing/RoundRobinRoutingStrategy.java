@@ -0,0 +1,29 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.routing;
+
+import com.sulake.common.actors.ActorRef;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends messages to workers in turn.
+ *
+ * @author dmitrym
+ */
+public class RoundRobinRoutingStrategy implements RoutingStrategy {
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public ActorRef selectRoutee(Object message, List<ActorRef> routees) {
+        return routees.get((counter.getAndIncrement() & Integer.MAX_VALUE) % routees.size());
+    }
+
+    @Override
+    public String toString() {
+        return "RoundRobinRoutingStrategy";
+    }
+}
@@ -0,0 +1,350 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.routing;
+
+import com.sulake.common.actors.Actor;
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.ActorRefReleasedException;
+import com.sulake.common.actors.TooManyPendingMessagesException;
+import com.sulake.common.actors.spi.ActorsRuntime;
+import com.sulake.common.actors.spi.GroupAwareActorsRuntime;
+import com.sulake.common.actors.spi.SimpleActorSupport;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ActorRef} fronting a pool of stateless worker actors created in the
+ * same {@link ActorsRuntime}. Each message is sent to a single worker chosen
+ * by {@link RoutingStrategy}.
+ * <p/>
+ * Optionally pool is resized between {@code minPoolSize} and
+ * {@code maxPoolSize} every {@code resizePeriodInMillis}: it grows by half
+ * when average mailbox of workers reaches {@code scaleUpMailboxSize} and
+ * shrinks by one worker when average mailbox drops to
+ * {@code scaleDownMailboxSize}. Removed workers are released, so their
+ * pending messages are still processed, possibly after newer messages sent
+ * to other workers.
+ *
+ * @author dmitrym
+ * @see RoundRobinRoutingStrategy
+ * @see SmallestMailboxRoutingStrategy
+ * @see ConsistentHashRoutingStrategy
+ */
+@ManagedResource
+public class Router implements ActorRef {
+
+    private static final Logger logger = Logger.getLogger(Router.class);
+
+    public static final long DEFAULT_RESIZE_PERIOD_IN_MILLIS = 1000;
+
+    private ActorsRuntime actorsRuntime;
+
+    private ObjectFactory<? extends Actor> workerFactory;
+
+    private RoutingStrategy routingStrategy = new RoundRobinRoutingStrategy();
+
+    @Nullable
+    private String actorGroup;
+
+    private int poolSize = Runtime.getRuntime().availableProcessors();
+
+    private int minPoolSize;
+
+    private int maxPoolSize;
+
+    private long resizePeriodInMillis = DEFAULT_RESIZE_PERIOD_IN_MILLIS;
+
+    private int scaleUpMailboxSize = 10;
+
+    private int scaleDownMailboxSize;
+
+    /**
+     * Copy-on-write; modified only under lock of this router.
+     */
+    private volatile List<ActorRef> routees = Collections.emptyList();
+
+    private volatile boolean stopped = true;
+
+    private final AtomicLong routedMessages = new AtomicLong();
+
+    private final AtomicLong resizes = new AtomicLong();
+
+    public Router(ActorsRuntime actorsRuntime, ObjectFactory<? extends Actor> workerFactory,
+                  RoutingStrategy routingStrategy, int poolSize) {
+        this.actorsRuntime = actorsRuntime;
+        this.workerFactory = workerFactory;
+        this.routingStrategy = routingStrategy;
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Constructor for Spring.
+     */
+    public Router() {
+    }
+
+    @Required
+    public void setActorsRuntime(ActorsRuntime actorsRuntime) {
+        this.actorsRuntime = actorsRuntime;
+    }
+
+    /**
+     * Sets factory of workers; each worker MUST be a separate instance.
+     */
+    @Required
+    public void setWorkerFactory(ObjectFactory<? extends Actor> workerFactory) {
+        this.workerFactory = workerFactory;
+    }
+
+    /**
+     * Sets routing strategy, {@link RoundRobinRoutingStrategy} by default.
+     */
+    public void setRoutingStrategy(RoutingStrategy routingStrategy) {
+        this.routingStrategy = routingStrategy;
+    }
+
+    /**
+     * Sets actor group of workers.
+     *
+     * @see GroupAwareActorsRuntime#getSupportFor(Actor, String)
+     */
+    public void setActorGroup(@Nullable String actorGroup) {
+        this.actorGroup = actorGroup;
+    }
+
+    /**
+     * Sets initial pool size, number of available processors by default.
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Enables resizing when {@code maxPoolSize} is greater than
+     * {@code minPoolSize}.
+     */
+    public void setMinPoolSize(int minPoolSize) {
+        this.minPoolSize = minPoolSize;
+    }
+
+    public void setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public void setResizePeriodInMillis(long resizePeriodInMillis) {
+        this.resizePeriodInMillis = resizePeriodInMillis;
+    }
+
+    /**
+     * Sets average mailbox size of workers to grow pool at, {@code 10} by
+     * default.
+     */
+    public void setScaleUpMailboxSize(int scaleUpMailboxSize) {
+        this.scaleUpMailboxSize = scaleUpMailboxSize;
+    }
+
+    /**
+     * Sets average mailbox size of workers to shrink pool at, {@code 0} by
+     * default.
+     */
+    public void setScaleDownMailboxSize(int scaleDownMailboxSize) {
+        this.scaleDownMailboxSize = scaleDownMailboxSize;
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive: " + poolSize);
+        }
+        List<ActorRef> newRoutees = new ArrayList<ActorRef>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            newRoutees.add(createRoutee());
+        }
+        routees = Collections.unmodifiableList(newRoutees);
+        stopped = false;
+
+        if (isResizable()) {
+            Thread resizeThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    resizeLoop();
+                }
+            }, toString());
+            resizeThread.setDaemon(true);
+            resizeThread.start();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        stopped = true;
+        for (ActorRef routee : routees) {
+            routee.release();
+        }
+        routees = Collections.emptyList();
+    }
+
+    @Override
+    public void sendMessage(Object message) throws TooManyPendingMessagesException, ActorRefReleasedException {
+        while (true) {
+            if (stopped) {
+                throw new ActorRefReleasedException();
+            }
+            List<ActorRef> currentRoutees = routees;
+            if (currentRoutees.isEmpty()) {
+                throw new ActorRefReleasedException();
+            }
+            try {
+                routingStrategy.selectRoutee(message, currentRoutees).sendMessage(message);
+                routedMessages.incrementAndGet();
+                return;
+            }
+            catch (ActorRefReleasedException ex) {
+                // worker was removed by resize, retry with current pool
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        stop();
+    }
+
+    /**
+     * Releases this router only if all workers are idle.
+     */
+    @Override
+    public synchronized boolean releaseIfIdle() {
+        for (ActorRef routee : routees) {
+            if (getMailboxSize(routee) > 0) {
+                return false;
+            }
+        }
+        stop();
+        return true;
+    }
+
+    /**
+     * Resizes pool once according to mailbox sizes of workers; called
+     * periodically by resize thread.
+     *
+     * @return change of pool size
+     */
+    public synchronized int resize() {
+        List<ActorRef> currentRoutees = routees;
+        if (stopped || currentRoutees.isEmpty()) {
+            return 0;
+        }
+        long totalMailbox = 0;
+        for (ActorRef routee : currentRoutees) {
+            totalMailbox += getMailboxSize(routee);
+        }
+        int size = currentRoutees.size();
+        double averageMailbox = (double) totalMailbox / size;
+
+        List<ActorRef> newRoutees = new ArrayList<ActorRef>(currentRoutees);
+        if (averageMailbox >= scaleUpMailboxSize && size < maxPoolSize) {
+            int newSize = Math.min(maxPoolSize, size + Math.max(1, size / 2));
+            while (newRoutees.size() < newSize) {
+                newRoutees.add(createRoutee());
+            }
+        }
+        else if (averageMailbox <= scaleDownMailboxSize && size > minPoolSize) {
+            newRoutees.remove(size - 1).release();
+        }
+        else {
+            return 0;
+        }
+        routees = Collections.unmodifiableList(newRoutees);
+        resizes.incrementAndGet();
+        if (logger.isDebugEnabled()) {
+            logger.debug(this + ": resized pool from " + size + " to " + newRoutees.size()
+                    + ", average mailbox " + averageMailbox);
+        }
+        return newRoutees.size() - size;
+    }
+
+    private void resizeLoop() {
+        while (!stopped) {
+            try {
+                Thread.sleep(resizePeriodInMillis);
+            }
+            catch (InterruptedException ex) {
+                logger.error("Unexpected interruption, ignoring", ex);
+            }
+            try {
+                resize();
+            }
+            catch (RuntimeException ex) {
+                logger.error(this + ": failed to resize pool", ex);
+            }
+        }
+    }
+
+    private boolean isResizable() {
+        return maxPoolSize > minPoolSize && resizePeriodInMillis > 0;
+    }
+
+    private ActorRef createRoutee() {
+        Actor worker = workerFactory.getObject();
+        if (actorGroup == null) {
+            return actorsRuntime.getSupportFor(worker);
+        }
+        if (!(actorsRuntime instanceof GroupAwareActorsRuntime)) {
+            throw new IllegalStateException(actorsRuntime + " doesn't support actor groups");
+        }
+        return ((GroupAwareActorsRuntime) actorsRuntime).getSupportFor(worker, actorGroup);
+    }
+
+    /**
+     * Returns number of pending messages of worker, or {@code 0} if not
+     * known for its runtime.
+     */
+    static int getMailboxSize(ActorRef routee) {
+        return routee instanceof SimpleActorSupport ? ((SimpleActorSupport) routee).getPendingMessages() : 0;
+    }
+
+    @ManagedAttribute
+    public int getPoolSize() {
+        return routees.size();
+    }
+
+    @ManagedAttribute
+    public long getRoutedMessages() {
+        return routedMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getResizes() {
+        return resizes.get();
+    }
+
+    @ManagedAttribute
+    public String getRoutingStrategy() {
+        return routingStrategy.toString();
+    }
+
+    /**
+     * Returns current workers, for monitoring and tests.
+     */
+    public List<ActorRef> getRoutees() {
+        return routees;
+    }
+
+    @Override
+    public String toString() {
+        return "Router{" + routingStrategy + ", poolSize=" + routees.size() + '}';
+    }
+}
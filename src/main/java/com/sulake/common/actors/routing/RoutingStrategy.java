@@ -0,0 +1,23 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.routing;
+
+import com.sulake.common.actors.ActorRef;
+
+import java.util.List;
+
+/**
+ * Chooses worker of {@link Router} for each message; called concurrently
+ * by senders.
+ *
+ * @author dmitrym
+ */
+public interface RoutingStrategy {
+
+    /**
+     * @param routees current workers, never empty; list is not modified
+     *                while pool size stays the same
+     */
+    ActorRef selectRoutee(Object message, List<ActorRef> routees);
+}
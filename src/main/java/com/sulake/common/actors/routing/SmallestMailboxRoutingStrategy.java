@@ -0,0 +1,41 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.routing;
+
+import com.sulake.common.actors.ActorRef;
+
+import java.util.List;
+
+/**
+ * Sends message to worker with fewest pending messages, preferring idle
+ * ones; suitable when processing time varies a lot between messages.
+ * Requires workers created by
+ * {@link com.sulake.common.actors.spi.SimpleActorsRuntime}.
+ *
+ * @author dmitrym
+ */
+public class SmallestMailboxRoutingStrategy implements RoutingStrategy {
+
+    @Override
+    public ActorRef selectRoutee(Object message, List<ActorRef> routees) {
+        ActorRef selected = null;
+        int smallestMailbox = Integer.MAX_VALUE;
+        for (ActorRef routee : routees) {
+            int mailbox = Router.getMailboxSize(routee);
+            if (mailbox == 0) {
+                return routee;
+            }
+            if (mailbox < smallestMailbox) {
+                selected = routee;
+                smallestMailbox = mailbox;
+            }
+        }
+        return selected != null ? selected : routees.get(0);
+    }
+
+    @Override
+    public String toString() {
+        return "SmallestMailboxRoutingStrategy";
+    }
+}
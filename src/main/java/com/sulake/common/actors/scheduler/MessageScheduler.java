@@ -0,0 +1,330 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.scheduler;
+
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.ActorRefReleasedException;
+import com.sulake.common.actors.TooManyPendingMessagesException;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers delayed and periodic messages to actors. Backed by hashed timer
+ * wheel: scheduling is a lock-free enqueue, cancellation is a single CAS,
+ * and single timer thread advances the wheel every {@code tickInMillis},
+ * touching only timers in the current slot. Millions of outstanding timers
+ * cost one small object each, with precision of one tick.
+ * <p/>
+ * Messages are sent from timer thread; messages rejected with
+ * {@link TooManyPendingMessagesException} are dropped, and timers of
+ * released actor refs are cancelled.
+ *
+ * @author dmitrym
+ * @see com.sulake.common.actors.ActorContext#scheduleOnce(ActorRef, Object, long, TimeUnit)
+ * @see com.sulake.common.actors.spi.SimpleActorsRuntime#setMessageScheduler(MessageScheduler)
+ */
+@ManagedResource
+public class MessageScheduler {
+
+    private static final Logger logger = Logger.getLogger(MessageScheduler.class);
+
+    public static final long DEFAULT_TICK_IN_MILLIS = 10;
+
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * Limits work of single tick, so that burst of scheduling doesn't delay
+     * due timers.
+     */
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private long tickInMillis = DEFAULT_TICK_IN_MILLIS;
+
+    private int wheelSize = DEFAULT_WHEEL_SIZE;
+
+    private long tickNanos;
+
+    private ScheduledMessage[] wheel;
+
+    private final Queue<ScheduledMessage> newMessages = new ConcurrentLinkedQueue<ScheduledMessage>();
+
+    private volatile long startNanos;
+
+    private volatile boolean stopped = true;
+
+    private Thread timerThread;
+
+    private long tick;
+
+    private final AtomicLong pendingMessages = new AtomicLong();
+
+    private final AtomicLong deliveredMessages = new AtomicLong();
+
+    private final AtomicLong cancelledMessages = new AtomicLong();
+
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    /**
+     * Sets precision of timers, {@value #DEFAULT_TICK_IN_MILLIS} ms by default.
+     */
+    public void setTickInMillis(long tickInMillis) {
+        this.tickInMillis = tickInMillis;
+    }
+
+    /**
+     * Sets number of wheel slots, rounded up to power of two,
+     * {@value #DEFAULT_WHEEL_SIZE} by default. Timers further than
+     * {@code wheelSize * tickInMillis} are skipped over once per rotation.
+     */
+    public void setWheelSize(int wheelSize) {
+        this.wheelSize = wheelSize;
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        if (!stopped) {
+            return;
+        }
+        if (tickInMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Tick and wheel size must be positive");
+        }
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickInMillis);
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        wheel = new ScheduledMessage[size];
+        tick = 0;
+        startNanos = System.nanoTime();
+        stopped = false;
+
+        timerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                timerLoop();
+            }
+        }, toString());
+        timerThread.setDaemon(true);
+        timerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            thread = timerThread;
+        }
+        thread.interrupt();
+        thread.join();
+    }
+
+    /**
+     * Delivers message to actor once after given delay.
+     */
+    public ScheduledMessage scheduleOnce(ActorRef actorRef, Object message, long delay, TimeUnit unit) {
+        if (actorRef == null) {
+            throw new NullPointerException("actorRef");
+        }
+        return schedule(actorRef, message, unit.toNanos(delay), 0);
+    }
+
+    /**
+     * Delivers message to actor periodically until cancelled. Missed
+     * deliveries are not repeated.
+     */
+    public ScheduledMessage scheduleAtFixedRate(ActorRef actorRef, Object message, long initialDelay, long period,
+                                                TimeUnit unit) {
+        if (actorRef == null) {
+            throw new NullPointerException("actorRef");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+        return schedule(actorRef, message, unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+
+    /**
+     * Runs task once after given delay in timer thread; task MUST be short
+     * and non-blocking, e.g. resubmitting work to an executor.
+     */
+    public ScheduledMessage scheduleTask(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        return schedule(null, task, unit.toNanos(delay), 0);
+    }
+
+    private ScheduledMessage schedule(@Nullable ActorRef actorRef, Object message, long delayNanos, long periodNanos) {
+        if (message == null) {
+            throw new NullPointerException("message");
+        }
+        if (stopped) {
+            throw new IllegalStateException(this + " is not running");
+        }
+        ScheduledMessage scheduledMessage = new ScheduledMessage(this, actorRef, message,
+                System.nanoTime() - startNanos + Math.max(0, delayNanos), periodNanos);
+        pendingMessages.incrementAndGet();
+        newMessages.add(scheduledMessage);
+        return scheduledMessage;
+    }
+
+    void messageCancelled() {
+        pendingMessages.decrementAndGet();
+        cancelledMessages.incrementAndGet();
+    }
+
+    private void timerLoop() {
+        while (!stopped) {
+            long deadline = (tick + 1) * tickNanos;
+            long sleepNanos = deadline - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+                catch (InterruptedException ex) {
+                    // stopping
+                    continue;
+                }
+            }
+
+            try {
+                transferNewMessages();
+                expireCurrentSlot();
+            }
+            catch (RuntimeException ex) {
+                logger.error(this + ": unexpected exception", ex);
+            }
+            tick++;
+        }
+    }
+
+    private void transferNewMessages() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            ScheduledMessage scheduledMessage = newMessages.poll();
+            if (scheduledMessage == null) {
+                break;
+            }
+            if (!scheduledMessage.isDone()) {
+                place(scheduledMessage);
+            }
+        }
+    }
+
+    private void place(ScheduledMessage scheduledMessage) {
+        long dueTick = Math.max(tick, (scheduledMessage.deadlineNanos + tickNanos - 1) / tickNanos - 1);
+        scheduledMessage.remainingRounds = (dueTick - tick) / wheel.length;
+        int slot = (int) (dueTick & (wheel.length - 1));
+        scheduledMessage.next = wheel[slot];
+        wheel[slot] = scheduledMessage;
+    }
+
+    private void expireCurrentSlot() {
+        int slot = (int) (tick & (wheel.length - 1));
+        ScheduledMessage scheduledMessage = wheel[slot];
+        wheel[slot] = null;
+        while (scheduledMessage != null) {
+            ScheduledMessage next = scheduledMessage.next;
+            scheduledMessage.next = null;
+            if (scheduledMessage.isDone()) {
+                // cancelled, just unlink
+            }
+            else if (scheduledMessage.remainingRounds > 0) {
+                scheduledMessage.remainingRounds--;
+                scheduledMessage.next = wheel[slot];
+                wheel[slot] = scheduledMessage;
+            }
+            else {
+                deliver(scheduledMessage);
+            }
+            scheduledMessage = next;
+        }
+    }
+
+    private void deliver(ScheduledMessage scheduledMessage) {
+        if (!scheduledMessage.isPeriodic() && !scheduledMessage.markDone()) {
+            return;
+        }
+        try {
+            if (scheduledMessage.actorRef != null) {
+                scheduledMessage.actorRef.sendMessage(scheduledMessage.message);
+            }
+            else {
+                ((Runnable) scheduledMessage.message).run();
+            }
+            deliveredMessages.incrementAndGet();
+        }
+        catch (TooManyPendingMessagesException ex) {
+            droppedMessages.incrementAndGet();
+            logger.warn(this + ": dropped " + scheduledMessage + ", too many pending messages");
+        }
+        catch (ActorRefReleasedException ex) {
+            if (scheduledMessage.isPeriodic()) {
+                scheduledMessage.cancel();
+            }
+            else {
+                pendingMessages.decrementAndGet();
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug(this + ": cancelled " + scheduledMessage + ", actor released");
+            }
+            return;
+        }
+        catch (RuntimeException ex) {
+            logger.error(this + ": failed to deliver " + scheduledMessage, ex);
+        }
+
+        if (!scheduledMessage.isPeriodic()) {
+            pendingMessages.decrementAndGet();
+        }
+        else if (!scheduledMessage.isDone()) {
+            long now = System.nanoTime() - startNanos;
+            long deadline = scheduledMessage.deadlineNanos + scheduledMessage.periodNanos;
+            if (deadline < now) {
+                // skip missed deliveries
+                deadline += (now - deadline) / scheduledMessage.periodNanos * scheduledMessage.periodNanos
+                        + scheduledMessage.periodNanos;
+            }
+            scheduledMessage.deadlineNanos = deadline;
+            place(scheduledMessage);
+        }
+    }
+
+    @ManagedAttribute
+    public long getPendingMessages() {
+        return pendingMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getDeliveredMessages() {
+        return deliveredMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getCancelledMessages() {
+        return cancelledMessages.get();
+    }
+
+    @ManagedAttribute
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    @Override
+    public String toString() {
+        return "MessageScheduler{tickInMillis=" + tickInMillis + '}';
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.scheduler;
+
+import com.sulake.common.actors.ActorRef;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Handle of message scheduled by {@link MessageScheduler}. Cancellation is
+ * a single CAS; cancelled entry is unlinked from timer wheel when its slot
+ * is visited next time.
+ *
+ * @author dmitrym
+ */
+public final class ScheduledMessage {
+
+    private static final int STATE_PENDING = 0;
+
+    private static final int STATE_CANCELLED = 1;
+
+    private static final int STATE_DONE = 2;
+
+    private static final AtomicIntegerFieldUpdater<ScheduledMessage> stateUpdater
+            = AtomicIntegerFieldUpdater.newUpdater(ScheduledMessage.class, "state");
+
+    private final MessageScheduler scheduler;
+
+    @Nullable
+    final ActorRef actorRef;
+
+    /**
+     * Message to deliver, or {@link Runnable} to run in timer thread if
+     * there is no {@code actorRef}.
+     */
+    final Object message;
+
+    final long periodNanos;
+
+    /**
+     * Relative to start of scheduler; updated by timer thread for periodic
+     * messages.
+     */
+    long deadlineNanos;
+
+    long remainingRounds;
+
+    ScheduledMessage next;
+
+    private volatile int state;
+
+    ScheduledMessage(MessageScheduler scheduler, @Nullable ActorRef actorRef, Object message, long deadlineNanos,
+                     long periodNanos) {
+        this.scheduler = scheduler;
+        this.actorRef = actorRef;
+        this.message = message;
+        this.deadlineNanos = deadlineNanos;
+        this.periodNanos = periodNanos;
+    }
+
+    /**
+     * Cancels further deliveries of this message.
+     *
+     * @return {@code false} if message was already cancelled or delivered
+     * (for one-shot messages)
+     */
+    public boolean cancel() {
+        if (stateUpdater.compareAndSet(this, STATE_PENDING, STATE_CANCELLED)) {
+            scheduler.messageCancelled();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isCancelled() {
+        return state == STATE_CANCELLED;
+    }
+
+    /**
+     * Returns {@code true} if message is cancelled or one-shot message was
+     * delivered.
+     */
+    public boolean isDone() {
+        return state != STATE_PENDING;
+    }
+
+    public boolean isPeriodic() {
+        return periodNanos > 0;
+    }
+
+    @Nullable
+    public ActorRef getActorRef() {
+        return actorRef;
+    }
+
+    public Object getMessage() {
+        return message;
+    }
+
+    boolean markDone() {
+        return stateUpdater.compareAndSet(this, STATE_PENDING, STATE_DONE);
+    }
+
+    @Override
+    public String toString() {
+        return "ScheduledMessage{" + message + " to " + actorRef + (isPeriodic() ? ", periodNanos=" + periodNanos : "")
+                + '}';
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.simulation;
+
+import com.sulake.common.actors.spi.SimpleActorsRuntime;
+
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deterministic single-threaded {@link SimpleActorsRuntime} with virtual
+ * clock, for offline simulations. Messages are processed in calling thread
+ * by {@link #runUntil(long)}, actors taking turns one message at a time;
+ * each processed message advances the clock by configured processing time.
+ * Timed tasks (e.g. message arrivals or housekeeping) run in order of their
+ * virtual time, so an hour of simulated time takes only as long as
+ * processing of its messages.
+ * <p/>
+ * <b>Note:</b> this class is not thread-safe; all messages MUST be sent
+ * from tasks run by this runtime or from the thread driving it.
+ *
+ * @author dmitrym
+ * @see SmartActorsSimulation
+ */
+public class SimulatedActorsRuntime extends SimpleActorsRuntime {
+
+    private static final class ScheduledTask implements Comparable<ScheduledTask> {
+
+        private final long timeNanos;
+
+        private final long sequence;
+
+        private final Runnable task;
+
+        private ScheduledTask(long timeNanos, long sequence, Runnable task) {
+            this.timeNanos = timeNanos;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask o) {
+            if (timeNanos != o.timeNanos) {
+                return timeNanos < o.timeNanos ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : sequence == o.sequence ? 0 : 1;
+        }
+    }
+
+    private final ArrayDeque<Runnable> readyActors = new ArrayDeque<Runnable>();
+
+    private final PriorityQueue<ScheduledTask> scheduledTasks = new PriorityQueue<ScheduledTask>();
+
+    private long currentTimeNanos;
+
+    private long taskSequence;
+
+    private long messageProcessingTimeNanos;
+
+    private long processedMessages;
+
+    private int maxPendingMessages;
+
+    public SimulatedActorsRuntime(int maxMessages) {
+        super(maxMessages);
+    }
+
+    /**
+     * Constructor for Spring.
+     */
+    public SimulatedActorsRuntime() {
+    }
+
+    /**
+     * Sets virtual time spent on processing each message, {@code 0} by
+     * default.
+     */
+    public void setMessageProcessingTimeNanos(long messageProcessingTimeNanos) {
+        this.messageProcessingTimeNanos = messageProcessingTimeNanos;
+    }
+
+    @Override
+    public void scheduleHandleNextMessageCall(Runnable actorSupport) {
+        readyActors.add(actorSupport);
+    }
+
+    public long getCurrentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(currentTimeNanos);
+    }
+
+    public long getCurrentTimeNanos() {
+        return currentTimeNanos;
+    }
+
+    /**
+     * Schedules task to run after given virtual delay.
+     */
+    public void schedule(long delayMillis, Runnable task) {
+        scheduleAt(getCurrentTimeMillis() + delayMillis, task);
+    }
+
+    /**
+     * Schedules task to run at given virtual time; tasks scheduled for the
+     * same time run in order of scheduling.
+     */
+    public void scheduleAt(long timeMillis, Runnable task) {
+        scheduledTasks.add(new ScheduledTask(TimeUnit.MILLISECONDS.toNanos(timeMillis), taskSequence++, task));
+    }
+
+    public void runFor(long durationMillis) {
+        runUntil(getCurrentTimeMillis() + durationMillis);
+    }
+
+    /**
+     * Runs scheduled tasks and processes messages until given virtual time.
+     */
+    public void runUntil(long timeMillis) {
+        long endNanos = TimeUnit.MILLISECONDS.toNanos(timeMillis);
+        processReadyActors();
+        while (!scheduledTasks.isEmpty() && scheduledTasks.peek().timeNanos <= endNanos) {
+            ScheduledTask scheduledTask = scheduledTasks.poll();
+            // task may be late if message processing took longer
+            currentTimeNanos = Math.max(currentTimeNanos, scheduledTask.timeNanos);
+            scheduledTask.task.run();
+            processReadyActors();
+        }
+        currentTimeNanos = Math.max(currentTimeNanos, endNanos);
+    }
+
+    public long getProcessedMessages() {
+        return processedMessages;
+    }
+
+    /**
+     * Returns maximum number of messages which were pending at once.
+     */
+    public int getMaxPendingMessages() {
+        return maxPendingMessages;
+    }
+
+    public int getScheduledTasks() {
+        return scheduledTasks.size();
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        processReadyActors();
+        super.stop();
+    }
+
+    private void processReadyActors() {
+        maxPendingMessages = Math.max(maxPendingMessages, getPendingMessages());
+
+        Runnable actorSupport;
+        while ((actorSupport = readyActors.poll()) != null) {
+            actorSupport.run();
+            processedMessages++;
+            currentTimeNanos += messageProcessingTimeNanos;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedActorsRuntime{currentTimeMillis=" + getCurrentTimeMillis() + '}';
+    }
+}
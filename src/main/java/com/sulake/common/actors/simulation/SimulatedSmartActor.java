@@ -0,0 +1,59 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.simulation;
+
+import com.sulake.common.actors.SmartActor;
+
+/**
+ * Model of typical {@link SmartActor} expiring after period of inactivity,
+ * reporting its life-cycle to {@link SmartActorsSimulation}.
+ *
+ * @param <T> type of {@code actorId}
+ * @author dmitrym
+ */
+class SimulatedSmartActor<T> extends SmartActor<T> {
+
+    private final SmartActorsSimulation<T> simulation;
+
+    private long lastActivityMillis;
+
+    SimulatedSmartActor(SmartActorsSimulation<T> simulation) {
+        this.simulation = simulation;
+    }
+
+    @Override
+    protected void initActor(T actorId) {
+        super.initActor(actorId);
+        lastActivityMillis = simulation.getRuntime().getCurrentTimeMillis();
+    }
+
+    @Override
+    public boolean processMessage(Object message) {
+        if (!super.processMessage(message)) {
+            lastActivityMillis = simulation.getRuntime().getCurrentTimeMillis();
+        }
+        return true;
+    }
+
+    @Override
+    protected void processPing() {
+        simulation.pingProcessed();
+        super.processPing();
+    }
+
+    @Override
+    protected boolean canBeRemoved() {
+        return getExpiryTimeMillis() <= simulation.getRuntime().getCurrentTimeMillis();
+    }
+
+    @Override
+    protected void destroyActor() {
+        simulation.actorEvicted(simulation.getRuntime().getCurrentTimeMillis() - getExpiryTimeMillis());
+        super.destroyActor();
+    }
+
+    private long getExpiryTimeMillis() {
+        return lastActivityMillis + simulation.getIdleTimeoutMillis();
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.simulation;
+
+/**
+ * Results of {@link SmartActorsSimulation} run.
+ *
+ * @author dmitrym
+ */
+public final class SimulationReport {
+
+    private final long simulatedMillis;
+
+    private final long wallClockMillis;
+
+    private final long sentMessages;
+
+    private final long processedMessages;
+
+    private final long pingBatches;
+
+    private final long pingMessages;
+
+    private final int maxPingBatchSize;
+
+    private final long evictions;
+
+    private final long totalEvictionLagMillis;
+
+    private final long maxEvictionLagMillis;
+
+    private final int maxPendingMessages;
+
+    private final int residentActors;
+
+    SimulationReport(long simulatedMillis, long wallClockMillis, long sentMessages, long processedMessages,
+                     long pingBatches, long pingMessages, int maxPingBatchSize, long evictions,
+                     long totalEvictionLagMillis, long maxEvictionLagMillis, int maxPendingMessages,
+                     int residentActors) {
+        this.simulatedMillis = simulatedMillis;
+        this.wallClockMillis = wallClockMillis;
+        this.sentMessages = sentMessages;
+        this.processedMessages = processedMessages;
+        this.pingBatches = pingBatches;
+        this.pingMessages = pingMessages;
+        this.maxPingBatchSize = maxPingBatchSize;
+        this.evictions = evictions;
+        this.totalEvictionLagMillis = totalEvictionLagMillis;
+        this.maxEvictionLagMillis = maxEvictionLagMillis;
+        this.maxPendingMessages = maxPendingMessages;
+        this.residentActors = residentActors;
+    }
+
+    public long getSimulatedMillis() {
+        return simulatedMillis;
+    }
+
+    public long getWallClockMillis() {
+        return wallClockMillis;
+    }
+
+    public long getSentMessages() {
+        return sentMessages;
+    }
+
+    /**
+     * Returns number of all processed messages, including pings.
+     */
+    public long getProcessedMessages() {
+        return processedMessages;
+    }
+
+    public long getPingBatches() {
+        return pingBatches;
+    }
+
+    public long getPingMessages() {
+        return pingMessages;
+    }
+
+    public int getMaxPingBatchSize() {
+        return maxPingBatchSize;
+    }
+
+    public double getPingMessagesPerSecond() {
+        return simulatedMillis > 0 ? pingMessages * 1000.0 / simulatedMillis : 0;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns average time between actor becoming idle long enough to expire
+     * and its actual eviction.
+     */
+    public double getAverageEvictionLagMillis() {
+        return evictions > 0 ? (double) totalEvictionLagMillis / evictions : 0;
+    }
+
+    public long getMaxEvictionLagMillis() {
+        return maxEvictionLagMillis;
+    }
+
+    /**
+     * Returns maximum mailbox backlog: number of messages pending in runtime
+     * at once.
+     */
+    public int getMaxPendingMessages() {
+        return maxPendingMessages;
+    }
+
+    public int getResidentActors() {
+        return residentActors;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("SimulationReport{");
+        sb.append("simulatedMillis=").append(simulatedMillis);
+        sb.append(", wallClockMillis=").append(wallClockMillis);
+        sb.append(", sentMessages=").append(sentMessages);
+        sb.append(", processedMessages=").append(processedMessages);
+        sb.append(", pingBatches=").append(pingBatches);
+        sb.append(", pingMessages=").append(pingMessages);
+        sb.append(", pingMessagesPerSecond=").append(String.format("%.1f", getPingMessagesPerSecond()));
+        sb.append(", maxPingBatchSize=").append(maxPingBatchSize);
+        sb.append(", evictions=").append(evictions);
+        sb.append(", averageEvictionLagMillis=").append(String.format("%.1f", getAverageEvictionLagMillis()));
+        sb.append(", maxEvictionLagMillis=").append(maxEvictionLagMillis);
+        sb.append(", maxPendingMessages=").append(maxPendingMessages);
+        sb.append(", residentActors=").append(residentActors);
+        sb.append('}');
+        return sb.toString();
+    }
+}
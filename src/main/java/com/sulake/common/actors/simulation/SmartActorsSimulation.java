@@ -0,0 +1,144 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.simulation;
+
+import com.sulake.common.actors.SmartActor;
+import com.sulake.common.actors.SmartActors;
+import org.springframework.beans.factory.ObjectFactory;
+
+import java.io.IOException;
+
+/**
+ * Offline model of {@link SmartActors} ping/expiry behavior in virtual time,
+ * for tuning {@code pingPeriodInMillis} and {@code preferredPingBatchSize}.
+ * Actors expire after {@code idleTimeoutMillis} without business messages;
+ * housekeeping ({@link SmartActors#runHousekeeping()}) is driven by virtual
+ * clock of {@link SimulatedActorsRuntime} instead of ping thread.
+ * <p/>
+ * Typical usage: schedule message arrivals via
+ * {@link #sendMessageAt(long, Object, Object)}, then {@link #run(long)} and
+ * inspect returned {@link SimulationReport}.
+ *
+ * @param <T> type of {@code actorId}
+ * @author dmitrym
+ */
+public class SmartActorsSimulation<T> {
+
+    private final SimulatedActorsRuntime runtime;
+
+    private final SmartActors<T> smartActors = new SmartActors<T>();
+
+    private final long idleTimeoutMillis;
+
+    private boolean started;
+
+    private long wallClockMillis;
+
+    private long sentMessages;
+
+    private long pingBatches;
+
+    private long pingMessages;
+
+    private int maxPingBatchSize;
+
+    private long evictions;
+
+    private long totalEvictionLagMillis;
+
+    private long maxEvictionLagMillis;
+
+    private final Runnable housekeeping = new Runnable() {
+        @Override
+        public void run() {
+            long delay = smartActors.runHousekeeping();
+            int batchSize = smartActors.getLastPingBatchSize();
+            if (batchSize > 0) {
+                pingBatches++;
+                maxPingBatchSize = Math.max(maxPingBatchSize, batchSize);
+            }
+            runtime.schedule(delay, this);
+        }
+    };
+
+    public SmartActorsSimulation(SimulatedActorsRuntime runtime, long idleTimeoutMillis, long pingPeriodInMillis,
+                                 int preferredPingBatchSize) {
+        this.runtime = runtime;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+
+        smartActors.setActorsRuntime(runtime);
+        smartActors.setPingPeriodInMillis(pingPeriodInMillis);
+        smartActors.setPreferredPingBatchSize(preferredPingBatchSize);
+        smartActors.setPingThreadEnabled(false);
+        smartActors.setActorsFactory(new ObjectFactory<SmartActor<T>>() {
+            @Override
+            public SmartActor<T> getObject() {
+                return new SimulatedSmartActor<T>(SmartActorsSimulation.this);
+            }
+        });
+    }
+
+    public SimulatedActorsRuntime getRuntime() {
+        return runtime;
+    }
+
+    public SmartActors<T> getSmartActors() {
+        return smartActors;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * Schedules business message to given actor at given virtual time.
+     */
+    public void sendMessageAt(long timeMillis, final T actorId, final Object message) {
+        runtime.scheduleAt(timeMillis, new Runnable() {
+            @Override
+            public void run() {
+                sentMessages++;
+                smartActors.sendMessage(actorId, message);
+            }
+        });
+    }
+
+    /**
+     * Runs simulation for given virtual time, starting it on first call.
+     *
+     * @return cumulative report since start
+     */
+    public SimulationReport run(long durationMillis) throws IOException {
+        if (!started) {
+            started = true;
+            runtime.start();
+            smartActors.start();
+            runtime.schedule(0, housekeeping);
+        }
+
+        long startTime = System.currentTimeMillis();
+        runtime.runFor(durationMillis);
+        wallClockMillis += System.currentTimeMillis() - startTime;
+
+        return new SimulationReport(runtime.getCurrentTimeMillis(), wallClockMillis, sentMessages,
+                runtime.getProcessedMessages(), pingBatches, pingMessages, maxPingBatchSize, evictions,
+                totalEvictionLagMillis, maxEvictionLagMillis, runtime.getMaxPendingMessages(),
+                smartActors.getEstimatedSize());
+    }
+
+    void pingProcessed() {
+        pingMessages++;
+    }
+
+    void actorEvicted(long evictionLagMillis) {
+        evictions++;
+        totalEvictionLagMillis += evictionLagMillis;
+        maxEvictionLagMillis = Math.max(maxEvictionLagMillis, evictionLagMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "SmartActorsSimulation{" + runtime + '}';
+    }
+}
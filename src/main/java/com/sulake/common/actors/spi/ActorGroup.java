@@ -0,0 +1,234 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.spi;
+
+import com.sulake.common.actors.TooManyPendingMessagesException;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logical group of actors sharing single {@link SimpleActorsRuntime}. Each
+ * group has its own quota of pending messages and (optionally) its own
+ * mailbox capacity for individual actors, so that overload caused by one
+ * group doesn't affect other groups.
+ * <p/>
+ * Optionally each actor of the group is throttled by token bucket of
+ * {@code throttleRate} messages per second with {@code throttleBurst}
+ * capacity, so that single abusive actor (e.g. of spamming client) cannot
+ * eat shared pool capacity.
+ *
+ * @author dmitrym
+ * @see SimpleActorsRuntime#setActorGroups(java.util.Collection)
+ */
+@ManagedResource
+public class ActorGroup {
+
+    private String name;
+
+    private int maxMessages;
+
+    private int maxMessagesPerActor;
+
+    private Semaphore messagePermits;
+
+    private final AtomicLong rejectedByGroupQuota = new AtomicLong();
+
+    private final AtomicLong rejectedByMailboxCapacity = new AtomicLong();
+
+    private double throttleRate;
+
+    private int throttleBurst;
+
+    private ThrottlePolicy throttlePolicy = ThrottlePolicy.REJECT;
+
+    private final AtomicLong rejectedByThrottle = new AtomicLong();
+
+    private final AtomicLong delayedByThrottle = new AtomicLong();
+
+    @Nullable
+    private volatile SimpleActorSupport lastThrottledActor;
+
+    public ActorGroup(String name, int maxMessages, int maxMessagesPerActor) {
+        setName(name);
+        setMaxMessages(maxMessages);
+        setMaxMessagesPerActor(maxMessagesPerActor);
+    }
+
+    /**
+     * Constructor for Spring.
+     */
+    public ActorGroup() {
+    }
+
+    @Required
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Sets maximum number of messages pending delivery to all actors of this
+     * group; {@code 0} means that only runtime-wide limit applies.
+     */
+    public void setMaxMessages(int maxMessages) {
+        this.maxMessages = maxMessages;
+        messagePermits = maxMessages > 0 ? new Semaphore(maxMessages) : null;
+    }
+
+    /**
+     * Sets mailbox capacity of individual actors of this group; {@code 0}
+     * means that runtime default applies.
+     *
+     * @see SimpleActorsRuntime#setMaxMessagesPerActor(int)
+     */
+    public void setMaxMessagesPerActor(int maxMessagesPerActor) {
+        this.maxMessagesPerActor = maxMessagesPerActor;
+    }
+
+    /**
+     * Sets maximum rate of messages per second for each actor of this group;
+     * {@code 0} (default) disables throttling.
+     */
+    public void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    /**
+     * Sets number of messages actor can receive at once above throttle rate;
+     * by default equal to rate per second.
+     */
+    public void setThrottleBurst(int throttleBurst) {
+        this.throttleBurst = throttleBurst;
+    }
+
+    /**
+     * Sets what to do with messages above throttle rate,
+     * {@link ThrottlePolicy#REJECT} by default.
+     */
+    public void setThrottlePolicy(ThrottlePolicy throttlePolicy) {
+        this.throttlePolicy = throttlePolicy;
+    }
+
+    @ManagedAttribute
+    public String getName() {
+        return name;
+    }
+
+    @ManagedAttribute
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    @ManagedAttribute
+    public int getMaxMessagesPerActor() {
+        return maxMessagesPerActor;
+    }
+
+    @ManagedAttribute
+    public int getPendingMessages() {
+        return messagePermits != null ? maxMessages - messagePermits.availablePermits() : -1;
+    }
+
+    @ManagedAttribute
+    public long getRejectedByGroupQuota() {
+        return rejectedByGroupQuota.get();
+    }
+
+    @ManagedAttribute
+    public long getRejectedByMailboxCapacity() {
+        return rejectedByMailboxCapacity.get();
+    }
+
+    @ManagedAttribute
+    public double getThrottleRate() {
+        return throttleRate;
+    }
+
+    @ManagedAttribute
+    public int getThrottleBurst() {
+        return throttleBurst > 0 ? throttleBurst : (int) Math.ceil(throttleRate);
+    }
+
+    @ManagedAttribute
+    public String getThrottlePolicy() {
+        return throttlePolicy.name();
+    }
+
+    @ManagedAttribute
+    public long getRejectedByThrottle() {
+        return rejectedByThrottle.get();
+    }
+
+    /**
+     * Returns number of times processing of actor was postponed by throttle.
+     */
+    @ManagedAttribute
+    public long getDelayedByThrottle() {
+        return delayedByThrottle.get();
+    }
+
+    @ManagedAttribute
+    public String getLastThrottledActor() {
+        SimpleActorSupport actorSupport = lastThrottledActor;
+        return actorSupport != null ? actorSupport.describeActorSafely() : null;
+    }
+
+    boolean isThrottled() {
+        return throttleRate > 0;
+    }
+
+    boolean isDelayingThrottle() {
+        return isThrottled() && throttlePolicy == ThrottlePolicy.DELAY;
+    }
+
+    MessageThrottle createThrottle() {
+        return new MessageThrottle(throttleRate, getThrottleBurst(), isDelayingThrottle());
+    }
+
+    void messageRejectedByThrottle(SimpleActorSupport actorSupport) {
+        rejectedByThrottle.incrementAndGet();
+        // described lazily, throttling happens on every send over the rate
+        lastThrottledActor = actorSupport;
+    }
+
+    void messageDelayedByThrottle(SimpleActorSupport actorSupport) {
+        delayedByThrottle.incrementAndGet();
+        lastThrottledActor = actorSupport;
+    }
+
+    void acquirePermitForMessage() {
+        if (messagePermits != null && !messagePermits.tryAcquire()) {
+            rejectedByGroupQuota.incrementAndGet();
+            throw new TooManyPendingMessagesException();
+        }
+    }
+
+    void releasePermitForMessage() {
+        if (messagePermits != null) {
+            messagePermits.release();
+        }
+    }
+
+    void mailboxCapacityExceeded() {
+        rejectedByMailboxCapacity.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("ActorGroup{");
+        sb.append("name='").append(name).append('\'');
+        sb.append(", maxMessages=").append(maxMessages);
+        sb.append(", maxMessagesPerActor=").append(maxMessagesPerActor);
+        if (throttleRate > 0) {
+            sb.append(", throttleRate=").append(throttleRate);
+            sb.append(", throttlePolicy=").append(throttlePolicy);
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.spi;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency-based admission control in the style of CoDel. Tracks sojourn
+ * time (time from send till start of processing) of processed messages;
+ * when no message waited less than {@code targetInMillis} for whole
+ * {@code intervalInMillis}, i.e. when even minimum sojourn time stays above
+ * target, there is standing queue and runtime starts shedding new messages
+ * with {@link com.sulake.common.actors.OverloadedException}. Shedding stops
+ * when message is processed within target or when nothing is pending.
+ * <p/>
+ * Unlike {@code maxMessages} this reacts to queueing delay rather than
+ * queue length, so that latency of admitted messages stays bounded
+ * whatever processing time of messages is. Samples of all actors are
+ * combined: messages of idle actors wait only for a thread, so minimum is
+ * above target only when the runtime as a whole is behind.
+ *
+ * @author dmitrym
+ * @see SimpleActorsRuntime#setAdmissionController(AdmissionController)
+ */
+@ManagedResource
+public class AdmissionController {
+
+    public static final long DEFAULT_TARGET_IN_MILLIS = 5;
+
+    public static final long DEFAULT_INTERVAL_IN_MILLIS = 100;
+
+    private long targetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TARGET_IN_MILLIS);
+
+    private long intervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INTERVAL_IN_MILLIS);
+
+    private boolean shedMessagesFromActors;
+
+    /**
+     * Time when sojourn time will have been above target for an interval,
+     * {@code 0} while it is below target. Updated without synchronization:
+     * concurrent samples may only shift it slightly.
+     */
+    private volatile long firstAboveNanos;
+
+    private volatile boolean shedding;
+
+    private volatile long lastSojournNanos;
+
+    private final AtomicLong sheddingEpisodes = new AtomicLong();
+
+    /**
+     * Sets acceptable queueing delay, {@value #DEFAULT_TARGET_IN_MILLIS} ms by
+     * default.
+     */
+    public void setTargetInMillis(long targetInMillis) {
+        targetNanos = TimeUnit.MILLISECONDS.toNanos(targetInMillis);
+    }
+
+    /**
+     * Sets time for which queueing delay must stay above target before
+     * shedding starts, {@value #DEFAULT_INTERVAL_IN_MILLIS} ms by default;
+     * should be somewhat longer than typical processing of burst.
+     */
+    public void setIntervalInMillis(long intervalInMillis) {
+        intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalInMillis);
+    }
+
+    /**
+     * Sets whether messages sent by actors while processing messages are
+     * shed too; {@code false} by default, so that work already admitted is
+     * completed and only new work from outside is refused.
+     */
+    public void setShedMessagesFromActors(boolean shedMessagesFromActors) {
+        this.shedMessagesFromActors = shedMessagesFromActors;
+    }
+
+    @ManagedAttribute
+    public long getTargetInMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(targetNanos);
+    }
+
+    @ManagedAttribute
+    public long getIntervalInMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+    }
+
+    @ManagedAttribute
+    public boolean isShedMessagesFromActors() {
+        return shedMessagesFromActors;
+    }
+
+    @ManagedAttribute
+    public boolean isShedding() {
+        return shedding;
+    }
+
+    /**
+     * Returns number of times shedding was started.
+     */
+    @ManagedAttribute
+    public long getSheddingEpisodes() {
+        return sheddingEpisodes.get();
+    }
+
+    @ManagedAttribute
+    public double getLastSojournInMillis() {
+        return lastSojournNanos / 1e6;
+    }
+
+    /**
+     * Decides whether new message is admitted.
+     *
+     * @param pendingMessages number of messages pending in runtime
+     * @param fromActor       whether message is sent while processing message
+     */
+    boolean admit(int pendingMessages, boolean fromActor) {
+        if (!shedding) {
+            return true;
+        }
+        if (pendingMessages == 0) {
+            // queue has drained, nothing to wait for
+            stopShedding();
+            return true;
+        }
+        return fromActor && !shedMessagesFromActors;
+    }
+
+    /**
+     * Records sojourn time of message about to be processed.
+     */
+    void messageDequeued(long sojournNanos, long nowNanos) {
+        lastSojournNanos = sojournNanos;
+        if (sojournNanos < targetNanos) {
+            if (firstAboveNanos != 0) {
+                firstAboveNanos = 0;
+            }
+            if (shedding) {
+                stopShedding();
+            }
+            return;
+        }
+
+        long firstAbove = firstAboveNanos;
+        if (firstAbove == 0) {
+            firstAboveNanos = nowNanos + intervalNanos;
+        }
+        else if (!shedding && nowNanos - firstAbove >= 0) {
+            shedding = true;
+            sheddingEpisodes.incrementAndGet();
+        }
+    }
+
+    private void stopShedding() {
+        shedding = false;
+        firstAboveNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionController{targetInMillis=" + getTargetInMillis() + ", intervalInMillis="
+                + getIntervalInMillis() + ", shedding=" + shedding + '}';
+    }
+}
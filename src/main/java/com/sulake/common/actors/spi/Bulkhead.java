@@ -0,0 +1,137 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.spi;
+
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Separate bounded pool of threads for blocking actors of
+ * {@link ExecutorBasedActorsRuntime}. Queue is not bounded: number of
+ * queued actors is already limited by pending messages quota of runtime.
+ * Actor is never run by two threads at once, so moving it between pools
+ * keeps per-actor ordering.
+ *
+ * @author dmitrym
+ * @see com.sulake.common.actors.Blocking
+ */
+@ManagedResource
+public class Bulkhead {
+
+    private String name;
+
+    private int threads = 1;
+
+    private volatile ThreadPoolExecutor executor;
+
+    private final AtomicLong scheduledActors = new AtomicLong();
+
+    public Bulkhead(String name, int threads) {
+        setName(name);
+        setThreads(threads);
+    }
+
+    /**
+     * Constructor for Spring.
+     */
+    public Bulkhead() {
+    }
+
+    @Required
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Sets number of threads, {@code 1} by default.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "bulkhead-" + name + "-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    void execute(Runnable actorSupport) {
+        ThreadPoolExecutor currentExecutor = executor;
+        if (currentExecutor == null) {
+            throw new IllegalStateException(this + " is not running");
+        }
+        scheduledActors.incrementAndGet();
+        currentExecutor.execute(actorSupport);
+    }
+
+    @ManagedAttribute
+    public String getName() {
+        return name;
+    }
+
+    @ManagedAttribute
+    public int getThreads() {
+        return threads;
+    }
+
+    @ManagedAttribute
+    public int getActiveThreads() {
+        ThreadPoolExecutor currentExecutor = executor;
+        return currentExecutor != null ? currentExecutor.getActiveCount() : 0;
+    }
+
+    /**
+     * Returns number of actors waiting for a thread of this bulkhead.
+     */
+    @ManagedAttribute
+    public int getQueuedActors() {
+        ThreadPoolExecutor currentExecutor = executor;
+        return currentExecutor != null ? currentExecutor.getQueue().size() : 0;
+    }
+
+    /**
+     * Returns number of times actors were scheduled to this bulkhead, each
+     * for processing single message.
+     */
+    @ManagedAttribute
+    public long getScheduledActors() {
+        return scheduledActors.get();
+    }
+
+    @ManagedAttribute
+    public long getCompletedTasks() {
+        ThreadPoolExecutor currentExecutor = executor;
+        return currentExecutor != null ? currentExecutor.getCompletedTaskCount() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Bulkhead{name='" + name + "', threads=" + threads + '}';
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.spi;
+
+import com.sulake.common.actors.ActorRef;
+
+/**
+ * Receives messages which were discarded instead of being delivered to
+ * actors. Called in thread which would have processed message, so it must
+ * be fast and must not throw.
+ *
+ * @author dmitrym
+ * @see SimpleActorsRuntime#setDeadLetterHandler(DeadLetterHandler)
+ */
+public interface DeadLetterHandler {
+
+    /**
+     * Called for message discarded because its deadline had passed.
+     *
+     * @param actorRef target actor
+     * @param message  message as it would have been delivered, i.e. without envelopes
+     * @see com.sulake.common.actors.ExpiringMessage
+     */
+    void messageExpired(ActorRef actorRef, Object message);
+}
@@ -3,21 +3,85 @@
  */
 package com.sulake.common.actors.spi;
 
+import com.sulake.common.actors.Blocking;
+import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedResource;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Reference implementation of {@link ActorsRuntime} using {@link Executor}.
+ * <p/>
+ * Optionally supports direct hand-off: when actor sends message to an idle
+ * actor, the target is run on the same thread right after the sender
+ * finishes, instead of going through executor queue. Hand-off chain started
+ * by each executor task is limited by {@code directHandOffDepth} and
+ * {@code directHandOffBudgetInMicros}, so that long chains cannot starve
+ * other actors.
+ * <p/>
+ * Actors marked {@link Blocking}, and messages of types configured as
+ * blocking for given actor class, are processed in named {@link Bulkhead}
+ * pools instead, so that degraded I/O stalls only actors of its bulkhead.
  *
  * @author dmitrym
  */
 @ManagedResource
 public class ExecutorBasedActorsRuntime extends SimpleActorsRuntime {
 
+    public static final long DEFAULT_DIRECT_HAND_OFF_BUDGET_IN_MICROS = 1000;
+
+    /**
+     * Hand-off chain of current thread.
+     */
+    private static final class HandOff {
+
+        private final ArrayDeque<Runnable> pending = new ArrayDeque<Runnable>();
+
+        private Runnable current;
+
+        private int depth;
+
+        private long deadlineNanos;
+    }
+
+    private static final Logger logger = Logger.getLogger(ExecutorBasedActorsRuntime.class);
+
+    /**
+     * Marks actor classes without bulkhead in cache.
+     */
+    private static final String NO_BULKHEAD = "";
+
     private Executor executor;
 
+    private final Map<String, Bulkhead> bulkheads = new HashMap<String, Bulkhead>();
+
+    private final Map<Class<?>, Map<Class<?>, String>> blockingMessageTypes =
+            new HashMap<Class<?>, Map<Class<?>, String>>();
+
+    private final Map<Class<?>, String> bulkheadByActorClass = new ConcurrentHashMap<Class<?>, String>();
+
+    private int directHandOffDepth;
+
+    private long directHandOffBudgetInMicros = DEFAULT_DIRECT_HAND_OFF_BUDGET_IN_MICROS;
+
+    private final ThreadLocal<HandOff> handOffs = new ThreadLocal<HandOff>() {
+        @Override
+        protected HandOff initialValue() {
+            return new HandOff();
+        }
+    };
+
+    private final AtomicLong directHandOffs = new AtomicLong();
+
     public ExecutorBasedActorsRuntime(int maxMessages, Executor executor) {
         super(maxMessages);
         this.executor = executor;
@@ -34,9 +98,194 @@ public class ExecutorBasedActorsRuntime extends SimpleActorsRuntime {
         this.executor = executor;
     }
 
+    /**
+     * Sets maximum number of actors run inline after single executor task;
+     * {@code 0} (default) disables direct hand-off.
+     */
+    public void setDirectHandOffDepth(int directHandOffDepth) {
+        this.directHandOffDepth = directHandOffDepth;
+    }
+
+    /**
+     * Sets time after start of executor task, after which actors are no
+     * longer run inline, {@value #DEFAULT_DIRECT_HAND_OFF_BUDGET_IN_MICROS}
+     * microseconds by default.
+     */
+    public void setDirectHandOffBudgetInMicros(long directHandOffBudgetInMicros) {
+        this.directHandOffBudgetInMicros = directHandOffBudgetInMicros;
+    }
+
+    /**
+     * Sets bulkheads for blocking actors; must be set before start.
+     *
+     * @see Blocking
+     */
+    public void setBulkheads(Collection<Bulkhead> bulkheads) {
+        for (Bulkhead bulkhead : bulkheads) {
+            this.bulkheads.put(bulkhead.getName(), bulkhead);
+        }
+    }
+
+    /**
+     * Sets bulkheads by actor class (exact) and then by type of message, so
+     * that the same message type can be blocking for one actor and not for
+     * another; must be set before start.
+     *
+     * @see #addBlockingMessageTypes(Class, Map)
+     */
+    public void setBlockingMessageTypes(Map<Class<?>, Map<Class<?>, String>> blockingMessageTypes) {
+        this.blockingMessageTypes.clear();
+        for (Map.Entry<Class<?>, Map<Class<?>, String>> entry : blockingMessageTypes.entrySet()) {
+            addBlockingMessageTypes(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Adds bulkheads by type of message for actors of given class, e.g. from
+     * {@link com.sulake.common.actors.dispatcher.ActorMessageDispatcher#getBlockingMessageTypes()}
+     * of the dispatcher used by these actors; must be called before start.
+     */
+    public void addBlockingMessageTypes(Class<?> actorClass, Map<Class<?>, String> messageTypes) {
+        Map<Class<?>, String> actorMessageTypes = blockingMessageTypes.get(actorClass);
+        if (actorMessageTypes == null) {
+            actorMessageTypes = new HashMap<Class<?>, String>();
+            blockingMessageTypes.put(actorClass, actorMessageTypes);
+        }
+        actorMessageTypes.putAll(messageTypes);
+    }
+
+    public Collection<Bulkhead> getBulkheads() {
+        return bulkheads.values();
+    }
+
+    @Override
+    public void start() {
+        for (Map.Entry<Class<?>, Map<Class<?>, String>> actorEntry : blockingMessageTypes.entrySet()) {
+            for (Map.Entry<Class<?>, String> entry : actorEntry.getValue().entrySet()) {
+                if (!bulkheads.containsKey(entry.getValue())) {
+                    throw new IllegalStateException("Unknown bulkhead for " + entry.getKey() + " of "
+                            + actorEntry.getKey() + ": " + entry.getValue());
+                }
+            }
+        }
+        super.start();
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            bulkhead.start();
+        }
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        super.stop();
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            bulkhead.stop();
+        }
+    }
+
+    @ManagedAttribute
+    public int getDirectHandOffDepth() {
+        return directHandOffDepth;
+    }
+
+    @ManagedAttribute
+    public long getDirectHandOffs() {
+        return directHandOffs.get();
+    }
+
     @Override
-    public void scheduleHandleNextMessageCall(Runnable target) {
-        executor.execute(target);
+    public void scheduleHandleNextMessageCall(final Runnable target) {
+        if (!bulkheads.isEmpty()) {
+            Bulkhead bulkhead = getBulkheadFor(target);
+            if (bulkhead != null) {
+                bulkhead.execute(target);
+                return;
+            }
+        }
+
+        if (directHandOffDepth <= 0) {
+            executor.execute(target);
+            return;
+        }
+
+        HandOff handOff = handOffs.get();
+        // actor rescheduling itself goes to executor to stay fair
+        if (handOff.current != null && handOff.current != target
+                && handOff.depth + handOff.pending.size() < directHandOffDepth
+                && System.nanoTime() - handOff.deadlineNanos < 0) {
+            handOff.pending.add(target);
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runWithHandOff(target);
+            }
+        });
+    }
+
+    private Bulkhead getBulkheadFor(Runnable target) {
+        if (!(target instanceof SimpleActorSupport)) {
+            return null;
+        }
+        SimpleActorSupport actorSupport = (SimpleActorSupport) target;
+
+        Class<?> actorClass = actorSupport.getActorClass();
+        String name = bulkheadByActorClass.get(actorClass);
+        if (name == null) {
+            Blocking blocking = actorClass.getAnnotation(Blocking.class);
+            name = blocking != null ? blocking.value() : NO_BULKHEAD;
+            if (!name.equals(NO_BULKHEAD) && !bulkheads.containsKey(name)) {
+                logger.error(actorClass.getName() + ": unknown bulkhead " + name + ", using main pool");
+                name = NO_BULKHEAD;
+            }
+            bulkheadByActorClass.put(actorClass, name);
+        }
+        if (name.equals(NO_BULKHEAD) && !blockingMessageTypes.isEmpty()) {
+            Map<Class<?>, String> actorMessageTypes = blockingMessageTypes.get(actorClass);
+            String messageBulkhead = actorMessageTypes != null
+                    ? actorMessageTypes.get(actorSupport.getNextMessageClass()) : null;
+            if (messageBulkhead != null) {
+                name = messageBulkhead;
+            }
+        }
+        return bulkheads.get(name);
+    }
+
+    private void runWithHandOff(Runnable target) {
+        HandOff handOff = handOffs.get();
+        if (handOff.current != null) {
+            // executor runs tasks in calling thread
+            target.run();
+            return;
+        }
+
+        handOff.depth = 0;
+        handOff.deadlineNanos = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(directHandOffBudgetInMicros);
+        try {
+            Runnable next = target;
+            while (true) {
+                handOff.current = next;
+                next.run();
+                next = handOff.pending.poll();
+                if (next == null) {
+                    break;
+                }
+                if (System.nanoTime() - handOff.deadlineNanos >= 0) {
+                    handOff.pending.addFirst(next);
+                    break;
+                }
+                handOff.depth++;
+                directHandOffs.incrementAndGet();
+            }
+        }
+        finally {
+            handOff.current = null;
+            Runnable pending;
+            while ((pending = handOff.pending.poll()) != null) {
+                scheduleHandleNextMessageCall(pending);
+            }
+        }
     }
 
 }
@@ -0,0 +1,23 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.spi;
+
+import com.sulake.common.actors.Actor;
+import com.sulake.common.actors.ActorRef;
+
+/**
+ * Runtime which supports logical groups of actors. Groups are used to
+ * contain overload caused by a subset of actors sharing the same runtime.
+ *
+ * @author dmitrym
+ */
+public interface GroupAwareActorsRuntime extends ActorsRuntime {
+
+    /**
+     * Creates support for an actor belonging to given logical group.
+     *
+     * @throws IllegalArgumentException if group is unknown to this runtime
+     */
+    ActorRef getSupportFor(Actor actor, String group);
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.spi;
+
+/**
+ * Token bucket of single actor. Not thread-safe: with
+ * {@link ThrottlePolicy#REJECT} it is used by senders under guard of actor
+ * support, with {@link ThrottlePolicy#DELAY} only by thread processing
+ * messages of actor.
+ *
+ * @author dmitrym
+ */
+final class MessageThrottle {
+
+    private final boolean delaying;
+
+    private final double tokensPerNano;
+
+    private final double burst;
+
+    private double tokens;
+
+    private long lastRefillNanos;
+
+    /**
+     * Task resuming processing of delayed actor, created on first delay.
+     */
+    private Runnable resumeTask;
+
+    MessageThrottle(double messagesPerSecond, int burst, boolean delaying) {
+        this.delaying = delaying;
+        this.tokensPerNano = messagesPerSecond / 1e9;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    boolean isDelaying() {
+        return delaying;
+    }
+
+    Runnable getResumeTask() {
+        return resumeTask;
+    }
+
+    void setResumeTask(Runnable resumeTask) {
+        this.resumeTask = resumeTask;
+    }
+
+    /**
+     * Takes token for one message.
+     *
+     * @return {@code 0} if token was taken; otherwise time in nanoseconds
+     * until next token is available
+     */
+    long tryAcquire(long nowNanos) {
+        tokens = Math.min(burst, tokens + (nowNanos - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = nowNanos;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano));
+    }
+}
@@ -4,16 +4,23 @@
 package com.sulake.common.actors.spi;
 
 import com.sulake.common.actors.*;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Execute-in-calling-thread implementation of {@link ActorsRuntime}, suitable
- * only for unit testing.
+ * only for unit testing. Actor groups are accepted and ignored.
  *
  * @author dmitrym
  */
-public class PassthroughActorRuntime implements ActorsRuntime {
+public class PassthroughActorRuntime implements GroupAwareActorsRuntime {
+
+    private static final Logger logger = Logger.getLogger(PassthroughActorRuntime.class);
 
-    private static class PassthroughActorSupport implements ActorRef {
+    private class PassthroughActorSupport implements ActorRef {
 
         private final Actor actor;
 
@@ -44,22 +51,73 @@ public class PassthroughActorRuntime implements ActorsRuntime {
                 throw new ActorRefReleasedException();
             }
 
+            // deadline may have passed before sending, e.g. on retry
+            AcknowledgedMessage acknowledgedMessage = SimpleActorSupport.getAcknowledgedMessage(message);
+            boolean expired = SimpleActorSupport.isExpired(message);
+            message = SimpleActorSupport.unwrap(message);
+
             ActorContext.setCurrentContext(this, actor);
             try {
-                actor.processMessage(message);
+                if (expired) {
+                    messageExpired(this, message);
+                }
+                else {
+                    actor.processMessage(message);
+                }
             }
             finally {
+                if (acknowledgedMessage != null) {
+                    acknowledgedMessage.acknowledge();
+                }
+                List<Runnable> afterMessageTasks = ActorContext.takeAfterMessageTasks();
                 ActorContext.removeCurrentContext();
+                for (Runnable task : afterMessageTasks) {
+                    task.run();
+                }
             }
         }
 
     }
 
+    @Nullable
+    private DeadLetterHandler deadLetterHandler;
+
+    private final AtomicLong expiredMessages = new AtomicLong();
+
+    /**
+     * Sets handler of messages discarded because their deadline had passed.
+     */
+    public void setDeadLetterHandler(@Nullable DeadLetterHandler deadLetterHandler) {
+        this.deadLetterHandler = deadLetterHandler;
+    }
+
+    public long getExpiredMessages() {
+        return expiredMessages.get();
+    }
+
+    private void messageExpired(ActorRef actorRef, Object message) {
+        expiredMessages.incrementAndGet();
+        DeadLetterHandler handler = deadLetterHandler;
+        if (handler != null) {
+            try {
+                handler.messageExpired(actorRef, message);
+            }
+            catch (RuntimeException ex) {
+                logger.error(actorRef + ": dead letter handler failed for " + message, ex);
+            }
+        }
+    }
+
     @Override
     public ActorRef getSupportFor(Actor actor) {
         return new PassthroughActorSupport(actor);
     }
 
+    @Override
+    public ActorRef getSupportFor(Actor actor, String group) {
+        return new PassthroughActorSupport(actor);
+    }
+
     @Override
     public void scheduleHandleNextMessageCall(Runnable actorSupport) {
         throw new UnsupportedOperationException();
@@ -3,24 +3,40 @@
  */
 package com.sulake.common.actors.spi;
 
+import com.sulake.common.actors.AcknowledgedMessage;
 import com.sulake.common.actors.Actor;
 import com.sulake.common.actors.ActorContext;
-import com.sulake.common.actors.ActorRef;
 import com.sulake.common.actors.ActorRefReleasedException;
+import com.sulake.common.actors.DeadlineMessage;
+import com.sulake.common.actors.DrainableActorRef;
+import com.sulake.common.actors.ExpiringMessage;
+import com.sulake.common.actors.TooManyPendingMessagesException;
+import com.sulake.common.actors.jfr.ActorEventSink;
+import com.sulake.common.actors.jfr.ActorEvents;
+import com.sulake.common.actors.tracing.TracedMessage;
+import com.sulake.common.actors.tracing.Tracer;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.concurrent.Semaphore;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Simple implementation of {ActorSupport} using unidirectional linked
- * list for pending requests and {@link Semaphore} to guard access.
+ * list for pending requests and spin lock to guard access.
+ * <p/>
+ * Most actors are idle most of the time, so idle support is kept small:
+ * lock, released flag and number of pending messages are packed into
+ * single {@code int}, mailbox nodes exist only while messages are pending,
+ * throttle state is allocated only for throttled groups and send time only
+ * with admission control.
  *
  * @author dmitrym
  */
-public final class SimpleActorSupport implements ActorRef, Runnable {
+public final class SimpleActorSupport implements DrainableActorRef, Runnable {
 
-    private static final class Node {
+    private static class Node {
         private final Object message;
         private Node next;
 
@@ -29,105 +45,452 @@ public final class SimpleActorSupport implements ActorRef, Runnable {
         }
     }
 
+    /**
+     * Node with send time, used only with admission control.
+     */
+    private static final class TimedNode extends Node {
+        private final long enqueueNanos;
+
+        private TimedNode(Object message, long enqueueNanos) {
+            super(message);
+            this.enqueueNanos = enqueueNanos;
+        }
+    }
+
     private static final Logger logger = Logger.getLogger(SimpleActorSupport.class);
 
+    private static final int LOCKED = 1;
+
+    private static final int RELEASED = 2;
+
+    private static final int PENDING_SHIFT = 2;
+
+    private static final int ONE_PENDING = 1 << PENDING_SHIFT;
+
+    private static final int ENQUEUED = 0;
+
+    private static final int REJECTED_RELEASED = 1;
+
+    private static final int REJECTED_BY_MAILBOX_CAPACITY = 2;
+
+    private static final int REJECTED_BY_THROTTLE = 3;
+
+    /**
+     * Guarded sections are a few field updates, so lock holder is preempted
+     * rather than busy; yield instead of spinning further.
+     */
+    private static final int MAX_SPINS = 64;
+
+    private static final AtomicIntegerFieldUpdater<SimpleActorSupport> stateUpdater
+            = AtomicIntegerFieldUpdater.newUpdater(SimpleActorSupport.class, "state");
+
     private final SimpleActorsRuntime runtime;
 
     private final Actor actor;
 
-    private volatile boolean released;
+    @Nullable
+    private final ActorGroup group;
+
+    @Nullable
+    private final MessageThrottle throttle;
+
+    /**
+     * Bit 0 - lock, bit 1 - released, the rest - number of pending messages.
+     */
+    private volatile int state;
 
     private volatile Node head;
 
+    /**
+     * Accessed only under lock.
+     */
     @Nullable
-    private volatile Node tail;
-
-    private final Semaphore guardSemaphore = new Semaphore(1);
+    private Node tail;
 
     public SimpleActorSupport(SimpleActorsRuntime runtime, Actor actor) {
+        this(runtime, actor, null);
+    }
+
+    public SimpleActorSupport(SimpleActorsRuntime runtime, Actor actor, @Nullable ActorGroup group) {
         this.runtime = runtime;
         this.actor = actor;
+        this.group = group;
+        throttle = group != null && group.isThrottled() ? group.createThrottle() : null;
     }
 
     @SuppressWarnings("ConstantConditions")
     @Override
     public void sendMessage(Object message) {
-        runtime.acquirePermitForMessage();
+        ActorEventSink eventSink = ActorEvents.getSink();
+        Class<?> messageType = eventSink != null ? message.getClass() : null;
+
+        Tracer tracer = runtime.tracer;
+        if (tracer != null) {
+            message = tracer.trace(message);
+        }
 
-        guardSemaphore.acquireUninterruptibly();
         try {
-            if (released) {
-                throw new ActorRefReleasedException();
+            runtime.acquirePermitForMessage(group);
+        }
+        catch (TooManyPendingMessagesException ex) {
+            if (eventSink != null) {
+                eventSink.messageRejected(actor.getClass(), messageType);
             }
+            throw ex;
+        }
+
+        Node node = runtime.admissionController != null ? new TimedNode(message, System.nanoTime()) : new Node(message);
+        int mailboxCapacity = runtime.getMailboxCapacity(group);
+        int result;
+        boolean first = false;
+        // only decide under lock: callbacks may run user code, e.g. toString()
+        int current = lock();
+        if ((current & RELEASED) != 0) {
+            result = REJECTED_RELEASED;
+        }
+        else if (mailboxCapacity > 0 && current >>> PENDING_SHIFT >= mailboxCapacity) {
+            result = REJECTED_BY_MAILBOX_CAPACITY;
+        }
+        else if (throttle != null && !throttle.isDelaying() && throttle.tryAcquire(System.nanoTime()) > 0) {
+            result = REJECTED_BY_THROTTLE;
+        }
+        else {
+            result = ENQUEUED;
+            current += ONE_PENDING;
             if (tail == null) {
-                head = tail = new Node(message);
+                head = tail = node;
+                first = true;
             }
             else {
-                tail = tail.next = new Node(message);
-                return;
+                tail = tail.next = node;
+            }
+        }
+        unlock(current);
+
+        if (result == ENQUEUED) {
+            if (eventSink != null) {
+                eventSink.messageEnqueued(actor.getClass(), messageType);
+            }
+            if (first) {
+                runtime.scheduleHandleNextMessageCall(this);
+            }
+            return;
+        }
+
+        runtime.releasePermitForMessage(group);
+        if (result == REJECTED_RELEASED) {
+            throw new ActorRefReleasedException();
+        }
+        if (result == REJECTED_BY_MAILBOX_CAPACITY) {
+            runtime.mailboxCapacityExceeded(this, group);
+        }
+        else {
+            group.messageRejectedByThrottle(this);
+        }
+        if (eventSink != null) {
+            eventSink.messageRejected(actor.getClass(), messageType);
+        }
+        throw new TooManyPendingMessagesException();
+    }
+
+    /**
+     * Returns number of messages pending delivery to this actor, including
+     * the one being processed.
+     */
+    public int getPendingMessages() {
+        return state >>> PENDING_SHIFT;
+    }
+
+    @Override
+    public int drainPendingMessages(Class<?> messageType, int maxMessages, List<Object> drained) {
+        if (TracedMessage.class.isAssignableFrom(messageType)
+                || AcknowledgedMessage.class.isAssignableFrom(messageType)) {
+            return 0;
+        }
+        // delaying throttle takes tokens on processing, so drained messages need them as well
+        MessageThrottle delayingThrottle = throttle != null && throttle.isDelaying() ? throttle : null;
+        int count = 0;
+        Node first;
+        int current = lock();
+        try {
+            first = head.next;
+            Node node = first;
+            while (node != null && count < maxMessages && node.message.getClass() == messageType
+                    && (delayingThrottle == null || delayingThrottle.tryAcquire(System.nanoTime()) == 0)) {
+                count++;
+                node = node.next;
+            }
+            if (count > 0) {
+                head.next = node;
+                if (node == null) {
+                    tail = head;
+                }
+                current -= count * ONE_PENDING;
             }
         }
         finally {
-            guardSemaphore.release();
+            unlock(current);
+        }
+        if (count == 0) {
+            return 0;
         }
 
-        runtime.scheduleHandleNextMessageCall(this);
+        AdmissionController admissionController = runtime.admissionController;
+        ActorEventSink eventSink = ActorEvents.getSink();
+        long nowNanos = admissionController != null ? System.nanoTime() : 0;
+        int added = 0;
+        Node node = first;
+        for (int i = 0; i < count; i++) {
+            runtime.releasePermitForMessage(group);
+            if (admissionController != null && node instanceof TimedNode) {
+                admissionController.messageDequeued(nowNanos - ((TimedNode) node).enqueueNanos, nowNanos);
+            }
+            Object message = node.message;
+            if (isExpired(message)) {
+                runtime.messageExpired(this, unwrap(message));
+            }
+            else {
+                drained.add(message);
+                added++;
+                if (eventSink != null) {
+                    // processing time is accounted to the draining message
+                    eventSink.messageProcessed(actor.getClass(), messageType, 0);
+                }
+            }
+            node = node.next;
+        }
+        return added;
     }
 
-    @SuppressWarnings("ReturnInsideFinallyBlock")
+    @SuppressWarnings("ConstantConditions")
     @Override
     public void run() {
-        ActorContext.setCurrentContext(this, actor);
+        if (throttle != null && throttle.isDelaying() && postponedByThrottle()) {
+            return;
+        }
+
+        ActorEventSink eventSink = ActorEvents.getSink();
+        long startNanos = eventSink != null ? System.nanoTime() : 0;
+
+        Node node = head;
+        AdmissionController admissionController = runtime.admissionController;
+        if (admissionController != null && node instanceof TimedNode) {
+            long nowNanos = System.nanoTime();
+            admissionController.messageDequeued(nowNanos - ((TimedNode) node).enqueueNanos, nowNanos);
+        }
+
+        Object message = node.message;
+        TracedMessage tracedMessage = null;
+        if (message instanceof TracedMessage) {
+            tracedMessage = (TracedMessage) message;
+            message = tracedMessage.getMessage();
+            if (startNanos == 0) {
+                startNanos = System.nanoTime();
+            }
+        }
+        ActorContext.setCurrentContext(this, actor, tracedMessage != null ? tracedMessage.getTraceContext() : null,
+                runtime.messageScheduler);
+
+        AcknowledgedMessage acknowledgedMessage = getAcknowledgedMessage(message);
+        boolean expired = isExpired(message);
+        message = unwrap(message);
 
         try {
-            if (!actor.processMessage(head.message)) {
-                logger.error(describeActorSafely() + " ignored " + head.message);
+            if (expired) {
+                runtime.messageExpired(this, message);
+            }
+            else if (!actor.processMessage(message)) {
+                logger.error(describeActorSafely() + " ignored " + message);
             }
         }
         catch (RuntimeException ex) {
-            logger.error(describeActorSafely() + ": unexpected exception processing " + head.message, ex);
+            logger.error(describeActorSafely() + ": unexpected exception processing " + message, ex);
         }
         finally {
+            List<Runnable> afterMessageTasks = ActorContext.takeAfterMessageTasks();
             ActorContext.removeCurrentContext();
 
-            runtime.releasePermitForMessage();
+            // expired message was not processed, only dead-lettered
+            if (eventSink != null && !expired) {
+                eventSink.messageProcessed(actor.getClass(), message.getClass(), System.nanoTime() - startNanos);
+            }
+            Tracer tracer = runtime.tracer;
+            if (tracedMessage != null && tracer != null) {
+                tracer.record(tracedMessage, message.getClass(), describeActorSafely(), startNanos, System.nanoTime());
+            }
+            if (acknowledgedMessage != null) {
+                acknowledge(acknowledgedMessage);
+            }
 
-            guardSemaphore.acquireUninterruptibly();
-            try {
-                head = head.next;
-                if (head == null) {
-                    tail = null;
-                    return;
-                }
+            runtime.releasePermitForMessage(group);
+
+            int current = lock();
+            Node next = head.next;
+            head = next;
+            if (next == null) {
+                tail = null;
             }
-            finally {
-                guardSemaphore.release();
+            unlock(current - ONE_PENDING);
+
+            if (next != null) {
+                runtime.scheduleHandleNextMessageCall(this);
             }
+            runAfterMessageTasks(afterMessageTasks);
+        }
+    }
 
-            runtime.scheduleHandleNextMessageCall(this);
+    private void runAfterMessageTasks(List<Runnable> tasks) {
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                tasks.get(i).run();
+            }
+            catch (RuntimeException ex) {
+                logger.error(describeActorSafely() + ": unexpected exception in after message task", ex);
+            }
         }
     }
 
-    @Override
-    public void release() {
-        guardSemaphore.acquireUninterruptibly();
+    /**
+     * Leaves messages in mailbox and reschedules processing when throttle
+     * rate is exceeded, so that throttled actor doesn't occupy a thread.
+     */
+    @SuppressWarnings("ConstantConditions")
+    private boolean postponedByThrottle() {
+        long waitNanos = throttle.tryAcquire(System.nanoTime());
+        if (waitNanos == 0) {
+            return false;
+        }
+        Runnable resumeTask = throttle.getResumeTask();
+        if (resumeTask == null) {
+            resumeTask = new Runnable() {
+                @Override
+                public void run() {
+                    runtime.scheduleHandleNextMessageCall(SimpleActorSupport.this);
+                }
+            };
+            throttle.setResumeTask(resumeTask);
+        }
         try {
-            if (released) {
-                return;
+            runtime.messageScheduler.scheduleTask(resumeTask, waitNanos, TimeUnit.NANOSECONDS);
+        }
+        catch (RuntimeException ex) {
+            logger.error(describeActorSafely() + ": failed to delay throttled message, processing it now", ex);
+            return false;
+        }
+        group.messageDelayedByThrottle(this);
+        return true;
+    }
+
+    /**
+     * Returns message inside given envelope (traced, deadline or
+     * acknowledged message), or message itself if it is not an envelope.
+     */
+    static Object unwrapOnce(Object message) {
+        if (message instanceof TracedMessage) {
+            return ((TracedMessage) message).getMessage();
+        }
+        if (message instanceof DeadlineMessage) {
+            return ((DeadlineMessage) message).getMessage();
+        }
+        if (message instanceof AcknowledgedMessage) {
+            return ((AcknowledgedMessage) message).getMessage();
+        }
+        return message;
+    }
+
+    /**
+     * Returns message as it is delivered to actor, without envelopes.
+     */
+    static Object unwrap(Object message) {
+        Object payload;
+        while ((payload = unwrapOnce(message)) != message) {
+            message = payload;
+        }
+        return message;
+    }
+
+    /**
+     * Returns outermost acknowledged envelope of message, if any.
+     */
+    @Nullable
+    static AcknowledgedMessage getAcknowledgedMessage(Object message) {
+        Object payload = message;
+        do {
+            message = payload;
+            if (message instanceof AcknowledgedMessage) {
+                return (AcknowledgedMessage) message;
             }
-            released = true;
         }
-        finally {
-            guardSemaphore.release();
+        while ((payload = unwrapOnce(message)) != message);
+        return null;
+    }
+
+    /**
+     * Returns {@code true} if deadline of message or of any of its envelopes
+     * has passed.
+     */
+    static boolean isExpired(Object message) {
+        Object payload = message;
+        long nowNanos = 0;
+        do {
+            message = payload;
+            if (message instanceof ExpiringMessage) {
+                if (nowNanos == 0) {
+                    nowNanos = System.nanoTime();
+                }
+                if (nowNanos - ((ExpiringMessage) message).getDeadlineNanos() >= 0) {
+                    return true;
+                }
+            }
+        }
+        while ((payload = unwrapOnce(message)) != message);
+        return false;
+    }
+
+    private void acknowledge(AcknowledgedMessage message) {
+        try {
+            message.acknowledge();
+        }
+        catch (RuntimeException ex) {
+            logger.error(describeActorSafely() + ": failed to acknowledge " + message, ex);
         }
     }
 
+    /**
+     * Acquires lock.
+     *
+     * @return state to modify and pass to {@link #unlock(int)}
+     */
+    private int lock() {
+        int spins = 0;
+        while (true) {
+            int current = state;
+            if ((current & LOCKED) == 0 && stateUpdater.compareAndSet(this, current, current | LOCKED)) {
+                return current;
+            }
+            if (++spins == MAX_SPINS) {
+                spins = 0;
+                Thread.yield();
+            }
+        }
+    }
+
+    private void unlock(int newState) {
+        state = newState & ~LOCKED;
+    }
+
+    @Override
+    public void release() {
+        int current = lock();
+        unlock(current | RELEASED);
+    }
+
     @Override
     public boolean releaseIfIdle() {
-        boolean fromProcessingMessage = equals(ActorContext.getCurrentActorRef());
-        guardSemaphore.acquireUninterruptibly();
+        boolean fromProcessingMessage = ActorContext.isProcessingMessage() && equals(ActorContext.getCurrentActorRef());
+        int current = lock();
         try {
-            if (released) {
+            if ((current & RELEASED) != 0) {
                 return true;
             }
             if (fromProcessingMessage) {
@@ -140,14 +503,26 @@ public final class SimpleActorSupport implements ActorRef, Runnable {
                     return false;
                 }
             }
-            released = true;
+            current |= RELEASED;
             return true;
         }
         finally {
-            guardSemaphore.release();
+            unlock(current);
         }
     }
 
+    Class<?> getActorClass() {
+        return actor.getClass();
+    }
+
+    /**
+     * Returns type of message to be processed next, unwrapped; called only
+     * when actor is scheduled, i.e. when there is a pending message.
+     */
+    Class<?> getNextMessageClass() {
+        return unwrap(head.message).getClass();
+    }
+
     public String describeActorSafely() {
         try {
             return actor.toString();
@@ -4,16 +4,27 @@
 package com.sulake.common.actors.spi;
 
 import com.sulake.common.actors.Actor;
+import com.sulake.common.actors.ActorContext;
 import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.OverloadedException;
 import com.sulake.common.actors.TooManyPendingMessagesException;
+import com.sulake.common.actors.scheduler.MessageScheduler;
+import com.sulake.common.actors.tracing.Tracer;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Required;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
 import org.springframework.jmx.export.annotation.ManagedResource;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Abstract implementation of {@link ActorsRuntime}, creates
@@ -22,7 +33,9 @@ import java.util.concurrent.TimeUnit;
  * @author dmitrym
  */
 @ManagedResource
-public abstract class SimpleActorsRuntime implements ActorsRuntime {
+public abstract class SimpleActorsRuntime implements GroupAwareActorsRuntime {
+
+    private static final Logger logger = Logger.getLogger(SimpleActorsRuntime.class);
 
     private static final long DEFAULT_WAIT_TIME_IN_MILLIS = TimeUnit.SECONDS.toMillis(30);
 
@@ -34,6 +47,33 @@ public abstract class SimpleActorsRuntime implements ActorsRuntime {
 
     protected long shutdownWaitTimeInMillis = DEFAULT_WAIT_TIME_IN_MILLIS;
 
+    protected int maxMessagesPerActor;
+
+    private final Map<String, ActorGroup> actorGroups = new ConcurrentHashMap<String, ActorGroup>();
+
+    private final AtomicLong rejectedByRuntimeLimit = new AtomicLong();
+
+    private final AtomicLong rejectedByMailboxCapacity = new AtomicLong();
+
+    private final AtomicLong rejectedByAdmissionControl = new AtomicLong();
+
+    private final AtomicLong expiredMessages = new AtomicLong();
+
+    @Nullable
+    private volatile SimpleActorSupport lastMailboxOverflowActor;
+
+    @Nullable
+    Tracer tracer;
+
+    @Nullable
+    MessageScheduler messageScheduler;
+
+    @Nullable
+    AdmissionController admissionController;
+
+    @Nullable
+    private DeadLetterHandler deadLetterHandler;
+
     public SimpleActorsRuntime(int maxMessages) {
         setMaxMessages(maxMessages);
     }
@@ -54,25 +94,188 @@ public abstract class SimpleActorsRuntime implements ActorsRuntime {
         shutdownWaitTimeInMillis = setShutdownWaitTimeInMillis;
     }
 
+    /**
+     * Sets default mailbox capacity of individual actors; {@code 0} (default)
+     * means that only runtime-wide and group limits apply.
+     *
+     * @see ActorGroup#setMaxMessagesPerActor(int)
+     */
+    public void setMaxMessagesPerActor(int maxMessagesPerActor) {
+        this.maxMessagesPerActor = maxMessagesPerActor;
+    }
+
+    /**
+     * Enables sampled message tracing; {@code null} (default) disables it,
+     * leaving only single check per message.
+     */
+    public void setTracer(@Nullable Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Sets scheduler available to actors via
+     * {@link com.sulake.common.actors.ActorContext#scheduleOnce}, none by
+     * default.
+     */
+    public void setMessageScheduler(@Nullable MessageScheduler messageScheduler) {
+        this.messageScheduler = messageScheduler;
+    }
+
+    /**
+     * Enables latency-based load shedding; {@code null} (default) disables
+     * it, so that only {@code maxMessages} and group limits apply.
+     */
+    public void setAdmissionController(@Nullable AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    /**
+     * Sets handler of discarded messages, none by default.
+     *
+     * @see com.sulake.common.actors.ExpiringMessage
+     */
+    public void setDeadLetterHandler(@Nullable DeadLetterHandler deadLetterHandler) {
+        this.deadLetterHandler = deadLetterHandler;
+    }
+
+    public void setActorGroups(Collection<ActorGroup> actorGroups) {
+        for (ActorGroup actorGroup : actorGroups) {
+            addActorGroup(actorGroup);
+        }
+    }
+
+    public void addActorGroup(ActorGroup actorGroup) {
+        if (actorGroups.put(actorGroup.getName(), actorGroup) != null) {
+            throw new IllegalArgumentException("Duplicate actor group " + actorGroup.getName());
+        }
+    }
+
     @ManagedAttribute
     public int getPendingMessages() {
         return maxMessages - messagePermits.availablePermits();
     }
 
+    @ManagedAttribute
+    public int getMaxMessagesPerActor() {
+        return maxMessagesPerActor;
+    }
+
+    @ManagedAttribute
+    public long getRejectedByRuntimeLimit() {
+        return rejectedByRuntimeLimit.get();
+    }
+
+    @ManagedAttribute
+    public long getRejectedByMailboxCapacity() {
+        return rejectedByMailboxCapacity.get();
+    }
+
+    @ManagedAttribute
+    public long getRejectedByAdmissionControl() {
+        return rejectedByAdmissionControl.get();
+    }
+
+    /**
+     * Returns number of messages discarded because their deadline had passed
+     * before processing.
+     */
+    @ManagedAttribute
+    public long getExpiredMessages() {
+        return expiredMessages.get();
+    }
+
+    @ManagedAttribute
+    public String getLastMailboxOverflowActor() {
+        SimpleActorSupport actorSupport = lastMailboxOverflowActor;
+        return actorSupport != null ? actorSupport.describeActorSafely() : null;
+    }
+
+    @ManagedOperation
+    public int getGroupPendingMessages(String groupName) {
+        return getActorGroup(groupName).getPendingMessages();
+    }
+
+    @ManagedOperation
+    public long getGroupRejectedMessages(String groupName) {
+        ActorGroup actorGroup = getActorGroup(groupName);
+        return actorGroup.getRejectedByGroupQuota() + actorGroup.getRejectedByMailboxCapacity();
+    }
+
     public void acquirePermitForMessage() {
         if (closed) {
             throw new IllegalStateException("Actor runtime is closing");
         }
+        AdmissionController controller = admissionController;
+        if (controller != null && controller.isShedding()
+                && !controller.admit(getPendingMessages(), ActorContext.isProcessingMessage())) {
+            rejectedByAdmissionControl.incrementAndGet();
+            throw new OverloadedException();
+        }
         if (!messagePermits.tryAcquire()) {
             // TODO implement policy
+            rejectedByRuntimeLimit.incrementAndGet();
             throw new TooManyPendingMessagesException();
         }
     }
 
+    /**
+     * Acquires permits for message both from runtime and from given group.
+     *
+     * @param actorGroup group of target actor, can be {@code null}
+     */
+    public void acquirePermitForMessage(@Nullable ActorGroup actorGroup) {
+        acquirePermitForMessage();
+        if (actorGroup != null) {
+            try {
+                actorGroup.acquirePermitForMessage();
+            }
+            catch (TooManyPendingMessagesException ex) {
+                releasePermitForMessage();
+                throw ex;
+            }
+        }
+    }
+
     public void releasePermitForMessage() {
         messagePermits.release();
     }
 
+    public void releasePermitForMessage(@Nullable ActorGroup actorGroup) {
+        if (actorGroup != null) {
+            actorGroup.releasePermitForMessage();
+        }
+        releasePermitForMessage();
+    }
+
+    void mailboxCapacityExceeded(SimpleActorSupport actorSupport, @Nullable ActorGroup actorGroup) {
+        rejectedByMailboxCapacity.incrementAndGet();
+        if (actorGroup != null) {
+            actorGroup.mailboxCapacityExceeded();
+        }
+        // described lazily, rejections are frequent under overload
+        lastMailboxOverflowActor = actorSupport;
+    }
+
+    void messageExpired(SimpleActorSupport actorSupport, Object message) {
+        expiredMessages.incrementAndGet();
+        DeadLetterHandler handler = deadLetterHandler;
+        if (handler != null) {
+            try {
+                handler.messageExpired(actorSupport, message);
+            }
+            catch (RuntimeException ex) {
+                logger.error(actorSupport.describeActorSafely() + ": dead letter handler failed for " + message, ex);
+            }
+        }
+    }
+
+    int getMailboxCapacity(@Nullable ActorGroup actorGroup) {
+        if (actorGroup != null && actorGroup.getMaxMessagesPerActor() > 0) {
+            return actorGroup.getMaxMessagesPerActor();
+        }
+        return maxMessagesPerActor;
+    }
+
     @Override
     public ActorRef getSupportFor(Actor actor) {
         if (closed) {
@@ -81,6 +284,22 @@ public abstract class SimpleActorsRuntime implements ActorsRuntime {
         return new SimpleActorSupport(this, actor);
     }
 
+    @Override
+    public ActorRef getSupportFor(Actor actor, String groupName) {
+        if (closed) {
+            throw new IllegalStateException("Actor runtime is closing");
+        }
+        return new SimpleActorSupport(this, actor, getActorGroup(groupName));
+    }
+
+    private ActorGroup getActorGroup(String groupName) {
+        ActorGroup actorGroup = actorGroups.get(groupName);
+        if (actorGroup == null) {
+            throw new IllegalArgumentException("Unknown actor group " + groupName);
+        }
+        return actorGroup;
+    }
+
     @PostConstruct
     public void start() {
         if (!closed) {
@@ -90,6 +309,11 @@ public abstract class SimpleActorsRuntime implements ActorsRuntime {
         if (messagePermits == null) {
             throw new IllegalStateException("maxMessages has not been set");
         }
+        for (ActorGroup actorGroup : actorGroups.values()) {
+            if (actorGroup.isDelayingThrottle() && messageScheduler == null) {
+                throw new IllegalStateException(actorGroup + ": delaying throttle requires messageScheduler");
+            }
+        }
 
         closed = false;
     }
@@ -114,6 +338,8 @@ public abstract class SimpleActorsRuntime implements ActorsRuntime {
         sb.append(", messagePermits=").append(messagePermits);
         sb.append(", closed=").append(closed);
         sb.append(", shutdownWaitTimeInMillis=").append(shutdownWaitTimeInMillis);
+        sb.append(", maxMessagesPerActor=").append(maxMessagesPerActor);
+        sb.append(", actorGroups=").append(actorGroups.values());
         sb.append('}');
         return sb.toString();
     }
@@ -0,0 +1,26 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.spi;
+
+/**
+ * What to do with messages to an actor exceeding throttle rate of its
+ * {@link ActorGroup}.
+ *
+ * @author dmitrym
+ * @see ActorGroup#setThrottlePolicy(ThrottlePolicy)
+ */
+public enum ThrottlePolicy {
+
+    /**
+     * Reject message with {@link com.sulake.common.actors.TooManyPendingMessagesException}.
+     */
+    REJECT,
+
+    /**
+     * Keep message in mailbox and process it when rate allows, without
+     * occupying a thread meanwhile; mailbox capacity still applies.
+     * Requires {@link SimpleActorsRuntime#setMessageScheduler}.
+     */
+    DELAY
+}
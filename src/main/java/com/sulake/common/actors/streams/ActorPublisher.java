@@ -0,0 +1,305 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.streams;
+
+import com.sulake.common.actors.ActorRef;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reactive Streams {@link Publisher} for outputs of an actor. Each
+ * subscriber has its own buffer of {@code bufferSize} elements, which are
+ * delivered as subscriber requests them. {@link #offer(Object)} refuses
+ * element when there are no subscribers or buffer of any subscriber is
+ * full; if producer actor is configured, it then receives
+ * {@link DemandAvailable} once a subscriber arrives or all subscribers can
+ * accept elements again, so it can resume without polling.
+ * <p/>
+ * <b>Note:</b> {@link #offer(Object)}, {@link #complete()} and
+ * {@link #fail(Throwable)} MUST be called by single thread at a time,
+ * normally while processing messages of producer actor.
+ *
+ * @param <T> type of elements
+ * @author dmitrym
+ */
+public class ActorPublisher<T> implements Publisher<T> {
+
+    private static final Logger logger = Logger.getLogger(ActorPublisher.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 32;
+
+    private final class StreamSubscription implements Subscription {
+
+        private final Subscriber<? super T> subscriber;
+
+        private final Queue<T> queue = new ConcurrentLinkedQueue<T>();
+
+        private final AtomicInteger queued = new AtomicInteger();
+
+        private final AtomicLong requested = new AtomicLong();
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile boolean subscribed;
+
+        private volatile boolean cancelled;
+
+        @Nullable
+        private volatile IllegalArgumentException badRequest;
+
+        private StreamSubscription(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("Non-positive request: " + n);
+            }
+            else {
+                long current;
+                do {
+                    current = requested.get();
+                }
+                while (!requested.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            signalDemand();
+        }
+
+        private boolean hasCapacity() {
+            return cancelled || queued.get() < bufferSize;
+        }
+
+        private void enqueue(T element) {
+            queue.add(element);
+            queued.incrementAndGet();
+            drain();
+        }
+
+        /**
+         * Signals are serialized by whichever thread gets here first, the
+         * others only mark more work.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            while (true) {
+                if (subscribed && !cancelled) {
+                    try {
+                        drainOnce();
+                    }
+                    catch (RuntimeException ex) {
+                        logger.error(ActorPublisher.this + ": subscriber " + subscriber + " failed, cancelling", ex);
+                        cancel();
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        private void drainOnce() {
+            IllegalArgumentException requestError = badRequest;
+            if (requestError != null) {
+                cancel();
+                subscriber.onError(requestError);
+                return;
+            }
+
+            long limit = requested.get();
+            long emitted = 0;
+            while (emitted != limit && !cancelled) {
+                T element = queue.poll();
+                if (element == null) {
+                    break;
+                }
+                queued.decrementAndGet();
+                subscriber.onNext(element);
+                emitted++;
+            }
+            if (emitted != 0 && limit != Long.MAX_VALUE) {
+                requested.addAndGet(-emitted);
+            }
+
+            if (!cancelled && terminated && queue.isEmpty()) {
+                cancelled = true;
+                subscriptions.remove(this);
+                Throwable cause = failure;
+                if (cause != null) {
+                    subscriber.onError(cause);
+                }
+                else {
+                    subscriber.onComplete();
+                }
+            }
+            else if (emitted != 0) {
+                signalDemand();
+            }
+        }
+    }
+
+    private final int bufferSize;
+
+    @Nullable
+    private final ActorRef producer;
+
+    private final List<StreamSubscription> subscriptions = new CopyOnWriteArrayList<StreamSubscription>();
+
+    private final AtomicBoolean producerWaiting = new AtomicBoolean();
+
+    private final AtomicLong publishedElements = new AtomicLong();
+
+    private volatile boolean terminated;
+
+    @Nullable
+    private volatile Throwable failure;
+
+    public ActorPublisher() {
+        this(DEFAULT_BUFFER_SIZE, null);
+    }
+
+    /**
+     * @param producer actor to notify with {@link DemandAvailable} after
+     *                 refused offer, or {@code null}
+     */
+    public ActorPublisher(int bufferSize, @Nullable ActorRef producer) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.producer = producer;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        StreamSubscription subscription = new StreamSubscription(subscriber);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        // signals are held back until onSubscribe returns
+        subscription.subscribed = true;
+        subscription.drain();
+        signalDemand();
+    }
+
+    /**
+     * Publishes element to all current subscribers, unless there are none or
+     * buffer of some subscriber is full.
+     *
+     * @return {@code false} if element was refused
+     * @throws IllegalStateException if stream is already terminated
+     */
+    public boolean offer(T element) {
+        if (element == null) {
+            throw new NullPointerException("element");
+        }
+        if (terminated) {
+            throw new IllegalStateException(this + " is already terminated");
+        }
+        if (!hasCapacity()) {
+            producerWaiting.set(true);
+            // subscriber may have drained after the check above
+            if (!hasCapacity() || !producerWaiting.compareAndSet(true, false)) {
+                return false;
+            }
+        }
+        for (StreamSubscription subscription : subscriptions) {
+            subscription.enqueue(element);
+        }
+        publishedElements.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Completes stream; subscribers receive buffered elements first.
+     */
+    public void complete() {
+        terminate(null);
+    }
+
+    public void fail(Throwable cause) {
+        if (cause == null) {
+            throw new NullPointerException("cause");
+        }
+        terminate(cause);
+    }
+
+    /**
+     * Returns {@code true} if next {@link #offer(Object)} would be accepted.
+     */
+    public boolean hasCapacity() {
+        if (subscriptions.isEmpty()) {
+            return false;
+        }
+        for (StreamSubscription subscription : subscriptions) {
+            if (!subscription.hasCapacity()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getSubscribers() {
+        return subscriptions.size();
+    }
+
+    public long getPublishedElements() {
+        return publishedElements.get();
+    }
+
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    private void terminate(@Nullable Throwable cause) {
+        if (terminated) {
+            return;
+        }
+        failure = cause;
+        terminated = true;
+        for (StreamSubscription subscription : subscriptions) {
+            subscription.drain();
+        }
+    }
+
+    private void signalDemand() {
+        if (producer != null && producerWaiting.get() && hasCapacity() && producerWaiting.compareAndSet(true, false)) {
+            try {
+                producer.sendMessage(new DemandAvailable(this));
+            }
+            catch (RuntimeException ex) {
+                logger.error(this + ": failed to notify producer " + producer, ex);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ActorPublisher{bufferSize=" + bufferSize + ", subscribers=" + subscriptions.size() + '}';
+    }
+}
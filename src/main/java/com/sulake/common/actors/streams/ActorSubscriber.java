@@ -0,0 +1,178 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.streams;
+
+import com.sulake.common.actors.AcknowledgedMessage;
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.ActorRefReleasedException;
+import com.sulake.common.actors.TooManyPendingMessagesException;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reactive Streams {@link Subscriber} delivering elements to an actor.
+ * At most {@code bufferSize} elements are requested ahead of processing:
+ * elements are sent as {@link AcknowledgedMessage}, and more are requested
+ * only after actor has processed them, so producer streams at exactly the
+ * rate of the actor and its mailbox never holds more than
+ * {@code bufferSize} elements of the stream.
+ * <p/>
+ * Actor receives elements themselves, followed by {@link StreamTerminated}
+ * on completion or failure of stream. Demand is replenished in batches of
+ * half of buffer to keep {@code request} calls rare.
+ *
+ * @param <T> type of elements
+ * @author dmitrym
+ */
+public class ActorSubscriber<T> implements Subscriber<T> {
+
+    private static final Logger logger = Logger.getLogger(ActorSubscriber.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 32;
+
+    private final class StreamElement implements AcknowledgedMessage {
+
+        private final T element;
+
+        private StreamElement(T element) {
+            this.element = element;
+        }
+
+        @Override
+        public Object getMessage() {
+            return element;
+        }
+
+        @Override
+        public void acknowledge() {
+            elementProcessed();
+        }
+    }
+
+    private final ActorRef actorRef;
+
+    private final int bufferSize;
+
+    private final int replenishSize;
+
+    private final AtomicInteger processedSinceRequest = new AtomicInteger();
+
+    @Nullable
+    private Subscription subscription;
+
+    private boolean cancelled;
+
+    public ActorSubscriber(ActorRef actorRef) {
+        this(actorRef, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize maximum number of stream elements pending in mailbox
+     *                   of actor; SHOULD not exceed mailbox capacity
+     */
+    public ActorSubscriber(ActorRef actorRef, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        this.actorRef = actorRef;
+        this.bufferSize = bufferSize;
+        this.replenishSize = Math.max(1, bufferSize / 2);
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (subscription == null) {
+            throw new NullPointerException("subscription");
+        }
+        synchronized (this) {
+            if (this.subscription != null || cancelled) {
+                subscription.cancel();
+                return;
+            }
+            this.subscription = subscription;
+            subscription.request(bufferSize);
+        }
+    }
+
+    @Override
+    public void onNext(T element) {
+        if (element == null) {
+            throw new NullPointerException("element");
+        }
+        try {
+            actorRef.sendMessage(new StreamElement(element));
+        }
+        catch (TooManyPendingMessagesException ex) {
+            logger.error(this + ": actor overloaded by other senders, cancelling stream", ex);
+            cancel();
+        }
+        catch (ActorRefReleasedException ex) {
+            logger.warn(this + ": actor released, cancelling stream");
+            cancel();
+        }
+    }
+
+    @Override
+    public void onError(Throwable cause) {
+        if (cause == null) {
+            throw new NullPointerException("cause");
+        }
+        sendTerminated(cause);
+    }
+
+    @Override
+    public void onComplete() {
+        sendTerminated(null);
+    }
+
+    /**
+     * Cancels subscription; elements already sent to actor are still
+     * processed.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    private void sendTerminated(@Nullable Throwable cause) {
+        try {
+            actorRef.sendMessage(new StreamTerminated(this, cause));
+        }
+        catch (RuntimeException ex) {
+            logger.error(this + ": failed to deliver end of stream", ex);
+        }
+    }
+
+    private void elementProcessed() {
+        if (processedSinceRequest.incrementAndGet() == replenishSize) {
+            processedSinceRequest.addAndGet(-replenishSize);
+            request(replenishSize);
+        }
+    }
+
+    /**
+     * Calls to subscription MUST be serialized, and elements may be
+     * acknowledged concurrently when actor ref is a router.
+     */
+    private synchronized void request(int n) {
+        if (!cancelled && subscription != null) {
+            subscription.request(n);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ActorSubscriber{" + actorRef + ", bufferSize=" + bufferSize + '}';
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.streams;
+
+/**
+ * Message delivered to producer actor by {@link ActorPublisher} when all
+ * subscribers can accept elements again after
+ * {@link ActorPublisher#offer(Object)} was refused.
+ *
+ * @author dmitrym
+ */
+public final class DemandAvailable {
+
+    private final ActorPublisher<?> publisher;
+
+    DemandAvailable(ActorPublisher<?> publisher) {
+        this.publisher = publisher;
+    }
+
+    public ActorPublisher<?> getPublisher() {
+        return publisher;
+    }
+
+    @Override
+    public String toString() {
+        return "DemandAvailable{" + publisher + '}';
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.streams;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Message delivered to actor by {@link ActorSubscriber} after the last
+ * element of stream, when stream completes or fails.
+ *
+ * @author dmitrym
+ */
+public final class StreamTerminated {
+
+    private final ActorSubscriber<?> subscriber;
+
+    @Nullable
+    private final Throwable cause;
+
+    StreamTerminated(ActorSubscriber<?> subscriber, @Nullable Throwable cause) {
+        this.subscriber = subscriber;
+        this.cause = cause;
+    }
+
+    public ActorSubscriber<?> getSubscriber() {
+        return subscriber;
+    }
+
+    /**
+     * Returns failure of stream or {@code null} if stream completed normally.
+     */
+    @Nullable
+    public Throwable getCause() {
+        return cause;
+    }
+
+    public boolean isFailed() {
+        return cause != null;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamTerminated{" + subscriber + (cause != null ? ", cause=" + cause : "") + '}';
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.tracing;
+
+/**
+ * Recorded hop of a trace: which actor processed which message, how long
+ * message waited in mailbox and how long it was processed.
+ *
+ * @author dmitrym
+ */
+public final class Span {
+
+    private final TraceContext traceContext;
+
+    private final String actor;
+
+    private final String messageType;
+
+    private final long enqueueTimeMillis;
+
+    private final long queueNanos;
+
+    private final long processingNanos;
+
+    Span(TracedMessage message, Class<?> messageType, String actor, long startNanos, long endNanos) {
+        traceContext = message.getTraceContext();
+        this.actor = actor;
+        this.messageType = messageType.getName();
+        enqueueTimeMillis = message.getEnqueueTimeMillis();
+        queueNanos = startNanos - message.getEnqueueNanos();
+        processingNanos = endNanos - startNanos;
+    }
+
+    public TraceContext getTraceContext() {
+        return traceContext;
+    }
+
+    public String getActor() {
+        return actor;
+    }
+
+    public String getMessageType() {
+        return messageType;
+    }
+
+    /**
+     * @return wall clock time when message was sent
+     */
+    public long getEnqueueTimeMillis() {
+        return enqueueTimeMillis;
+    }
+
+    public long getQueueNanos() {
+        return queueNanos;
+    }
+
+    public long getProcessingNanos() {
+        return processingNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x %016x %016x %d queue=%dus processing=%dus %s %s",
+                traceContext.getTraceId(), traceContext.getSpanId(), traceContext.getParentSpanId(),
+                enqueueTimeMillis, queueNanos / 1000, processingNanos / 1000, actor, messageType);
+    }
+}
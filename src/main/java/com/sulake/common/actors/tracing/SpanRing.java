@@ -0,0 +1,65 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size lock-free ring of most recent {@link Span}s; when full, oldest
+ * spans are overwritten.
+ *
+ * @author dmitrym
+ */
+final class SpanRing {
+
+    private final AtomicReferenceArray<Span> spans;
+
+    private final int mask;
+
+    private final AtomicLong position = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to power of two
+     */
+    SpanRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        spans = new AtomicReferenceArray<Span>(size);
+        mask = size - 1;
+    }
+
+    void add(Span span) {
+        spans.lazySet((int) (position.getAndIncrement() & mask), span);
+    }
+
+    /**
+     * @return total number of spans ever added
+     */
+    long getAddedSpans() {
+        return position.get();
+    }
+
+    /**
+     * Returns spans currently in ring, oldest first; spans added
+     * concurrently may or may not be included.
+     */
+    List<Span> snapshot() {
+        long end = position.get();
+        long start = Math.max(0, end - spans.length());
+        List<Span> result = new ArrayList<Span>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            Span span = spans.get((int) (i & mask));
+            if (span != null) {
+                result.add(span);
+            }
+        }
+        return result;
+    }
+
+    int capacity() {
+        return spans.length();
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.tracing;
+
+/**
+ * Identifies single hop (span) of sampled trace: delivery of one message to
+ * one actor.
+ *
+ * @author dmitrym
+ */
+public final class TraceContext {
+
+    private final long traceId;
+
+    private final long spanId;
+
+    private final long parentSpanId;
+
+    public TraceContext(long traceId, long spanId, long parentSpanId) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public long getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return id of span which caused this one, {@code 0} for root span
+     */
+    public long getParentSpanId() {
+        return parentSpanId;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TraceContext{%016x/%016x<-%016x}", traceId, spanId, parentSpanId);
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.tracing;
+
+/**
+ * Envelope of sampled message, created by {@link Tracer#trace(Object)} on
+ * send and unwrapped by actors runtime before delivery.
+ *
+ * @author dmitrym
+ */
+public final class TracedMessage {
+
+    private final Object message;
+
+    private final TraceContext traceContext;
+
+    private final long enqueueTimeMillis;
+
+    private final long enqueueNanos;
+
+    TracedMessage(Object message, TraceContext traceContext) {
+        this.message = message;
+        this.traceContext = traceContext;
+        enqueueTimeMillis = System.currentTimeMillis();
+        enqueueNanos = System.nanoTime();
+    }
+
+    public Object getMessage() {
+        return message;
+    }
+
+    public TraceContext getTraceContext() {
+        return traceContext;
+    }
+
+    public long getEnqueueTimeMillis() {
+        return enqueueTimeMillis;
+    }
+
+    public long getEnqueueNanos() {
+        return enqueueNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "TracedMessage{" + traceContext + ", " + message + '}';
+    }
+}
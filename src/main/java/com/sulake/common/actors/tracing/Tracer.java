@@ -0,0 +1,182 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.tracing;
+
+import com.sulake.common.actors.ActorContext;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sampled causal tracing of messages. Message sent from outside of actors
+ * starts new trace with probability {@code sampleRate}; message sent while
+ * processing traced message continues the same trace as child span. Each
+ * hop is recorded as {@link Span} in in-memory ring.
+ * <p/>
+ * Sampled messages are wrapped in {@link TracedMessage}, so that messages
+ * which are not sampled are delivered exactly as without tracer. Sampling
+ * decision draws from per-thread generator, so senders don't share any
+ * written state.
+ *
+ * @author dmitrym
+ * @see com.sulake.common.actors.spi.SimpleActorsRuntime#setTracer(Tracer)
+ */
+@ManagedResource
+public class Tracer {
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    public static final double DEFAULT_SAMPLE_RATE = 0.001;
+
+    private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private volatile double sampleRate = DEFAULT_SAMPLE_RATE;
+
+    /**
+     * Sample rate scaled to non-negative {@code long} range.
+     */
+    private volatile long sampleThreshold = toThreshold(DEFAULT_SAMPLE_RATE);
+
+    private SpanRing spans = new SpanRing(DEFAULT_CAPACITY);
+
+    private final AtomicLong startedTraces = new AtomicLong();
+
+    /**
+     * Sets capacity of span ring, rounded up to power of two.
+     */
+    public void setCapacity(int capacity) {
+        spans = new SpanRing(capacity);
+    }
+
+    /**
+     * Sets probability of starting new trace for message sent from outside
+     * of actors; {@code 0} disables new traces.
+     */
+    @ManagedAttribute
+    public void setSampleRate(double sampleRate) {
+        sampleThreshold = toThreshold(sampleRate);
+        this.sampleRate = sampleRate;
+    }
+
+    @ManagedAttribute
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    @ManagedAttribute
+    public int getCapacity() {
+        return spans.capacity();
+    }
+
+    @ManagedAttribute
+    public long getStartedTraces() {
+        return startedTraces.get();
+    }
+
+    @ManagedAttribute
+    public long getRecordedSpans() {
+        return spans.getAddedSpans();
+    }
+
+    /**
+     * Wraps message into {@link TracedMessage} if it continues trace of
+     * message being processed in current thread or is sampled for new trace.
+     *
+     * @return traced or original message
+     */
+    public Object trace(Object message) {
+        TraceContext parent = ActorContext.getCurrentTraceContext();
+        if (parent != null) {
+            return new TracedMessage(message, new TraceContext(parent.getTraceId(), newId(), parent.getSpanId()));
+        }
+
+        double rate = sampleRate;
+        if (rate <= 0 || rate < 1 && !sample()) {
+            return message;
+        }
+        startedTraces.incrementAndGet();
+        long traceId = newId();
+        return new TracedMessage(message, new TraceContext(traceId, traceId, 0));
+    }
+
+    /**
+     * Records hop of traced message.
+     *
+     * @param messageType type of message delivered to actor, i.e. without envelopes
+     */
+    public void record(TracedMessage message, Class<?> messageType, String actor, long startNanos, long endNanos) {
+        spans.add(new Span(message, messageType, actor, startNanos, endNanos));
+    }
+
+    /**
+     * Returns recorded spans, oldest first.
+     */
+    public List<Span> getSpans() {
+        return spans.snapshot();
+    }
+
+    /**
+     * Returns recorded spans of given trace, oldest first.
+     */
+    public List<Span> getTrace(long traceId) {
+        List<Span> trace = new ArrayList<Span>();
+        for (Span span : spans.snapshot()) {
+            if (span.getTraceContext().getTraceId() == traceId) {
+                trace.add(span);
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Exports recorded spans, one per line:
+     * {@code traceId spanId parentSpanId enqueueTimeMillis queue processing actor messageType}.
+     *
+     * @param traceId hexadecimal trace id or empty string for all spans
+     */
+    @ManagedOperation
+    public String exportSpans(String traceId) {
+        List<Span> selected = traceId == null || traceId.isEmpty() ? getSpans()
+                : getTrace(new BigInteger(traceId, 16).longValue());
+        StringBuilder sb = new StringBuilder();
+        for (Span span : selected) {
+            sb.append(span).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private boolean sample() {
+        return (ThreadLocalRandom.current().nextLong() >>> 1) < sampleThreshold;
+    }
+
+    private static long toThreshold(double rate) {
+        return rate >= 1 ? Long.MAX_VALUE : (long) (Math.max(rate, 0) * Long.MAX_VALUE);
+    }
+
+    private static long newId() {
+        long id;
+        do {
+            id = random.get().nextLong();
+        }
+        while (id == 0);
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return "Tracer{sampleRate=" + sampleRate + '}';
+    }
+}
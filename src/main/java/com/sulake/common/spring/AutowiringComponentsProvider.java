@@ -7,10 +7,13 @@ import com.sulake.common.util.ComponentClassesProvider;
 import com.sulake.common.util.ComponentsProvider;
 import org.springframework.beans.factory.annotation.Required;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 
 /**
  * Provides list of initialized component instances by auto-wiring classes delivered by {@link ComponentClassesProvider}.
+ * Component classes are resolved once and cached, new instances are created on each call.
  *
  * @author dmitrym
  */
@@ -18,10 +21,12 @@ public class AutowiringComponentsProvider implements ComponentsProvider {
 
     private ClasspathScanningHelper classpathScanningHelper;
     private ComponentClassesProvider componentClassesProvider;
+    private volatile Collection<Class<?>> componentClasses;
 
     @Required
     public void setComponentClassesProvider(ComponentClassesProvider componentClassesProvider) {
         this.componentClassesProvider = componentClassesProvider;
+        componentClasses = null;
     }
 
     @Required
@@ -31,6 +36,15 @@ public class AutowiringComponentsProvider implements ComponentsProvider {
 
     @Override
     public <T> Collection<T> getComponents() {
-        return classpathScanningHelper.autowire(componentClassesProvider.getComponentClasses());
+        return classpathScanningHelper.autowire(getComponentClasses());
+    }
+
+    public Collection<Class<?>> getComponentClasses() {
+        Collection<Class<?>> classes = componentClasses;
+        if (classes == null) {
+            classes = Collections.unmodifiableList(new ArrayList<Class<?>>(componentClassesProvider.getComponentClasses()));
+            componentClasses = classes;
+        }
+        return classes;
     }
 }
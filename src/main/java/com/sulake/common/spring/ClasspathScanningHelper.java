@@ -11,9 +11,21 @@ import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Helper to ease classpath scanning.
+ * <p/>
+ * With {@code parallelism} above {@code 1} components are created
+ * concurrently, which speeds up startup with hundreds of components; they
+ * MUST NOT depend on order of creation then. Components are returned in
+ * order of classes in either case.
  *
  * @author dmitrym
  */
@@ -21,17 +33,89 @@ public class ClasspathScanningHelper implements BeanFactoryAware {
 
     private AutowireCapableBeanFactory autowireCapableBeanFactory;
 
+    private int parallelism = 1;
+
     @Override
     public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
         autowireCapableBeanFactory = (AutowireCapableBeanFactory) beanFactory;
     }
 
+    /**
+     * Sets number of threads creating components, {@code 1} (i.e. creating
+     * them in calling thread) by default.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
     @SuppressWarnings("unchecked")
     public <T> Collection<T> autowire(Collection<Class<?>> componentClasses) {
+        if (parallelism > 1 && componentClasses.size() > 1) {
+            return (List<T>) autowireInParallel(componentClasses);
+        }
         List<Object> components = new ArrayList<Object>(componentClasses.size());
         for (Class<?> componentClass : componentClasses) {
             components.add(autowireCapableBeanFactory.createBean(componentClass));
         }
         return (List<T>) components;
     }
+
+    private List<Object> autowireInParallel(Collection<Class<?>> componentClasses) {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, componentClasses.size()),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "autowire-" + threadNumber.incrementAndGet());
+                        thread.setContextClassLoader(classLoader);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>(componentClasses.size());
+            for (final Class<?> componentClass : componentClasses) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return autowireCapableBeanFactory.createBean(componentClass);
+                    }
+                }));
+            }
+
+            List<Object> components = new ArrayList<Object>(futures.size());
+            for (Future<Object> future : futures) {
+                components.add(getComponent(future));
+            }
+            return components;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Object getComponent(Future<Object> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while creating components", ex);
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Failed to create component", cause);
+        }
+    }
 }
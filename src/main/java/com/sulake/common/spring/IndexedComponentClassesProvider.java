@@ -0,0 +1,172 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.spring;
+
+import com.sulake.common.util.ComponentClassesProvider;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Provides component classes listed in build-time index instead of scanning
+ * classpath at startup. Index is a text resource
+ * {@code META-INF/components/<indexName>} with one class name per line,
+ * lines starting with {@code #} are ignored; indices of the same name in
+ * several jars are merged.
+ * <p/>
+ * Index is generated at build time by {@link #main(String[])} from any
+ * other {@link ComponentClassesProvider}, e.g. with exec-maven-plugin in
+ * {@code process-classes} phase:
+ * <pre>
+ * java com.sulake.common.spring.IndexedComponentClassesProvider target/classes handlers com.example.HandlerClassesProvider
+ * </pre>
+ *
+ * @author dmitrym
+ */
+public class IndexedComponentClassesProvider implements ComponentClassesProvider {
+
+    public static final String INDEX_LOCATION = "META-INF/components/";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private String indexName;
+
+    private ClassLoader classLoader = IndexedComponentClassesProvider.class.getClassLoader();
+
+    private volatile List<Class<?>> componentClasses;
+
+    public IndexedComponentClassesProvider(String indexName) {
+        setIndexName(indexName);
+    }
+
+    /**
+     * Constructor for Spring.
+     */
+    public IndexedComponentClassesProvider() {
+    }
+
+    @Required
+    public void setIndexName(String indexName) {
+        this.indexName = indexName;
+    }
+
+    public void setClassLoader(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    @Override
+    public Collection<Class<?>> getComponentClasses() {
+        List<Class<?>> classes = componentClasses;
+        if (classes == null) {
+            classes = Collections.unmodifiableList(loadClasses());
+            componentClasses = classes;
+        }
+        return classes;
+    }
+
+    private List<Class<?>> loadClasses() {
+        Set<String> classNames = new LinkedHashSet<String>();
+        try {
+            Enumeration<URL> indices = classLoader.getResources(INDEX_LOCATION + indexName);
+            if (!indices.hasMoreElements()) {
+                throw new IllegalStateException("No component index " + INDEX_LOCATION + indexName);
+            }
+            while (indices.hasMoreElements()) {
+                readIndex(indices.nextElement(), classNames);
+            }
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException("Failed to read component index " + indexName, ex);
+        }
+
+        List<Class<?>> classes = new ArrayList<Class<?>>(classNames.size());
+        for (String className : classNames) {
+            try {
+                // components are initialized when created
+                classes.add(Class.forName(className, false, classLoader));
+            }
+            catch (ClassNotFoundException ex) {
+                throw new IllegalStateException("Stale component index " + indexName + ": " + className, ex);
+            }
+        }
+        return classes;
+    }
+
+    private static void readIndex(URL index, Set<String> classNames) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(), UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    classNames.add(line);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    public static void writeIndex(Collection<Class<?>> componentClasses, Writer writer) throws IOException {
+        writer.write("# Generated by " + IndexedComponentClassesProvider.class.getName() + "\n");
+        for (Class<?> componentClass : componentClasses) {
+            writer.write(componentClass.getName());
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Writes index of classes delivered by given provider.
+     *
+     * @param args output directory, index name and class name of
+     *             {@link ComponentClassesProvider} with no-arg constructor
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Usage: IndexedComponentClassesProvider <outputDirectory> <indexName> <providerClass>");
+            System.exit(1);
+        }
+        ComponentClassesProvider provider = (ComponentClassesProvider) Class.forName(args[2])
+                .getDeclaredConstructor().newInstance();
+        Collection<Class<?>> componentClasses = provider.getComponentClasses();
+
+        File index = new File(args[0], INDEX_LOCATION + args[1]);
+        if (!index.getParentFile().isDirectory() && !index.getParentFile().mkdirs()) {
+            throw new IOException("Failed to create " + index.getParentFile());
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(index), UTF8);
+        try {
+            writeIndex(componentClasses, writer);
+        }
+        finally {
+            writer.close();
+        }
+        System.out.println("Indexed " + componentClasses.size() + " components into " + index);
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedComponentClassesProvider{indexName='" + indexName + "'}";
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * {@link ActorEventSink} emitting JDK Flight Recorder events. Loaded only
+ * by {@link ActorEvents#enable()}, after checking that JFR is available.
+ *
+ * @author dmitrym
+ */
+final class JfrActorEventSink implements ActorEventSink {
+
+    private static final String CATEGORY = "Fuse Actors";
+
+    @Name("com.sulake.actors.MessageEnqueued")
+    @Label("Message Enqueued")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class MessageEnqueuedEvent extends Event {
+
+        @Label("Actor Class")
+        Class<?> actorClass;
+
+        @Label("Message Type")
+        Class<?> messageType;
+    }
+
+    @Name("com.sulake.actors.MessageRejected")
+    @Label("Message Rejected")
+    @Description("Message rejected with TooManyPendingMessagesException")
+    @Category(CATEGORY)
+    static final class MessageRejectedEvent extends Event {
+
+        @Label("Actor Class")
+        Class<?> actorClass;
+
+        @Label("Message Type")
+        Class<?> messageType;
+    }
+
+    @Name("com.sulake.actors.MessageProcessed")
+    @Label("Message Processed")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class MessageProcessedEvent extends Event {
+
+        @Label("Actor Class")
+        Class<?> actorClass;
+
+        @Label("Message Type")
+        Class<?> messageType;
+
+        @Label("Processing Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long processingTime;
+    }
+
+    @Name("com.sulake.actors.SmartActorCreated")
+    @Label("SmartActor Created")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ActorCreatedEvent extends Event {
+
+        @Label("Actor Class")
+        Class<?> actorClass;
+
+        @Label("Actor Id")
+        String actorId;
+    }
+
+    @Name("com.sulake.actors.SmartActorEvicted")
+    @Label("SmartActor Evicted")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ActorEvictedEvent extends Event {
+
+        @Label("Actor Class")
+        Class<?> actorClass;
+
+        @Label("Actor Id")
+        String actorId;
+
+        @Label("Expired")
+        @Description("false if actor was destroyed explicitly")
+        boolean expired;
+    }
+
+    @Name("com.sulake.actors.PingBatch")
+    @Label("Ping Batch")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class PingBatchEvent extends Event {
+
+        @Label("Service")
+        String service;
+
+        @Label("Batch Size")
+        int batchSize;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long sendTime;
+    }
+
+    @Override
+    public void messageEnqueued(Class<?> actorClass, Class<?> messageType) {
+        MessageEnqueuedEvent event = new MessageEnqueuedEvent();
+        if (event.isEnabled()) {
+            event.actorClass = actorClass;
+            event.messageType = messageType;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void messageRejected(Class<?> actorClass, Class<?> messageType) {
+        MessageRejectedEvent event = new MessageRejectedEvent();
+        if (event.isEnabled()) {
+            event.actorClass = actorClass;
+            event.messageType = messageType;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void messageProcessed(Class<?> actorClass, Class<?> messageType, long durationNanos) {
+        MessageProcessedEvent event = new MessageProcessedEvent();
+        if (event.isEnabled()) {
+            event.actorClass = actorClass;
+            event.messageType = messageType;
+            event.processingTime = durationNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void actorCreated(Class<?> actorClass, Object actorId) {
+        ActorCreatedEvent event = new ActorCreatedEvent();
+        if (event.isEnabled()) {
+            event.actorClass = actorClass;
+            event.actorId = String.valueOf(actorId);
+            event.commit();
+        }
+    }
+
+    @Override
+    public void actorEvicted(Class<?> actorClass, Object actorId, boolean expired) {
+        ActorEvictedEvent event = new ActorEvictedEvent();
+        if (event.isEnabled()) {
+            event.actorClass = actorClass;
+            event.actorId = String.valueOf(actorId);
+            event.expired = expired;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void pingBatch(String service, int batchSize, long durationNanos) {
+        PingBatchEvent event = new PingBatchEvent();
+        if (event.isEnabled()) {
+            event.service = service;
+            event.batchSize = batchSize;
+            event.sendTime = durationNanos;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors;
+
+import com.sulake.common.actors.spi.ExecutorBasedActorsRuntime;
+import com.sulake.common.actors.spi.SimpleActorsRuntime;
+import org.springframework.beans.factory.ObjectFactory;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports heap bytes per idle actor support and per resident
+ * {@link SmartActor}, including its {@link SmartActors} map entry. Run
+ * manually with fixed heap, e.g.:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -Xms1g -Xmx1g -cp target/classes:target/test-classes:$(cat target/classpath.txt) \
+ *     com.sulake.common.actors.ActorFootprintBenchmark 1000000
+ * </pre>
+ *
+ * @author dmitrym
+ */
+public class ActorFootprintBenchmark {
+
+    private static final int DEFAULT_ACTORS = 1000000;
+
+    public static class IdleActor extends SmartActor<Integer> {
+
+        private static volatile CountDownLatch initialized;
+
+        @Override
+        protected void initActor(Integer actorId) {
+            initialized.countDown();
+        }
+
+        @Override
+        public boolean processMessage(Object message) {
+            super.processMessage(message);
+            return true;
+        }
+
+        @Override
+        protected boolean canBeRemoved() {
+            return false;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int actors = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ACTORS;
+
+        SimpleActorsRuntime runtime = new ExecutorBasedActorsRuntime(actors, Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors()));
+        runtime.setShutdownWaitTimeInMillis(0);
+        runtime.start();
+
+        reportSupports(runtime, actors);
+        reportSmartActors(runtime, actors);
+
+        runtime.stop();
+        System.exit(0);
+    }
+
+    private static void reportSupports(SimpleActorsRuntime runtime, int actors) {
+        Actor actor = new Actor() {
+            @Override
+            public boolean processMessage(Object message) {
+                return true;
+            }
+        };
+        Object[] supports = new Object[actors];
+        long before = usedMemory();
+        for (int i = 0; i < actors; i++) {
+            supports[i] = runtime.getSupportFor(actor);
+        }
+        long after = usedMemory();
+        report("Idle actor support", after - before, actors);
+        if (supports[actors - 1] == null) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static void reportSmartActors(SimpleActorsRuntime runtime, int actors) throws Exception {
+        SmartActors<Integer> smartActors = new SmartActors<Integer>();
+        smartActors.setActorsRuntime(runtime);
+        smartActors.setPingThreadEnabled(false);
+        smartActors.setActorsFactory(new ObjectFactory<SmartActor<Integer>>() {
+            @Override
+            public SmartActor<Integer> getObject() {
+                return new IdleActor();
+            }
+        });
+        smartActors.start();
+
+        // keys are created up front, so that they are not counted
+        Integer[] actorIds = new Integer[actors];
+        for (int i = 0; i < actors; i++) {
+            actorIds[i] = i + 1000;
+        }
+        IdleActor.initialized = new CountDownLatch(actors);
+        long before = usedMemory();
+        for (Integer actorId : actorIds) {
+            smartActors.sendMessage(actorId, SmartActors.WARM_UP_MESSAGE);
+        }
+        if (!IdleActor.initialized.await(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Actors were not initialized");
+        }
+        long after = usedMemory();
+        report("Resident SmartActor", after - before, actors);
+
+        smartActors.stop();
+    }
+
+    private static void report(String name, long bytes, int actors) {
+        System.out.printf("%-20s %6.1f bytes/actor (%d actors)%n", name, (double) bytes / actors, actors);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
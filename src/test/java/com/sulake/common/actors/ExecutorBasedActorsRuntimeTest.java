@@ -3,12 +3,26 @@
  */
 package com.sulake.common.actors;
 
+import com.sulake.common.actors.scheduler.MessageScheduler;
+import com.sulake.common.actors.spi.ActorGroup;
+import com.sulake.common.actors.spi.AdmissionController;
+import com.sulake.common.actors.spi.Bulkhead;
+import com.sulake.common.actors.spi.DeadLetterHandler;
 import com.sulake.common.actors.spi.ExecutorBasedActorsRuntime;
 import com.sulake.common.actors.spi.SimpleActorsRuntime;
+import com.sulake.common.actors.spi.ThrottlePolicy;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -125,4 +139,419 @@ public class ExecutorBasedActorsRuntimeTest {
             assertEquals(MESSAGE1, actor1.waitForNextMessage());
         }
     }
+
+    @Test
+    public void testMailboxCapacity() throws Exception {
+        runtime.setMaxMessagesPerActor(2);
+        ActorRef ref1 = runtime.getSupportFor(actor1);
+        ActorRef ref2 = runtime.getSupportFor(actor2);
+
+        actor1.pause();
+        ref1.sendMessage(MESSAGE1);
+        ref1.sendMessage(MESSAGE2);
+        try {
+            ref1.sendMessage(MESSAGE3);
+            fail("Expected TooManyPendingMessagesException here");
+        }
+        catch (TooManyPendingMessagesException ignored) {
+        }
+        assertEquals(1, runtime.getRejectedByMailboxCapacity());
+
+        ref2.sendMessage(MESSAGE4);
+        assertEquals(MESSAGE4, actor2.waitForNextMessage());
+
+        actor1.resume();
+        assertEquals(MESSAGE1, actor1.waitForNextMessage());
+        assertEquals(MESSAGE2, actor1.waitForNextMessage());
+    }
+
+    @Test
+    public void testGroupQuota() throws Exception {
+        runtime.addActorGroup(new ActorGroup("limited", 2, 0));
+        ActorRef ref1 = runtime.getSupportFor(actor1, "limited");
+        ActorRef ref2 = runtime.getSupportFor(actor2);
+
+        actor1.pause();
+        ref1.sendMessage(MESSAGE1);
+        ref1.sendMessage(MESSAGE2);
+        try {
+            ref1.sendMessage(MESSAGE3);
+            fail("Expected TooManyPendingMessagesException here");
+        }
+        catch (TooManyPendingMessagesException ignored) {
+        }
+        assertEquals(1, runtime.getGroupRejectedMessages("limited"));
+        assertEquals(2, runtime.getPendingMessages());
+
+        for (int i = 0; i < DEFAULT_MESSAGE_LIMIT - 2; i++) {
+            ref2.sendMessage(MESSAGE4);
+        }
+
+        actor1.resume();
+        assertEquals(MESSAGE1, actor1.waitForNextMessage());
+        assertEquals(MESSAGE2, actor1.waitForNextMessage());
+    }
+
+    @Test
+    public void testThrottleRejectsMessagesAboveRate() throws Exception {
+        ActorGroup throttled = new ActorGroup("throttled", 0, 0);
+        throttled.setThrottleRate(1);
+        throttled.setThrottleBurst(2);
+        runtime.addActorGroup(throttled);
+        ActorRef ref1 = runtime.getSupportFor(actor1, "throttled");
+        ActorRef ref2 = runtime.getSupportFor(actor2, "throttled");
+
+        ref1.sendMessage(MESSAGE1);
+        ref1.sendMessage(MESSAGE2);
+        try {
+            ref1.sendMessage(MESSAGE3);
+            fail("Expected TooManyPendingMessagesException here");
+        }
+        catch (TooManyPendingMessagesException ignored) {
+        }
+        assertEquals(1, throttled.getRejectedByThrottle());
+        assertNotNull(throttled.getLastThrottledActor());
+
+        ref2.sendMessage(MESSAGE4);
+        assertEquals(MESSAGE4, actor2.waitForNextMessage());
+        assertEquals(MESSAGE1, actor1.waitForNextMessage());
+        assertEquals(MESSAGE2, actor1.waitForNextMessage());
+    }
+
+    @Test
+    public void testThrottleDelaysMessagesAboveRate() throws Exception {
+        MessageScheduler scheduler = new MessageScheduler();
+        scheduler.setTickInMillis(1);
+        scheduler.start();
+        runtime.setMessageScheduler(scheduler);
+
+        ActorGroup throttled = new ActorGroup("throttled", 0, 0);
+        throttled.setThrottleRate(20);
+        throttled.setThrottleBurst(1);
+        throttled.setThrottlePolicy(ThrottlePolicy.DELAY);
+        runtime.addActorGroup(throttled);
+        ActorRef ref1 = runtime.getSupportFor(actor1, "throttled");
+
+        long startTime = System.currentTimeMillis();
+        ref1.sendMessage(MESSAGE1);
+        ref1.sendMessage(MESSAGE2);
+        ref1.sendMessage(MESSAGE3);
+        ref1.sendMessage(MESSAGE4);
+        assertEquals(MESSAGE1, actor1.waitForNextMessage());
+        assertEquals(MESSAGE2, actor1.waitForNextMessage());
+        assertEquals(MESSAGE3, actor1.waitForNextMessage());
+        assertEquals(MESSAGE4, actor1.waitForNextMessage());
+        // 3 messages above burst at 50 ms each
+        assertTrue(System.currentTimeMillis() - startTime >= 140);
+        assertTrue(throttled.getDelayedByThrottle() >= 3);
+        assertEquals(0, throttled.getRejectedByThrottle());
+        scheduler.stop();
+    }
+
+    @Test
+    public void testDirectHandOffRunsIdleTargetInline() throws Exception {
+        ExecutorBasedActorsRuntime handOffRuntime = new ExecutorBasedActorsRuntime(DEFAULT_MESSAGE_LIMIT,
+                Executors.newFixedThreadPool(4));
+        handOffRuntime.setShutdownWaitTimeInMillis(0);
+        handOffRuntime.setDirectHandOffDepth(2);
+        handOffRuntime.setDirectHandOffBudgetInMicros(TimeUnit.SECONDS.toMicros(10));
+        handOffRuntime.start();
+
+        final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final ActorRef[] chain = new ActorRef[4];
+        for (int i = chain.length - 1; i >= 0; i--) {
+            final int index = i;
+            chain[i] = handOffRuntime.getSupportFor(new Actor() {
+                @Override
+                public boolean processMessage(Object message) {
+                    threads.add(Thread.currentThread());
+                    if (index + 1 < chain.length) {
+                        chain[index + 1].sendMessage(message);
+                    }
+                    else {
+                        done.countDown();
+                    }
+                    return true;
+                }
+            });
+        }
+
+        chain[0].sendMessage(MESSAGE1);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        handOffRuntime.stop();
+
+        // first actor and 2 hand-offs share thread, depth limit sends the last one to executor
+        assertEquals(4, threads.size());
+        assertSame(threads.get(0), threads.get(1));
+        assertSame(threads.get(0), threads.get(2));
+        assertEquals(2, handOffRuntime.getDirectHandOffs());
+    }
+
+    @Blocking("db")
+    private static class BlockingActor implements Actor {
+
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private final List<String> threadNames = new CopyOnWriteArrayList<String>();
+
+        @Override
+        public boolean processMessage(Object message) {
+            threadNames.add(Thread.currentThread().getName());
+            try {
+                released.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+    }
+
+    @Test
+    public void testBlockingActorsRunInBulkhead() throws Exception {
+        ExecutorBasedActorsRuntime bulkheadRuntime = new ExecutorBasedActorsRuntime(DEFAULT_MESSAGE_LIMIT,
+                Executors.newFixedThreadPool(1));
+        bulkheadRuntime.setShutdownWaitTimeInMillis(0);
+        final List<String> threadNames = new CopyOnWriteArrayList<String>();
+        final CountDownLatch processed = new CountDownLatch(3);
+        Actor cpuActor = new Actor() {
+            @Override
+            public boolean processMessage(Object message) {
+                threadNames.add(Thread.currentThread().getName());
+                processed.countDown();
+                return true;
+            }
+        };
+        Actor otherActor = new Actor() {
+            @Override
+            public boolean processMessage(Object message) {
+                threadNames.add(Thread.currentThread().getName());
+                processed.countDown();
+                return true;
+            }
+        };
+        Bulkhead db = new Bulkhead("db", 1);
+        bulkheadRuntime.setBulkheads(Arrays.asList(db, new Bulkhead("io", 1)));
+        bulkheadRuntime.addBlockingMessageTypes(cpuActor.getClass(),
+                Collections.<Class<?>, String>singletonMap(Integer.class, "io"));
+        bulkheadRuntime.start();
+
+        BlockingActor blockingActor = new BlockingActor();
+        ActorRef blockingRef = bulkheadRuntime.getSupportFor(blockingActor);
+        blockingRef.sendMessage(MESSAGE1);
+        blockingRef.sendMessage(MESSAGE2);
+
+        // the only main thread is not stalled by blocking actor
+        ActorRef cpuRef = bulkheadRuntime.getSupportFor(cpuActor);
+        cpuRef.sendMessage(MESSAGE3);
+        assertTrue(waitFor(threadNames, 1));
+        cpuRef.sendMessage(42);
+        assertTrue(waitFor(threadNames, 2));
+        // message type is blocking only for actor class it was configured for
+        bulkheadRuntime.getSupportFor(otherActor).sendMessage(42);
+        assertTrue(processed.await(5, TimeUnit.SECONDS));
+        assertFalse(threadNames.get(0).startsWith("bulkhead-"));
+        assertEquals("bulkhead-io-1", threadNames.get(1));
+        assertFalse(threadNames.get(2).startsWith("bulkhead-"));
+
+        blockingActor.released.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (blockingActor.threadNames.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Arrays.asList("bulkhead-db-1", "bulkhead-db-1"), blockingActor.threadNames);
+        assertEquals(2, db.getScheduledActors());
+        bulkheadRuntime.stop();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownBulkheadOfMessageTypeIsRejected() {
+        ExecutorBasedActorsRuntime bulkheadRuntime = new ExecutorBasedActorsRuntime(DEFAULT_MESSAGE_LIMIT,
+                Executors.newFixedThreadPool(1));
+        bulkheadRuntime.setBulkheads(Collections.singletonList(new Bulkhead("db", 1)));
+        bulkheadRuntime.addBlockingMessageTypes(BlockingActor.class,
+                Collections.<Class<?>, String>singletonMap(Integer.class, "io"));
+        bulkheadRuntime.start();
+    }
+
+    private static boolean waitFor(List<?> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (list.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        return list.size() >= size;
+    }
+
+    @Test
+    public void testAdmissionControlShedsExternalMessagesWhileQueueing() throws Exception {
+        ExecutorBasedActorsRuntime sheddingRuntime = new ExecutorBasedActorsRuntime(1000, Executors.newFixedThreadPool(1));
+        sheddingRuntime.setShutdownWaitTimeInMillis(0);
+        AdmissionController admissionController = new AdmissionController();
+        admissionController.setTargetInMillis(1);
+        admissionController.setIntervalInMillis(10);
+        sheddingRuntime.setAdmissionController(admissionController);
+        sheddingRuntime.start();
+
+        final CountDownLatch forwarded = new CountDownLatch(1);
+        final ActorRef sink = sheddingRuntime.getSupportFor(new Actor() {
+            @Override
+            public boolean processMessage(Object message) {
+                forwarded.countDown();
+                return true;
+            }
+        });
+        final CountDownLatch processed = new CountDownLatch(20);
+        ActorRef slow = sheddingRuntime.getSupportFor(new Actor() {
+            @Override
+            public boolean processMessage(Object message) {
+                try {
+                    Thread.sleep(5);
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                if (MESSAGE2.equals(message)) {
+                    // admitted work is completed while shedding
+                    sink.sendMessage(message);
+                }
+                processed.countDown();
+                return true;
+            }
+        });
+        for (int i = 0; i < 19; i++) {
+            slow.sendMessage(MESSAGE1);
+        }
+        slow.sendMessage(MESSAGE2);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!admissionController.isShedding() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(admissionController.isShedding());
+        try {
+            slow.sendMessage(MESSAGE3);
+            fail("Standing queue must be shed");
+        }
+        catch (OverloadedException expected) {
+        }
+        assertEquals(1, sheddingRuntime.getRejectedByAdmissionControl());
+
+        assertTrue(processed.await(5, TimeUnit.SECONDS));
+        assertTrue(forwarded.await(5, TimeUnit.SECONDS));
+        deadline = System.currentTimeMillis() + 5000;
+        while (sheddingRuntime.getPendingMessages() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        // drained queue is admitted again
+        slow.sendMessage(MESSAGE4);
+        assertFalse(admissionController.isShedding());
+        assertEquals(1, admissionController.getSheddingEpisodes());
+        sheddingRuntime.stop();
+    }
+
+    @Test
+    public void testExpiredMessagesAreDiscarded() throws Exception {
+        final List<Object> deadLetters = new CopyOnWriteArrayList<Object>();
+        runtime.setDeadLetterHandler(new DeadLetterHandler() {
+            @Override
+            public void messageExpired(ActorRef actorRef, Object message) {
+                deadLetters.add(message);
+            }
+        });
+        final CountDownLatch acknowledged = new CountDownLatch(1);
+        ActorRef actorRef = runtime.getSupportFor(actor1);
+        actor1.pause();
+        actorRef.sendMessage(MESSAGE1);
+        assertEquals(MESSAGE1, actor1.waitForNextMessage());
+
+        actorRef.sendMessage(new DeadlineMessage(MESSAGE2, 0, TimeUnit.MILLISECONDS));
+        actorRef.sendMessage(new AcknowledgedMessage() {
+            @Override
+            public Object getMessage() {
+                return new DeadlineMessage(MESSAGE3, 0, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void acknowledge() {
+                acknowledged.countDown();
+            }
+        });
+        actorRef.sendMessage(new DeadlineMessage(MESSAGE4, 1, TimeUnit.HOURS));
+        actor1.resume();
+
+        assertEquals(MESSAGE4, actor1.waitForNextMessage());
+        assertTrue(acknowledged.await(5, TimeUnit.SECONDS));
+        assertEquals(2, runtime.getExpiredMessages());
+        assertEquals(Arrays.<Object>asList(MESSAGE2, MESSAGE3), deadLetters);
+    }
+
+    private static final class DrainingActor implements Actor {
+
+        private final Class<?> messageType;
+
+        private final CountDownLatch sent = new CountDownLatch(1);
+
+        private final BlockingQueue<List<Object>> batches = new LinkedBlockingQueue<List<Object>>();
+
+        private DrainingActor(Class<?> messageType) {
+            this.messageType = messageType;
+        }
+
+        @Override
+        public boolean processMessage(Object message) {
+            try {
+                sent.await();
+            }
+            catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+            List<Object> drained = new ArrayList<Object>();
+            ActorContext.drainPendingMessages(messageType, 10, drained);
+            batches.add(drained);
+            return true;
+        }
+    }
+
+    @Test
+    public void testDrainingDiscardsEachExpiredMessage() throws Exception {
+        DrainingActor actor = new DrainingActor(DeadlineMessage.class);
+        ActorRef actorRef = runtime.getSupportFor(actor);
+        actorRef.sendMessage(MESSAGE1);
+        actorRef.sendMessage(new DeadlineMessage(MESSAGE2, 0, TimeUnit.MILLISECONDS));
+        DeadlineMessage live = new DeadlineMessage(MESSAGE3, 1, TimeUnit.HOURS);
+        actorRef.sendMessage(live);
+        actorRef.sendMessage(new DeadlineMessage(MESSAGE4, 0, TimeUnit.MILLISECONDS));
+        actor.sent.countDown();
+
+        assertEquals(Collections.<Object>singletonList(live), actor.batches.poll(5, TimeUnit.SECONDS));
+        assertEquals(2, runtime.getExpiredMessages());
+    }
+
+    @Test
+    public void testDrainingTakesThrottleTokens() throws Exception {
+        MessageScheduler scheduler = new MessageScheduler();
+        scheduler.setTickInMillis(1);
+        scheduler.start();
+        runtime.setMessageScheduler(scheduler);
+
+        ActorGroup throttled = new ActorGroup("throttled", 0, 0);
+        throttled.setThrottleRate(20);
+        throttled.setThrottleBurst(2);
+        throttled.setThrottlePolicy(ThrottlePolicy.DELAY);
+        runtime.addActorGroup(throttled);
+        DrainingActor actor = new DrainingActor(String.class);
+        ActorRef actorRef = runtime.getSupportFor(actor, "throttled");
+        actorRef.sendMessage(MESSAGE1);
+        actorRef.sendMessage(MESSAGE2);
+        actorRef.sendMessage(MESSAGE3);
+        actorRef.sendMessage(MESSAGE4);
+        actor.sent.countDown();
+
+        // first message and one drained use the burst, rest are delayed
+        assertEquals(Collections.<Object>singletonList(MESSAGE2), actor.batches.poll(5, TimeUnit.SECONDS));
+        assertNotNull(actor.batches.poll(5, TimeUnit.SECONDS));
+        assertTrue(throttled.getDelayedByThrottle() >= 1);
+        scheduler.stop();
+    }
 }
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors;
+
+import com.sulake.common.actors.spi.DeadLetterHandler;
+import com.sulake.common.actors.spi.PassthroughActorRuntime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link PassthroughActorRuntime}.
+ *
+ * @author dmitrym
+ */
+public class PassthroughActorRuntimeTest {
+
+    @Test
+    public void testExpiredMessagesAreDiscarded() {
+        PassthroughActorRuntime runtime = new PassthroughActorRuntime();
+        final List<Object> deadLetters = new ArrayList<Object>();
+        runtime.setDeadLetterHandler(new DeadLetterHandler() {
+            @Override
+            public void messageExpired(ActorRef actorRef, Object message) {
+                deadLetters.add(message);
+            }
+        });
+        final List<Object> processed = new ArrayList<Object>();
+        ActorRef actorRef = runtime.getSupportFor(new Actor() {
+            @Override
+            public boolean processMessage(Object message) {
+                processed.add(message);
+                return true;
+            }
+        });
+        final boolean[] acknowledged = new boolean[1];
+        final long passedDeadlineNanos = System.nanoTime() - 1;
+
+        actorRef.sendMessage(new DeadlineMessage("expired", 0, TimeUnit.MILLISECONDS));
+        actorRef.sendMessage(new AcknowledgedMessage() {
+            @Override
+            public Object getMessage() {
+                return new ExpiringMessage() {
+                    @Override
+                    public long getDeadlineNanos() {
+                        return passedDeadlineNanos;
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "expiring";
+                    }
+                };
+            }
+
+            @Override
+            public void acknowledge() {
+                acknowledged[0] = true;
+            }
+        });
+        actorRef.sendMessage(new DeadlineMessage("live", 1, TimeUnit.HOURS));
+
+        assertEquals(Arrays.<Object>asList("live"), processed);
+        assertEquals(2, runtime.getExpiredMessages());
+        assertEquals("expired", deadLetters.get(0));
+        assertEquals("expiring", deadLetters.get(1).toString());
+        assertTrue(acknowledged[0]);
+    }
+}
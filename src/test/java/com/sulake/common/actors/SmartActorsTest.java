@@ -3,15 +3,26 @@
  */
 package com.sulake.common.actors;
 
+import com.sulake.common.actors.spi.ActorsRuntime;
 import com.sulake.common.actors.spi.PassthroughActorRuntime;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.ObjectFactory;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
@@ -89,6 +100,20 @@ public class SmartActorsTest {
         }
     }
 
+    public static class RecyclableTestActor extends TestActor implements RecyclableActor {
+
+        public RecyclableTestActor(TestActorLogic logic) {
+            super(logic);
+        }
+
+        @Override
+        public void resetActor() {
+        }
+    }
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Mock
     private ObjectFactory<SmartActor<Integer>> actorsFactory;
 
@@ -238,4 +263,192 @@ public class SmartActorsTest {
         actors.sendMessage(1, "MSG1");
         fail("Expected IllegalStateException here");
     }
+
+    @Test
+    public void testStagedShutdown() throws Exception {
+        final TestActor[] testActors = createTestActors(5);
+        doThrow(new IllegalStateException("DB is down")).when(testActors[3].logic).preDestroy();
+
+        actors.setShutdownConcurrency(2);
+        actors.setShutdownRatePerSecond(1000);
+        actors.setShutdownPhaseTimeoutInMillis(1000);
+        assertEquals(1, actors.shutdown());
+        assertEquals(5, actors.getActorsToDestroyOnShutdown());
+        assertEquals(4, actors.getDestroyedOnShutdown());
+
+        for (TestActor testActor : testActors) {
+            verify(testActor.logic).preDestroy();
+        }
+        verify(testActors[3].logic, times(0)).destroy();
+        verify(testActors[4].logic).destroy();
+    }
+
+    @Test
+    public void testWarmStart() throws Exception {
+        File snapshotFile = new File(temporaryFolder.getRoot(), "actors.snapshot");
+        actors.setWarmStartFile(snapshotFile);
+        actors.setActorIdCodec(ActorIdCodecs.INTEGER);
+
+        createTestActors(3);
+        actors.sendMessage(2, "MSG2");
+        actors.sendMessage(2, "MSG3");
+        actors.sendMessage(1, "MSG2");
+        actors.stop();
+
+        WarmStartSnapshot<Integer> snapshot = new WarmStartSnapshot<Integer>(snapshotFile, ActorIdCodecs.INTEGER);
+        assertEquals(Arrays.asList(2, 1, 0), snapshot.read(0));
+        assertEquals(Arrays.asList(2, 1), snapshot.read(2));
+
+        SmartActors<Integer> restarted = new SmartActors<Integer>();
+        restarted.setActorsRuntime(new PassthroughActorRuntime());
+        restarted.setActorsFactory(actorsFactory);
+        TestActor warmActor = new TestActor(mock(TestActorLogic.class));
+        when(actorsFactory.getObject()).thenReturn(warmActor);
+
+        restarted.warmUp(snapshot.read(1));
+        assertEquals(1, restarted.getEstimatedSize());
+        assertEquals(1, restarted.getWarmedUpActors());
+        verify(warmActor.logic).init();
+        verify(warmActor.logic, never()).processMessage(any());
+
+        restarted.sendMessage(2, "MSG4");
+        verify(warmActor.logic).processMessage("MSG4");
+        verify(warmActor.logic).init();
+    }
+
+    @Test
+    public void testActorRecycling() throws Exception {
+        actors.setPingPeriodInMillis(1000);
+        actors.setActorPoolSize(1);
+
+        RecyclableTestActor recyclableActor = spy(new RecyclableTestActor(logic1));
+        when(actorsFactory.getObject()).thenReturn(recyclableActor);
+        actors.sendMessage(1, "MSG1");
+        verify(logic1).init();
+
+        when(logic1.canBeRemoved()).thenReturn(true);
+        actors.calculateNextPingBatch();
+        actors.sendPingToNextBatch();
+        verify(logic1).destroy();
+        verify(recyclableActor).resetActor();
+        assertEquals(1, actors.getActorPoolSize());
+
+        actors.sendMessage(2, "MSG2");
+        verify(actorsFactory, times(1)).getObject();
+        verify(logic1, times(2)).init();
+        verify(logic1).processMessage("MSG2");
+        assertEquals(Integer.valueOf(2), recyclableActor.getActorId());
+        assertEquals(1, actors.getActorPoolHits());
+        assertEquals(1, actors.getActorPoolMisses());
+    }
+
+    @Test
+    public void testSingleConstructionOnConcurrentFirstMessages() throws Exception {
+        final int senders = 8;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(senders);
+
+        when(actorsFactory.getObject()).thenAnswer(new Answer<SmartActor<Integer>>() {
+            @Override
+            public SmartActor<Integer> answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(100);
+                return actor1;
+            }
+        });
+
+        for (int i = 0; i < senders; i++) {
+            final String message = "MSG" + i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        actors.sendMessage(1, message);
+                    }
+                    catch (InterruptedException ex) {
+                        ex.printStackTrace();
+                    }
+                    finally {
+                        doneLatch.countDown();
+                    }
+                }
+            }).start();
+        }
+        startLatch.countDown();
+        doneLatch.await();
+
+        verify(actorsFactory, times(1)).getObject();
+        verify(logic1).init();
+        for (int i = 0; i < senders; i++) {
+            verify(logic1).processMessage("MSG" + i);
+        }
+        assertEquals(1, actors.getEstimatedSize());
+    }
+
+    @Test
+    public void testConcurrentFirstMessagesAreRejectedToSenders() throws Exception {
+        final ActorRef rejectingRef = new ActorRef() {
+            @Override
+            public void sendMessage(Object message) {
+                throw new TooManyPendingMessagesException();
+            }
+
+            @Override
+            public void release() {
+            }
+
+            @Override
+            public boolean releaseIfIdle() {
+                return true;
+            }
+        };
+        actors.setActorsRuntime(new ActorsRuntime() {
+            @Override
+            public ActorRef getSupportFor(Actor actor) {
+                return rejectingRef;
+            }
+
+            @Override
+            public void scheduleHandleNextMessageCall(Runnable actorSupport) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        when(actorsFactory.getObject()).thenAnswer(new Answer<SmartActor<Integer>>() {
+            @Override
+            public SmartActor<Integer> answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(100);
+                return actor1;
+            }
+        });
+
+        final int senders = 4;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(senders);
+        final AtomicInteger rejected = new AtomicInteger();
+        for (int i = 0; i < senders; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        actors.sendMessage(1, "MSG");
+                    }
+                    catch (TooManyPendingMessagesException ex) {
+                        rejected.incrementAndGet();
+                    }
+                    catch (InterruptedException ex) {
+                        ex.printStackTrace();
+                    }
+                    finally {
+                        doneLatch.countDown();
+                    }
+                }
+            }).start();
+        }
+        startLatch.countDown();
+        doneLatch.await();
+
+        verify(actorsFactory, times(1)).getObject();
+        assertEquals(senders, rejected.get());
+    }
 }
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.cluster;
+
+import com.sulake.common.actors.SmartActor;
+import com.sulake.common.actors.SmartActors;
+import com.sulake.common.actors.codec.BinaryMessageCodec;
+import com.sulake.common.actors.spi.PassthroughActorRuntime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link ClusteredSmartActors} with two nodes over loopback
+ * {@link TcpClusterTransport}.
+ *
+ * @author dmitrym
+ */
+public class ClusteredSmartActorsTest {
+
+    public static final int ACTORS = 50;
+
+    private static final class Delivery {
+        private final String node;
+        private final Integer actorId;
+        private final Object message;
+
+        private Delivery(String node, Integer actorId, Object message) {
+            this.node = node;
+            this.actorId = actorId;
+            this.message = message;
+        }
+    }
+
+    private final BlockingQueue<Delivery> deliveries = new LinkedBlockingQueue<Delivery>();
+
+    private TcpClusterTransport transport1;
+    private TcpClusterTransport transport2;
+    private SmartActors<Integer> localActors1;
+    private SmartActors<Integer> localActors2;
+    private ClusteredSmartActors<Integer> actors1;
+    private ClusteredSmartActors<Integer> actors2;
+    private ClusterNode node1;
+    private ClusterNode node2;
+
+    @Before
+    public void setUp() throws Exception {
+        transport1 = new TcpClusterTransport(new InetSocketAddress("127.0.0.1", 0));
+        transport1.start();
+        transport2 = new TcpClusterTransport(new InetSocketAddress("127.0.0.1", 0));
+        transport2.start();
+
+        node1 = new ClusterNode("node1", transport1.getLocalAddress());
+        node2 = new ClusterNode("node2", transport2.getLocalAddress());
+
+        localActors1 = createLocalActors("node1");
+        localActors2 = createLocalActors("node2");
+        actors1 = createClusteredActors(localActors1, transport1, node1);
+        actors2 = createClusteredActors(localActors2, transport2, node2);
+    }
+
+    @After
+    public void tearDown() {
+        actors1.stop();
+        actors2.stop();
+        transport1.stop();
+        transport2.stop();
+    }
+
+    private SmartActors<Integer> createLocalActors(final String node) {
+        SmartActors<Integer> localActors = new SmartActors<Integer>();
+        localActors.setActorsRuntime(new PassthroughActorRuntime());
+        localActors.setActorsFactory(new ObjectFactory<SmartActor<Integer>>() {
+            @Override
+            public SmartActor<Integer> getObject() {
+                return new SmartActor<Integer>() {
+                    @Override
+                    public boolean processMessage(Object message) {
+                        if (!super.processMessage(message)) {
+                            deliveries.add(new Delivery(node, getActorId(), message));
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    protected boolean canBeRemoved() {
+                        return false;
+                    }
+                };
+            }
+        });
+        return localActors;
+    }
+
+    private ClusteredSmartActors<Integer> createClusteredActors(SmartActors<Integer> localActors,
+                                                                TcpClusterTransport transport, ClusterNode localNode) {
+        ClusteredSmartActors<Integer> actors = new ClusteredSmartActors<Integer>();
+        actors.setService("test");
+        actors.setLocalActors(localActors);
+        actors.setTransport(transport);
+        actors.setLocalNode(localNode);
+        actors.setNodes(Arrays.asList(node1, node2));
+        actors.start();
+        return actors;
+    }
+
+    @Test
+    public void testDeliveryToOwner() throws Exception {
+        ConsistentHashRing<ClusterNode> ring = new ConsistentHashRing<ClusterNode>();
+        ring.setNodes(Arrays.asList(node1, node2));
+
+        for (int i = 0; i < ACTORS; i++) {
+            actors1.sendMessage(i, "MSG" + i);
+        }
+
+        int remote = 0;
+        for (int i = 0; i < ACTORS; i++) {
+            Delivery delivery = deliveries.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Message was not delivered", delivery);
+            assertEquals("MSG" + delivery.actorId, delivery.message);
+            assertEquals(ring.getNode(delivery.actorId).getId(), delivery.node);
+            if (delivery.node.equals("node2")) {
+                remote++;
+            }
+        }
+        assertTrue("Expected both nodes to own some actors", remote > 0 && remote < ACTORS);
+        assertEquals(remote, actors1.getRemoteMessages());
+        assertEquals(remote, localActors2.getEstimatedSize());
+    }
+
+    @Test
+    public void testHandOffOnMembershipChange() throws Exception {
+        for (int i = 0; i < ACTORS; i++) {
+            actors2.sendMessage(i, "MSG" + i);
+        }
+        for (int i = 0; i < ACTORS; i++) {
+            assertNotNull(deliveries.poll(5, TimeUnit.SECONDS));
+        }
+        int residentOnNode2 = localActors2.getEstimatedSize();
+        assertTrue(residentOnNode2 > 0);
+
+        actors1.removeNode(node2);
+        actors2.setNodes(Arrays.asList(node1));
+        assertEquals(0, localActors2.getEstimatedSize());
+        assertEquals(residentOnNode2, actors2.getHandedOffActors());
+
+        for (int i = 0; i < ACTORS; i++) {
+            actors2.sendMessage(i, "AFTER" + i);
+        }
+        for (int i = 0; i < ACTORS; i++) {
+            Delivery delivery = deliveries.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Message was not delivered", delivery);
+            assertEquals("node1", delivery.node);
+        }
+        assertEquals(ACTORS, localActors1.getEstimatedSize());
+    }
+
+    @Test
+    public void testBinaryCodec() throws Exception {
+        tearDown();
+        transport1 = new TcpClusterTransport(new InetSocketAddress("127.0.0.1", 0));
+        transport1.setMessageCodec(new BinaryMessageCodec());
+        transport1.start();
+        transport2 = new TcpClusterTransport(new InetSocketAddress("127.0.0.1", 0));
+        transport2.setMessageCodec(new BinaryMessageCodec());
+        transport2.start();
+        node1 = new ClusterNode("node1", transport1.getLocalAddress());
+        node2 = new ClusterNode("node2", transport2.getLocalAddress());
+        actors1 = createClusteredActors(localActors1, transport1, node1);
+        actors2 = createClusteredActors(localActors2, transport2, node2);
+
+        for (int i = 0; i < ACTORS; i++) {
+            actors1.sendMessage(i, "MSG" + i);
+        }
+        for (int i = 0; i < ACTORS; i++) {
+            Delivery delivery = deliveries.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Message was not delivered", delivery);
+            assertEquals("MSG" + delivery.actorId, delivery.message);
+        }
+        assertEquals(actors1.getRemoteMessages(), transport2.getReceivedMessages());
+    }
+
+    @Test
+    public void testUndeliveredMessagesAndInboundConnectionsOnStop() throws Exception {
+        transport1.send(node2, new ClusterMessage("unknown", 1, "MSG", 0));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (transport2.getUndeliveredMessages() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, transport2.getUndeliveredMessages());
+        assertEquals(1, transport2.getInboundConnections());
+
+        transport2.stop();
+        assertEquals(0, transport2.getInboundConnections());
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.codec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link BinaryMessageCodec} and {@link BinaryFormat}.
+ *
+ * @author dmitrym
+ */
+public class BinaryMessageCodecTest {
+
+    private BinaryMessageCodec codec;
+
+    private ByteBuffer buffer;
+
+    @Before
+    public void setUp() {
+        codec = new BinaryMessageCodec();
+        codec.register(BinaryMessageCodec.MIN_USER_TYPE_ID, ScoreUpdate.SERIALIZER);
+        buffer = ByteBuffer.allocateDirect(1024);
+    }
+
+    private Object roundTrip(Object message) {
+        buffer.clear();
+        codec.encode(message, buffer);
+        buffer.flip();
+        Object decoded = codec.decode(buffer);
+        assertFalse(buffer.hasRemaining());
+        return decoded;
+    }
+
+    @Test
+    public void testBuiltInTypes() {
+        assertNull(roundTrip(null));
+        assertEquals("hello, \u0000ä世界", roundTrip("hello, \u0000ä世界"));
+        assertEquals("", roundTrip(""));
+        assertEquals(Integer.MIN_VALUE, roundTrip(Integer.MIN_VALUE));
+        assertEquals(-1, roundTrip(-1));
+        assertEquals(Long.MAX_VALUE, roundTrip(Long.MAX_VALUE));
+        assertEquals(Boolean.TRUE, roundTrip(true));
+        assertEquals(0.5, roundTrip(0.5));
+    }
+
+    @Test
+    public void testRegisteredType() {
+        ScoreUpdate message = new ScoreUpdate(1234567890123L, -42, "quest completed", new ScoreUpdate(1, 2, null, null));
+        assertEquals(message, roundTrip(message));
+    }
+
+    @Test
+    public void testVarIntLength() {
+        BinaryFormat.writeVarInt(buffer, 127);
+        assertEquals(1, buffer.position());
+        BinaryFormat.writeSignedVarInt(buffer, -64);
+        assertEquals(2, buffer.position());
+        BinaryFormat.writeVarLong(buffer, -1L);
+        assertEquals(12, buffer.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnregisteredType() {
+        codec.encode(new Object(), buffer);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReservedTypeId() {
+        codec.register(1, ScoreUpdate.SERIALIZER);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNegativeTypeId() {
+        BinaryFormat.writeVarInt(buffer, -1);
+        buffer.flip();
+        codec.decode(buffer);
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compares {@link BinaryMessageCodec} with {@link SerializingMessageCodec}
+ * on encode/decode round trips into pooled direct buffers. Run manually:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/classes:target/test-classes:$(cat target/classpath.txt) \
+ *     com.sulake.common.actors.codec.MessageCodecBenchmark
+ * </pre>
+ *
+ * @author dmitrym
+ */
+public class MessageCodecBenchmark {
+
+    private static final int WARM_UP_ITERATIONS = 200000;
+
+    private static final int ITERATIONS = 1000000;
+
+    public static void main(String[] args) {
+        BinaryMessageCodec binaryCodec = new BinaryMessageCodec();
+        binaryCodec.register(BinaryMessageCodec.MIN_USER_TYPE_ID, ScoreUpdate.SERIALIZER);
+
+        ScoreUpdate message = new ScoreUpdate(1234567L, 250, "daily bonus", 17);
+
+        run("BinaryMessageCodec", binaryCodec, message, WARM_UP_ITERATIONS);
+        run("SerializingMessageCodec", new SerializingMessageCodec(), message, WARM_UP_ITERATIONS / 10);
+
+        report("BinaryMessageCodec", binaryCodec, message, ITERATIONS);
+        report("SerializingMessageCodec", new SerializingMessageCodec(), message, ITERATIONS / 10);
+    }
+
+    private static void report(String name, MessageCodec codec, Object message, int iterations) {
+        long start = System.nanoTime();
+        int size = run(name, codec, message, iterations);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-24s %8.1f ns/round trip, %4d bytes/message%n", name, (double) elapsed / iterations, size);
+    }
+
+    private static int run(String name, MessageCodec codec, Object message, int iterations) {
+        ByteBufferPool pool = new ByteBufferPool(4096, 4);
+        int size = 0;
+        for (int i = 0; i < iterations; i++) {
+            ByteBuffer buffer = pool.acquire();
+            codec.encode(message, buffer);
+            size = buffer.position();
+            buffer.flip();
+            if (!message.equals(codec.decode(buffer))) {
+                throw new IllegalStateException(name + " corrupted " + message);
+            }
+            pool.release(buffer);
+        }
+        return size;
+    }
+}
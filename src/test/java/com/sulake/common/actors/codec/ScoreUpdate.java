@@ -0,0 +1,74 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.codec;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Typical actor message used by codec tests and benchmarks.
+ */
+@SuppressWarnings("serial")
+public class ScoreUpdate implements Serializable {
+
+    public static final MessageSerializer<ScoreUpdate> SERIALIZER = new MessageSerializer<ScoreUpdate>() {
+        @Override
+        public Class<ScoreUpdate> getMessageType() {
+            return ScoreUpdate.class;
+        }
+
+        @Override
+        public void write(ScoreUpdate message, ByteBuffer out, MessageCodec codec) {
+            BinaryFormat.writeVarLong(out, message.userId);
+            BinaryFormat.writeSignedVarInt(out, message.score);
+            BinaryFormat.writeString(out, message.reason);
+            codec.encode(message.details, out);
+        }
+
+        @Override
+        public ScoreUpdate read(ByteBuffer in, MessageCodec codec) {
+            return new ScoreUpdate(BinaryFormat.readVarLong(in), BinaryFormat.readSignedVarInt(in),
+                    BinaryFormat.readString(in), codec.decode(in));
+        }
+    };
+
+    private final long userId;
+
+    private final int score;
+
+    private final String reason;
+
+    private final Object details;
+
+    public ScoreUpdate(long userId, int score, String reason, Object details) {
+        this.userId = userId;
+        this.score = score;
+        this.reason = reason;
+        this.details = details;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ScoreUpdate)) {
+            return false;
+        }
+        ScoreUpdate that = (ScoreUpdate) o;
+        return userId == that.userId && score == that.score
+                && (reason != null ? reason.equals(that.reason) : that.reason == null)
+                && (details != null ? details.equals(that.details) : that.details == null);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (userId ^ (userId >>> 32)) * 31 + score;
+    }
+
+    @Override
+    public String toString() {
+        return "ScoreUpdate{userId=" + userId + ", score=" + score + ", reason='" + reason + "', details=" + details + '}';
+    }
+}
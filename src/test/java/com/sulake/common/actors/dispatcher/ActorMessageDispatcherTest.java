@@ -0,0 +1,276 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.dispatcher;
+
+import com.sulake.common.actors.Actor;
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.spi.ExecutorBasedActorsRuntime;
+import com.sulake.common.actors.spi.SimpleActorsRuntime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureTask;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests asynchronous handlers of {@link ActorMessageDispatcher}.
+ *
+ * @author dmitrym
+ */
+public class ActorMessageDispatcherTest {
+
+    public static class Load {
+
+        private final String key;
+
+        public Load(String key) {
+            this.key = key;
+        }
+    }
+
+    public static class StashingLoad extends Load {
+
+        public StashingLoad(String key) {
+            super(key);
+        }
+    }
+
+    public static class Score {
+
+        private final int value;
+
+        public Score(int value) {
+            this.value = value;
+        }
+    }
+
+    public static class Gate {
+
+        private final CountDownLatch opened = new CountDownLatch(1);
+    }
+
+    public class Handlers {
+
+        @ActorMessageHandler
+        public void block(CountDownLatch blocker) throws InterruptedException {
+            assertTrue(blocker.await(5, TimeUnit.SECONDS));
+        }
+
+        @ActorMessageHandler
+        public void scores(List<Score> scores) {
+            batchSizes.add(scores.size());
+            for (Score score : scores) {
+                scoreSum.addAndGet(score.value);
+                latch.countDown();
+            }
+        }
+
+        @ActorMessageHandler
+        public ListenableFuture<String> load(Load load) {
+            return startLoad(load);
+        }
+
+        @ActorMessageHandler(stash = true)
+        public ListenableFuture<String> stashingLoad(StashingLoad load) {
+            return startLoad(load);
+        }
+
+        @ActorMessageHandler
+        public void loaded(TestActor actor, AsyncCompletion completion) {
+            actor.state = (String) completion.getResult();
+            processed.add("completion " + actor.state);
+            if (completion.isFailed()) {
+                processed.add("failed " + completion.getFailure().getMessage());
+            }
+            latch.countDown();
+        }
+
+        @ActorMessageHandler
+        public void update(TestActor actor, Integer update) {
+            processed.add(update + " " + actor.state);
+            latch.countDown();
+        }
+    }
+
+    public class TestActor implements Actor {
+
+        private String state = "initial";
+
+        @Override
+        public boolean processMessage(Object message) {
+            if (message instanceof Gate) {
+                try {
+                    assertTrue(((Gate) message).opened.await(5, TimeUnit.SECONDS));
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+            return dispatcher.dispatchMessage(this, message);
+        }
+    }
+
+    private final ActorMessageDispatcher dispatcher = new ActorMessageDispatcher();
+
+    private final List<ListenableFutureTask<String>> loads = new CopyOnWriteArrayList<ListenableFutureTask<String>>();
+
+    private final List<String> processed = new CopyOnWriteArrayList<String>();
+
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<Integer>();
+
+    private final AtomicInteger scoreSum = new AtomicInteger();
+
+    private volatile CountDownLatch latch;
+
+    private SimpleActorsRuntime runtime;
+
+    private ActorRef actorRef;
+
+    @Before
+    public void setUp() {
+        dispatcher.setActorClass(TestActor.class);
+        dispatcher.setHandlers(Collections.singletonList(new Handlers()));
+        dispatcher.init();
+
+        runtime = new ExecutorBasedActorsRuntime(1000, Executors.newFixedThreadPool(2));
+        runtime.setShutdownWaitTimeInMillis(0);
+        runtime.start();
+        actorRef = runtime.getSupportFor(new TestActor());
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        runtime.stop();
+    }
+
+    @Test
+    public void testCompletionIsDeliveredToActor() throws Exception {
+        latch = new CountDownLatch(1);
+        actorRef.sendMessage(new Load("loaded"));
+        actorRef.sendMessage(1);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, dispatcher.getStashingActors());
+
+        latch = new CountDownLatch(2);
+        actorRef.sendMessage(2);
+        loads.get(0).run();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("1 initial", "2 initial", "completion loaded"), processed);
+    }
+
+    @Test
+    public void testMessagesAreStashedUntilCompletion() throws Exception {
+        latch = new CountDownLatch(4);
+        actorRef.sendMessage(new StashingLoad("first"));
+        actorRef.sendMessage(1);
+        actorRef.sendMessage(2);
+        actorRef.sendMessage(3);
+        waitForLoads(1);
+        Thread.sleep(50);
+        assertTrue(processed.isEmpty());
+        assertEquals(1, dispatcher.getStashingActors());
+
+        loads.get(0).run();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("completion first", "1 first", "2 first", "3 first"), processed);
+        waitForStashingActors(0);
+    }
+
+    @Test
+    public void testCompletionIsDeliveredWhenMailboxIsFull() throws Exception {
+        runtime.setMaxMessagesPerActor(2);
+        latch = new CountDownLatch(2);
+        actorRef.sendMessage(new StashingLoad("first"));
+        waitForLoads(1);
+        Gate gate = new Gate();
+        actorRef.sendMessage(gate);
+        actorRef.sendMessage(1);
+
+        // mailbox is full, completion can't be sent
+        loads.get(0).run();
+        assertTrue(processed.isEmpty());
+
+        gate.opened.countDown();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("completion first", "1 first"), processed);
+        waitForStashingActors(0);
+    }
+
+    @Test
+    public void testFailureIsDeliveredToActor() throws Exception {
+        latch = new CountDownLatch(1);
+        actorRef.sendMessage(new StashingLoad(null));
+        waitForLoads(1);
+        loads.get(0).run();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("failed expected", processed.get(1));
+        waitForStashingActors(0);
+    }
+
+    @Test
+    public void testBatchHandlerDrainsPendingMessages() throws Exception {
+        dispatcher.setMaxBatchSize(40);
+        CountDownLatch blocker = new CountDownLatch(1);
+        latch = new CountDownLatch(100);
+        actorRef.sendMessage(blocker);
+        for (int i = 1; i <= 100; i++) {
+            actorRef.sendMessage(new Score(i));
+        }
+        actorRef.sendMessage(1);
+        blocker.countDown();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        assertEquals(5050, scoreSum.get());
+        assertEquals(Arrays.asList(40, 40, 20), batchSizes);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (runtime.getPendingMessages() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, runtime.getPendingMessages());
+        assertEquals(Collections.singletonList("1 initial"), processed);
+    }
+
+    private ListenableFuture<String> startLoad(final Load load) {
+        ListenableFutureTask<String> task = new ListenableFutureTask<String>(new Callable<String>() {
+            @Override
+            public String call() {
+                if (load.key == null) {
+                    throw new IllegalArgumentException("expected");
+                }
+                return load.key;
+            }
+        });
+        loads.add(task);
+        return task;
+    }
+
+    private void waitForLoads(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (loads.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, loads.size());
+    }
+
+    private void waitForStashingActors(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getStashingActors() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, dispatcher.getStashingActors());
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.durable;
+
+import com.sulake.common.actors.codec.BinaryMessageCodec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author dmitrym
+ */
+public class DurableMessageLogTest {
+
+    public static final int SEGMENT_SIZE = 4096;
+    public static final int APPENDERS = 8;
+    public static final int MESSAGES_PER_APPENDER = 200;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<DurableMessage> replayedMessages = new ArrayList<DurableMessage>();
+
+    private final List<Object> replayedActorIds = new ArrayList<Object>();
+
+    @Test
+    public void testReplayOfNotAcknowledgedMessages() throws Exception {
+        DurableMessageLog log = openLog();
+        for (int i = 0; i < 10; i++) {
+            DurableMessage message = log.append(i % 3, "message-" + i);
+            if (i % 2 == 0) {
+                message.acknowledge();
+            }
+        }
+        assertEquals(5, log.getPendingMessages());
+        log.close();
+
+        log = openLog();
+        assertEquals(5, replayedMessages.size());
+        for (int i = 0; i < 5; i++) {
+            int expected = i * 2 + 1;
+            assertEquals(expected % 3, replayedActorIds.get(i));
+            assertEquals("message-" + expected, replayedMessages.get(i).getMessage());
+        }
+
+        for (DurableMessage message : replayedMessages) {
+            message.acknowledge();
+        }
+        replayedMessages.clear();
+        log.close();
+
+        openLog().close();
+        assertTrue(replayedMessages.isEmpty());
+    }
+
+    @Test
+    public void testSegmentRollingAndCompaction() throws Exception {
+        DurableMessageLog log = openLog();
+        DurableMessage survivor = null;
+        for (int i = 0; i < 500; i++) {
+            DurableMessage message = log.append(i, "message-" + i);
+            if (i == 3) {
+                survivor = message;
+            }
+            else {
+                message.acknowledge();
+            }
+        }
+        long deadline = System.currentTimeMillis() + 3 * DurableMessageLog.HOUSEKEEPING_PERIOD_IN_MILLIS;
+        while (log.getSegments() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, log.getSegments());
+        assertTrue(log.getCompactedMessages() > 0);
+        assertEquals(1, temporaryFolder.getRoot().listFiles().length);
+        assertFalse(new File(temporaryFolder.getRoot(), "00000000000000000001.log").exists());
+        log.close();
+
+        log = openLog();
+        assertEquals(1, replayedMessages.size());
+        assertEquals(survivor.getSequence(), replayedMessages.get(0).getSequence());
+        assertEquals("message-3", replayedMessages.get(0).getMessage());
+        log.close();
+    }
+
+    @Test
+    public void testReopenAfterClose() throws Exception {
+        DurableMessageLog log = openLog();
+        log.append(1, "message-1");
+        log.append(2, "message-2").acknowledge();
+        log.close();
+        assertEquals(0, log.getSegments());
+        assertEquals(0, log.getPendingMessages());
+
+        open(log);
+        assertEquals(1, replayedMessages.size());
+        assertEquals("message-1", replayedMessages.get(0).getMessage());
+        assertEquals(1, log.getPendingMessages());
+        assertEquals(temporaryFolder.getRoot().listFiles().length, log.getSegments());
+        log.close();
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        final DurableMessageLog log = openLog();
+        final CountDownLatch done = new CountDownLatch(APPENDERS);
+        for (int i = 0; i < APPENDERS; i++) {
+            final int appender = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < MESSAGES_PER_APPENDER; j++) {
+                        log.append(appender, j).acknowledge();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        assertEquals(APPENDERS * MESSAGES_PER_APPENDER, log.getAppendedMessages());
+        assertEquals(0, log.getPendingMessages());
+        assertTrue("commits: " + log.getCommits(), log.getCommits() < log.getAppendedMessages());
+        log.close();
+    }
+
+    private DurableMessageLog openLog() throws Exception {
+        DurableMessageLog log = new DurableMessageLog(temporaryFolder.getRoot());
+        log.setSegmentSize(SEGMENT_SIZE);
+        log.setMaxRecordSize(256);
+        log.setMessageCodec(new BinaryMessageCodec());
+        open(log);
+        return log;
+    }
+
+    private void open(DurableMessageLog log) throws Exception {
+        log.open(new DurableMessageLog.ReplayHandler() {
+            @Override
+            public void onMessage(Object actorId, DurableMessage message) {
+                replayedActorIds.add(actorId);
+                replayedMessages.add(message);
+            }
+        });
+    }
+}
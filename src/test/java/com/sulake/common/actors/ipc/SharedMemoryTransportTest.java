@@ -0,0 +1,152 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.ipc;
+
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.TooManyPendingMessagesException;
+import com.sulake.common.actors.codec.BinaryMessageCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link SharedMemoryInbox} and {@link SharedMemoryOutbox} mapping
+ * the same file.
+ *
+ * @author dmitrym
+ */
+public class SharedMemoryTransportTest {
+
+    public static final int CAPACITY = 4096;
+    public static final int PRODUCERS = 4;
+    public static final int MESSAGES_PER_PRODUCER = 5000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final BlockingQueue<Object> receivedMessages = new LinkedBlockingQueue<Object>();
+
+    private SharedMemoryInbox inbox;
+
+    private SharedMemoryOutbox outbox;
+
+    @Before
+    public void setUp() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "inbox.ring");
+
+        inbox = new SharedMemoryInbox();
+        inbox.setFile(file);
+        inbox.setCapacity(CAPACITY);
+        inbox.setMessageCodec(new BinaryMessageCodec());
+        inbox.register("collector", new ActorRef() {
+            @Override
+            public void sendMessage(Object message) {
+                receivedMessages.add(message);
+            }
+
+            @Override
+            public void release() {
+            }
+
+            @Override
+            public boolean releaseIfIdle() {
+                return true;
+            }
+        });
+        inbox.start();
+
+        outbox = new SharedMemoryOutbox();
+        outbox.setFile(file);
+        outbox.setCapacity(CAPACITY);
+        outbox.setMessageCodec(new BinaryMessageCodec());
+        outbox.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        outbox.stop();
+        inbox.stop();
+    }
+
+    @Test
+    public void testMultipleProducers() throws Exception {
+        final ActorRef remoteRef = outbox.getActorRef("collector");
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final long producer = p;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < MESSAGES_PER_PRODUCER; i++) {
+                        while (true) {
+                            try {
+                                remoteRef.sendMessage(producer * MESSAGES_PER_PRODUCER + i);
+                                break;
+                            }
+                            catch (TooManyPendingMessagesException ignored) {
+                                Thread.yield();
+                            }
+                        }
+                    }
+                }
+            });
+            producers[p].start();
+        }
+
+        int[] lastByProducer = new int[PRODUCERS];
+        for (int i = 0; i < PRODUCERS * MESSAGES_PER_PRODUCER; i++) {
+            Object message = receivedMessages.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Message was not delivered", message);
+            long value = ((Long) message);
+            int producer = (int) (value / MESSAGES_PER_PRODUCER);
+            int sequence = (int) (value % MESSAGES_PER_PRODUCER) + 1;
+            assertEquals("Out of order message from producer " + producer, lastByProducer[producer] + 1, sequence);
+            lastByProducer[producer] = sequence;
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(PRODUCERS * MESSAGES_PER_PRODUCER, outbox.getSentMessages());
+        assertEquals(0, inbox.getDroppedMessages());
+    }
+
+    @Test
+    public void testRejectedWhenFull() throws Exception {
+        inbox.stop();
+        Thread.sleep(100);
+
+        ActorRef remoteRef = outbox.getActorRef("collector");
+        try {
+            for (int i = 0; i < CAPACITY; i++) {
+                remoteRef.sendMessage("message " + i);
+            }
+            fail("Expected TooManyPendingMessagesException here");
+        }
+        catch (TooManyPendingMessagesException ignored) {
+        }
+        assertEquals(1, outbox.getRejectedMessages());
+    }
+
+    @Test
+    public void testSendAfterStopFails() throws Exception {
+        outbox.stop();
+
+        try {
+            outbox.getActorRef("collector").sendMessage("message");
+            fail("Expected IllegalStateException here");
+        }
+        catch (IllegalStateException ignored) {
+        }
+        assertEquals(0, outbox.getSentMessages());
+    }
+}
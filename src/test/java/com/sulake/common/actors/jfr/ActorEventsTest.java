@@ -0,0 +1,175 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.jfr;
+
+import com.sulake.common.actors.Actor;
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.DeadlineMessage;
+import com.sulake.common.actors.TooManyPendingMessagesException;
+import com.sulake.common.actors.spi.ExecutorBasedActorsRuntime;
+import com.sulake.common.actors.spi.SimpleActorsRuntime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that {@link SimpleActorsRuntime} reports events to {@link ActorEvents}.
+ *
+ * @author dmitrym
+ */
+public class ActorEventsTest {
+
+    public static class CountingSink implements ActorEventSink {
+
+        private final AtomicInteger enqueued = new AtomicInteger();
+        private final AtomicInteger rejected = new AtomicInteger();
+        private final AtomicInteger processed = new AtomicInteger();
+
+        @Override
+        public void messageEnqueued(Class<?> actorClass, Class<?> messageType) {
+            enqueued.incrementAndGet();
+        }
+
+        @Override
+        public void messageRejected(Class<?> actorClass, Class<?> messageType) {
+            rejected.incrementAndGet();
+        }
+
+        @Override
+        public void messageProcessed(Class<?> actorClass, Class<?> messageType, long durationNanos) {
+            assertEquals(String.class, messageType);
+            assertTrue(durationNanos >= 0);
+            processed.incrementAndGet();
+        }
+
+        @Override
+        public void actorCreated(Class<?> actorClass, Object actorId) {
+        }
+
+        @Override
+        public void actorEvicted(Class<?> actorClass, Object actorId, boolean expired) {
+        }
+
+        @Override
+        public void pingBatch(String service, int batchSize, long durationNanos) {
+        }
+    }
+
+    private SimpleActorsRuntime runtime;
+
+    @Before
+    public void setUp() {
+        runtime = new ExecutorBasedActorsRuntime(2, Executors.newSingleThreadExecutor());
+        runtime.setShutdownWaitTimeInMillis(0);
+        runtime.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        ActorEvents.disable();
+        runtime.stop();
+    }
+
+    @Test
+    public void testMessageEvents() throws Exception {
+        CountingSink sink = new CountingSink();
+        ActorEvents.setSink(sink);
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch processed = new CountDownLatch(2);
+        ActorRef actorRef = runtime.getSupportFor(new Actor() {
+            @Override
+            public boolean processMessage(Object message) {
+                try {
+                    blocked.await();
+                }
+                catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                processed.countDown();
+                return true;
+            }
+        });
+
+        actorRef.sendMessage("first");
+        actorRef.sendMessage("second");
+        try {
+            actorRef.sendMessage("third");
+            fail("Runtime limit is 2 messages");
+        }
+        catch (TooManyPendingMessagesException expected) {
+        }
+        blocked.countDown();
+        assertTrue(processed.await(5, TimeUnit.SECONDS));
+
+        assertEquals(2, sink.enqueued.get());
+        assertEquals(1, sink.rejected.get());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sink.processed.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(2, sink.processed.get());
+    }
+
+    @Test
+    public void testExpiredMessageIsNotProcessed() throws Exception {
+        CountingSink sink = new CountingSink();
+        ActorEvents.setSink(sink);
+
+        final CountDownLatch processed = new CountDownLatch(1);
+        ActorRef actorRef = runtime.getSupportFor(new Actor() {
+            @Override
+            public boolean processMessage(Object message) {
+                processed.countDown();
+                return true;
+            }
+        });
+        actorRef.sendMessage(new DeadlineMessage("expired", 0, TimeUnit.MILLISECONDS));
+        actorRef.sendMessage("message");
+        assertTrue(processed.await(5, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sink.processed.get() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, runtime.getExpiredMessages());
+        assertEquals(1, sink.processed.get());
+    }
+
+    @Test
+    public void testEventsAreDisabledByDefault() {
+        assertNull(ActorEvents.getSink());
+    }
+
+    @Test
+    public void testJfrSinkIsLoadedWhenAvailable() throws Exception {
+        boolean jfrAvailable;
+        try {
+            Class.forName("jdk.jfr.Event");
+            // not built without jfr profile
+            Class.forName("com.sulake.common.actors.jfr.JfrActorEventSink");
+            jfrAvailable = true;
+        }
+        catch (ClassNotFoundException ex) {
+            jfrAvailable = false;
+        }
+        assertEquals(jfrAvailable, ActorEvents.enable());
+        if (jfrAvailable) {
+            assertEquals("JfrActorEventSink", ActorEvents.getSink().getClass().getSimpleName());
+            runtime.getSupportFor(new Actor() {
+                @Override
+                public boolean processMessage(Object message) {
+                    return true;
+                }
+            }).sendMessage("message");
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.journal;
+
+import com.sulake.common.actors.SmartActor;
+import com.sulake.common.actors.SmartActors;
+import com.sulake.common.actors.codec.BinaryMessageCodec;
+import com.sulake.common.actors.spi.PassthroughActorRuntime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.beans.factory.ObjectFactory;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link EventSourcedSmartActor} with {@link FileEventJournal}.
+ *
+ * @author dmitrym
+ */
+public class EventSourcedSmartActorTest {
+
+    public static final int SNAPSHOT_INTERVAL = 5;
+    public static final String GET_MESSAGE = "GET";
+
+    public class CounterActor extends EventSourcedSmartActor<Integer, Long> {
+
+        @Override
+        protected Long createInitialState(Integer actorId) {
+            initialStateLoads++;
+            return 0L;
+        }
+
+        @Override
+        protected Long applyEvent(Long state, Object event) {
+            return state + (Integer) event;
+        }
+
+        @Override
+        public boolean processMessage(Object message) {
+            if (super.processMessage(message)) {
+                return true;
+            }
+            if (message.equals(GET_MESSAGE)) {
+                observedStates.add(getState());
+            }
+            else {
+                persistEvent(message);
+            }
+            return true;
+        }
+
+        @Override
+        protected boolean canBeRemoved() {
+            return false;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<Long> observedStates = new ArrayList<Long>();
+
+    private int initialStateLoads;
+
+    private FileEventJournal<Integer> journal;
+
+    private SmartActors<Integer> actors;
+
+    @Before
+    public void setUp() throws Exception {
+        journal = new FileEventJournal<Integer>(temporaryFolder.getRoot());
+        journal.setMessageCodec(new BinaryMessageCodec());
+
+        actors = new SmartActors<Integer>();
+        actors.setActorsRuntime(new PassthroughActorRuntime());
+        actors.setActorsFactory(new ObjectFactory<SmartActor<Integer>>() {
+            @Override
+            public SmartActor<Integer> getObject() {
+                CounterActor actor = new CounterActor();
+                actor.setEventJournal(journal);
+                actor.setSnapshotInterval(SNAPSHOT_INTERVAL);
+                return actor;
+            }
+        });
+        actors.setPingPeriodInMillis(60000);
+        actors.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        actors.stop();
+    }
+
+    @Test
+    public void testStateIsRestoredFromSnapshotAndEvents() throws Exception {
+        for (int i = 1; i <= 12; i++) {
+            actors.sendMessage(1, i);
+        }
+        actors.sendMessage(2, 100);
+        actors.sendMessage(1, GET_MESSAGE);
+        assertEquals(Long.valueOf(78), observedStates.get(0));
+
+        assertTrue(actors.passivateActor(1));
+        assertTrue(actors.passivateActor(2));
+
+        File actorDirectory = new File(temporaryFolder.getRoot(), String.format("%02x", 1));
+        assertTrue(new File(actorDirectory, "1.snapshot").exists());
+        // 12 events, snapshot after 10th: 2 events in tail
+        assertTrue(new File(actorDirectory, "1.events").length() < 3 * 20);
+
+        actors.sendMessage(1, GET_MESSAGE);
+        actors.sendMessage(2, GET_MESSAGE);
+        assertEquals(Long.valueOf(78), observedStates.get(1));
+        assertEquals(Long.valueOf(100), observedStates.get(2));
+        assertEquals(2, initialStateLoads);
+
+        actors.sendMessage(1, 22);
+        actors.sendMessage(1, GET_MESSAGE);
+        assertEquals(Long.valueOf(100), observedStates.get(3));
+    }
+
+    @Test
+    public void testIncompleteEventIsDiscarded() throws Exception {
+        actors.sendMessage(1, 1);
+        actors.sendMessage(1, 2);
+        assertTrue(actors.passivateActor(1));
+
+        File eventsFile = new File(new File(temporaryFolder.getRoot(), "01"), "1.events");
+        RandomAccessFile file = new RandomAccessFile(eventsFile, "rw");
+        try {
+            file.setLength(file.length() - 1);
+        }
+        finally {
+            file.close();
+        }
+
+        actors.sendMessage(1, GET_MESSAGE);
+        assertEquals(Long.valueOf(1), observedStates.get(0));
+
+        actors.sendMessage(1, 5);
+        actors.sendMessage(1, GET_MESSAGE);
+        assertEquals(Long.valueOf(6), observedStates.get(1));
+        assertTrue(actors.passivateActor(1));
+
+        actors.sendMessage(1, GET_MESSAGE);
+        assertEquals(Long.valueOf(6), observedStates.get(2));
+    }
+
+    @Test
+    public void testCorruptedEventIsDiscarded() throws Exception {
+        actors.sendMessage(1, 1);
+        actors.sendMessage(1, 2);
+        assertTrue(actors.passivateActor(1));
+
+        File eventsFile = new File(new File(temporaryFolder.getRoot(), "01"), "1.events");
+        RandomAccessFile file = new RandomAccessFile(eventsFile, "rw");
+        try {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xff);
+        }
+        finally {
+            file.close();
+        }
+
+        actors.sendMessage(1, GET_MESSAGE);
+        assertEquals(Long.valueOf(1), observedStates.get(0));
+    }
+
+    @Test
+    public void testFailedInitializationRemovesActor() throws Exception {
+        File notDirectory = temporaryFolder.newFile();
+        journal.setDirectory(notDirectory);
+        try {
+            actors.sendMessage(1, 1);
+            fail("Journal can't be opened");
+        }
+        catch (EventJournalException expected) {
+        }
+        assertEquals(0, actors.getEstimatedSize());
+
+        journal.setDirectory(temporaryFolder.getRoot());
+        actors.sendMessage(1, 5);
+        actors.sendMessage(1, GET_MESSAGE);
+        assertEquals(Long.valueOf(5), observedStates.get(0));
+    }
+}
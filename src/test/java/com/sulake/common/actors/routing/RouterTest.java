@@ -0,0 +1,168 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.routing;
+
+import com.sulake.common.actors.Actor;
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.spi.ExecutorBasedActorsRuntime;
+import com.sulake.common.actors.spi.SimpleActorsRuntime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link Router} with {@link ExecutorBasedActorsRuntime}.
+ *
+ * @author dmitrym
+ */
+public class RouterTest {
+
+    public static final int MESSAGES = 1000;
+
+    private final Map<Object, List<Actor>> workersByKey = new ConcurrentHashMap<Object, List<Actor>>();
+
+    private volatile CountDownLatch processed;
+
+    private volatile CountDownLatch blocked = new CountDownLatch(0);
+
+    private SimpleActorsRuntime runtime;
+
+    private final ObjectFactory<Actor> workerFactory = new ObjectFactory<Actor>() {
+        @Override
+        public Actor getObject() {
+            return new Actor() {
+                @Override
+                public boolean processMessage(Object message) {
+                    try {
+                        blocked.await();
+                    }
+                    catch (InterruptedException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                    Object key = message instanceof String ? ((String) message).split("-")[0] : message;
+                    List<Actor> workers = workersByKey.get(key);
+                    if (workers == null) {
+                        workers = Collections.synchronizedList(new ArrayList<Actor>());
+                        workersByKey.put(key, workers);
+                    }
+                    if (!workers.contains(this)) {
+                        workers.add(this);
+                    }
+                    processed.countDown();
+                    return true;
+                }
+            };
+        }
+    };
+
+    @Before
+    public void setUp() {
+        runtime = new ExecutorBasedActorsRuntime(100000, Executors.newFixedThreadPool(4));
+        runtime.setShutdownWaitTimeInMillis(0);
+        runtime.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        runtime.stop();
+    }
+
+    @Test
+    public void testRoundRobinUsesAllWorkers() throws Exception {
+        Router router = new Router(runtime, workerFactory, new RoundRobinRoutingStrategy(), 4);
+        router.start();
+        processed = new CountDownLatch(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            router.sendMessage("all");
+        }
+        assertTrue(processed.await(5, TimeUnit.SECONDS));
+        assertEquals(4, workersByKey.get("all").size());
+        assertEquals(MESSAGES, router.getRoutedMessages());
+        router.stop();
+    }
+
+    @Test
+    public void testConsistentHashKeepsKeyOnSameWorker() throws Exception {
+        Router router = new Router(runtime, workerFactory, new ConsistentHashRoutingStrategy(
+                new MessageKeyExtractor() {
+                    @Override
+                    public Object getKey(Object message) {
+                        return ((String) message).split("-")[0];
+                    }
+                }), 8);
+        router.start();
+        processed = new CountDownLatch(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            router.sendMessage("key" + (i % 50) + "-" + i);
+        }
+        assertTrue(processed.await(5, TimeUnit.SECONDS));
+        assertEquals(50, workersByKey.size());
+        for (List<Actor> workers : workersByKey.values()) {
+            assertEquals(1, workers.size());
+        }
+        router.stop();
+    }
+
+    @Test
+    public void testSmallestMailboxAvoidsBusyWorker() throws Exception {
+        Router router = new Router(runtime, workerFactory, new SmallestMailboxRoutingStrategy(), 2);
+        router.start();
+        blocked = new CountDownLatch(1);
+        processed = new CountDownLatch(11);
+        List<ActorRef> routees = router.getRoutees();
+        for (int i = 0; i < 10; i++) {
+            routees.get(0).sendMessage("busy");
+        }
+        router.sendMessage("routed");
+        assertEquals(10, Router.getMailboxSize(routees.get(0)));
+        assertEquals(1, Router.getMailboxSize(routees.get(1)));
+        blocked.countDown();
+        assertTrue(processed.await(5, TimeUnit.SECONDS));
+        router.stop();
+    }
+
+    @Test
+    public void testPoolIsResizedByMailboxDepth() throws Exception {
+        Router router = new Router(runtime, workerFactory, new SmallestMailboxRoutingStrategy(), 2);
+        router.setMinPoolSize(1);
+        router.setMaxPoolSize(4);
+        router.setResizePeriodInMillis(0);
+        router.start();
+
+        blocked = new CountDownLatch(1);
+        processed = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            router.sendMessage("load");
+        }
+        assertEquals(1, router.resize());
+        assertEquals(3, router.getPoolSize());
+        assertEquals(1, router.resize());
+        assertEquals(4, router.getPoolSize());
+        assertEquals(0, router.resize());
+
+        blocked.countDown();
+        assertTrue(processed.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (router.getPoolSize() > 1 && System.currentTimeMillis() < deadline) {
+            router.resize();
+            Thread.sleep(1);
+        }
+        assertEquals(1, router.getPoolSize());
+        assertEquals(5, router.getResizes());
+        router.stop();
+        assertEquals(0, router.getPoolSize());
+    }
+}
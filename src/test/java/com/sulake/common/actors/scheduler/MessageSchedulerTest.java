@@ -0,0 +1,154 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.scheduler;
+
+import com.sulake.common.actors.Actor;
+import com.sulake.common.actors.ActorContext;
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.SmartActor;
+import com.sulake.common.actors.SmartActors;
+import com.sulake.common.actors.spi.ExecutorBasedActorsRuntime;
+import com.sulake.common.actors.spi.SimpleActorsRuntime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectFactory;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link MessageScheduler} with {@link ExecutorBasedActorsRuntime}.
+ *
+ * @author dmitrym
+ */
+public class MessageSchedulerTest {
+
+    public static class TickingActor extends SmartActor<Integer> {
+
+        private static final AtomicInteger ticks = new AtomicInteger();
+
+        private static volatile CountDownLatch ticked = new CountDownLatch(0);
+
+        @Override
+        protected void initActor(Integer actorId) {
+            ActorContext.scheduleAtFixedRate(ActorContext.getCurrentActorRef(), "tick", 1, 1, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public boolean processMessage(Object message) {
+            if (super.processMessage(message)) {
+                return true;
+            }
+            if ("tick".equals(message)) {
+                ticks.incrementAndGet();
+                ticked.countDown();
+            }
+            return true;
+        }
+
+        @Override
+        protected boolean canBeRemoved() {
+            return false;
+        }
+    }
+
+    private final MessageScheduler scheduler = new MessageScheduler();
+
+    private final AtomicInteger received = new AtomicInteger();
+
+    private volatile CountDownLatch latch;
+
+    private SimpleActorsRuntime runtime;
+
+    private ActorRef actorRef;
+
+    @Before
+    public void setUp() {
+        scheduler.setTickInMillis(1);
+        scheduler.setWheelSize(64);
+        scheduler.start();
+
+        runtime = new ExecutorBasedActorsRuntime(1000, Executors.newFixedThreadPool(2));
+        runtime.setShutdownWaitTimeInMillis(0);
+        runtime.setMessageScheduler(scheduler);
+        runtime.start();
+
+        actorRef = runtime.getSupportFor(new Actor() {
+            @Override
+            public boolean processMessage(Object message) {
+                if ("start".equals(message)) {
+                    ActorContext.scheduleOnce(ActorContext.getCurrentActorRef(), "timeout", 20, TimeUnit.MILLISECONDS);
+                    return true;
+                }
+                received.incrementAndGet();
+                latch.countDown();
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        runtime.stop();
+        scheduler.stop();
+    }
+
+    @Test
+    public void testScheduleOnceAndCancel() throws Exception {
+        latch = new CountDownLatch(1);
+        long startTime = System.currentTimeMillis();
+        actorRef.sendMessage("start");
+        ScheduledMessage cancelled = scheduler.scheduleOnce(actorRef, "cancelled", 10, TimeUnit.MILLISECONDS);
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - startTime >= 20);
+        Thread.sleep(50);
+        assertEquals(1, received.get());
+        assertEquals(1, scheduler.getDeliveredMessages());
+        assertEquals(1, scheduler.getCancelledMessages());
+        assertEquals(0, scheduler.getPendingMessages());
+    }
+
+    @Test
+    public void testTimersBeyondOneRotation() throws Exception {
+        latch = new CountDownLatch(2);
+        long startTime = System.currentTimeMillis();
+        scheduler.scheduleOnce(actorRef, "first", 150, TimeUnit.MILLISECONDS);
+        scheduler.scheduleOnce(actorRef, "second", 200, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - startTime >= 200);
+    }
+
+    @Test
+    public void testPeriodicTimerIsCancelledWithSmartActor() throws Exception {
+        SmartActors<Integer> smartActors = new SmartActors<Integer>();
+        smartActors.setActorsRuntime(runtime);
+        smartActors.setActorsFactory(new ObjectFactory<SmartActor<Integer>>() {
+            @Override
+            public SmartActor<Integer> getObject() {
+                return new TickingActor();
+            }
+        });
+        smartActors.start();
+
+        TickingActor.ticked = new CountDownLatch(5);
+        smartActors.sendMessage(1, "hello");
+        assertTrue(TickingActor.ticked.await(5, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getPendingMessages());
+
+        smartActors.stop();
+        assertEquals(0, scheduler.getPendingMessages());
+        assertEquals(1, scheduler.getCancelledMessages());
+        int ticks = TickingActor.ticks.get();
+        Thread.sleep(20);
+        assertTrue(TickingActor.ticks.get() <= ticks + 1);
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.spi;
+
+import com.sulake.common.actors.Actor;
+import com.sulake.common.actors.ActorRefReleasedException;
+import com.sulake.common.actors.TooManyPendingMessagesException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress tests of packed state of {@link SimpleActorSupport} with many
+ * concurrent senders.
+ *
+ * @author dmitrym
+ */
+public class SimpleActorSupportTest {
+
+    public static final int SENDERS = 8;
+    public static final int MESSAGES_PER_SENDER = 20000;
+
+    private static final class Message {
+
+        private final int sender;
+
+        private final int sequence;
+
+        private Message(int sender, int sequence) {
+            this.sender = sender;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Checks per-sender order and that messages are never processed
+     * concurrently.
+     */
+    private static final class OrderCheckingActor implements Actor {
+
+        private final int[] nextSequence = new int[SENDERS];
+
+        private final AtomicInteger inProgress = new AtomicInteger();
+
+        private final AtomicInteger processed = new AtomicInteger();
+
+        private volatile String error;
+
+        @Override
+        public boolean processMessage(Object message) {
+            if (inProgress.incrementAndGet() != 1) {
+                error = "concurrent processing";
+            }
+            Message msg = (Message) message;
+            if (msg.sequence < nextSequence[msg.sender]) {
+                error = "sender " + msg.sender + ": " + msg.sequence + " after " + nextSequence[msg.sender];
+            }
+            nextSequence[msg.sender] = msg.sequence + 1;
+            inProgress.decrementAndGet();
+            processed.incrementAndGet();
+            return true;
+        }
+    }
+
+    private SimpleActorsRuntime runtime;
+
+    private ExecutorService senders;
+
+    @Before
+    public void setUp() {
+        runtime = new ExecutorBasedActorsRuntime(SENDERS * MESSAGES_PER_SENDER, Executors.newFixedThreadPool(4));
+        runtime.setShutdownWaitTimeInMillis(0);
+        runtime.start();
+        senders = Executors.newFixedThreadPool(SENDERS);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        senders.shutdownNow();
+        runtime.stop();
+    }
+
+    @Test
+    public void testConcurrentSendersKeepPendingCount() throws Exception {
+        OrderCheckingActor actor = new OrderCheckingActor();
+        final SimpleActorSupport actorSupport = (SimpleActorSupport) runtime.getSupportFor(actor);
+
+        List<Future<Integer>> results = startSenders(actorSupport, false);
+        int sent = 0;
+        for (Future<Integer> result : results) {
+            sent += result.get(30, TimeUnit.SECONDS);
+        }
+        assertEquals(SENDERS * MESSAGES_PER_SENDER, sent);
+
+        waitForIdle(actorSupport);
+        assertNull(actor.error, actor.error);
+        assertEquals(sent, actor.processed.get());
+        assertEquals(0, actorSupport.getPendingMessages());
+        assertEquals(0, runtime.getPendingMessages());
+        assertTrue(actorSupport.releaseIfIdle());
+    }
+
+    @Test
+    public void testReleaseRacingWithSenders() throws Exception {
+        OrderCheckingActor actor = new OrderCheckingActor();
+        final SimpleActorSupport actorSupport = (SimpleActorSupport) runtime.getSupportFor(actor);
+
+        List<Future<Integer>> results = startSenders(actorSupport, true);
+        // releaseIfIdle may fail while messages are pending, release always succeeds
+        while (!actorSupport.releaseIfIdle() && actor.processed.get() < MESSAGES_PER_SENDER) {
+            Thread.yield();
+        }
+        actorSupport.release();
+
+        int accepted = 0;
+        for (Future<Integer> result : results) {
+            accepted += result.get(30, TimeUnit.SECONDS);
+        }
+        try {
+            actorSupport.sendMessage(new Message(0, Integer.MAX_VALUE));
+            fail("Released actor must reject messages");
+        }
+        catch (ActorRefReleasedException expected) {
+        }
+
+        waitForIdle(actorSupport);
+        assertNull(actor.error, actor.error);
+        // accepted messages are processed even after release
+        assertEquals(accepted, actor.processed.get());
+        assertEquals(0, actorSupport.getPendingMessages());
+        assertEquals(0, runtime.getPendingMessages());
+        assertTrue(actorSupport.releaseIfIdle());
+    }
+
+    @Test
+    public void testMailboxCapacityIsExactUnderContention() throws Exception {
+        final int capacity = 100;
+        runtime.setMaxMessagesPerActor(capacity);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final AtomicInteger processed = new AtomicInteger();
+        final SimpleActorSupport actorSupport = (SimpleActorSupport) runtime.getSupportFor(new Actor() {
+            @Override
+            public boolean processMessage(Object message) {
+                try {
+                    blocked.await(30, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                processed.incrementAndGet();
+                return true;
+            }
+        });
+
+        List<Future<Integer>> results = startSenders(actorSupport, false);
+        int accepted = 0;
+        for (Future<Integer> result : results) {
+            accepted += result.get(30, TimeUnit.SECONDS);
+        }
+        assertEquals(capacity, accepted);
+        assertEquals(capacity, actorSupport.getPendingMessages());
+        assertEquals(SENDERS * MESSAGES_PER_SENDER - capacity, runtime.getRejectedByMailboxCapacity());
+
+        blocked.countDown();
+        waitForIdle(actorSupport);
+        assertEquals(capacity, processed.get());
+        assertEquals(0, runtime.getPendingMessages());
+    }
+
+    /**
+     * Starts senders, each sending {@link #MESSAGES_PER_SENDER} messages or
+     * until actor is released.
+     *
+     * @return numbers of accepted messages
+     */
+    private List<Future<Integer>> startSenders(final SimpleActorSupport actorSupport, final boolean mayBeReleased) {
+        final CyclicBarrier start = new CyclicBarrier(SENDERS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < SENDERS; i++) {
+            final int sender = i;
+            results.add(senders.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    start.await();
+                    int accepted = 0;
+                    for (int sequence = 0; sequence < MESSAGES_PER_SENDER; sequence++) {
+                        try {
+                            actorSupport.sendMessage(new Message(sender, sequence));
+                            accepted++;
+                        }
+                        catch (TooManyPendingMessagesException ignored) {
+                        }
+                        catch (ActorRefReleasedException ex) {
+                            assertTrue("Actor is not released", mayBeReleased);
+                            break;
+                        }
+                    }
+                    return accepted;
+                }
+            }));
+        }
+        return results;
+    }
+
+    private static void waitForIdle(SimpleActorSupport actorSupport) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (actorSupport.getPendingMessages() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.streams;
+
+import com.sulake.common.actors.Actor;
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.spi.ExecutorBasedActorsRuntime;
+import com.sulake.common.actors.spi.SimpleActorSupport;
+import com.sulake.common.actors.spi.SimpleActorsRuntime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link ActorPublisher} streaming into {@link ActorSubscriber}.
+ *
+ * @author dmitrym
+ */
+public class ActorStreamsTest {
+
+    public static final int ELEMENTS = 1000;
+
+    public static final int BUFFER_SIZE = 8;
+
+    private final List<Object> received = new CopyOnWriteArrayList<Object>();
+
+    private final AtomicInteger maxMailbox = new AtomicInteger();
+
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    private SimpleActorsRuntime runtime;
+
+    private SimpleActorSupport consumer;
+
+    @Before
+    public void setUp() {
+        runtime = new ExecutorBasedActorsRuntime(1000, Executors.newFixedThreadPool(2));
+        runtime.setShutdownWaitTimeInMillis(0);
+        runtime.start();
+
+        consumer = (SimpleActorSupport) runtime.getSupportFor(new Actor() {
+            @Override
+            public boolean processMessage(Object message) {
+                int mailbox = consumer.getPendingMessages();
+                if (mailbox > maxMailbox.get()) {
+                    maxMailbox.set(mailbox);
+                }
+                received.add(message);
+                if (message instanceof StreamTerminated) {
+                    terminated.countDown();
+                }
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        runtime.stop();
+    }
+
+    @Test
+    public void testProducerActorIsPacedByConsumer() throws Exception {
+        final AtomicInteger refusals = new AtomicInteger();
+        final ActorPublisher<?>[] publisherHolder = new ActorPublisher<?>[1];
+        ActorRef producer = runtime.getSupportFor(new Actor() {
+
+            private int next;
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean processMessage(Object message) {
+                ActorPublisher<Integer> publisher = (ActorPublisher<Integer>) publisherHolder[0];
+                while (next < ELEMENTS) {
+                    if (!publisher.offer(next)) {
+                        refusals.incrementAndGet();
+                        return true;
+                    }
+                    next++;
+                }
+                publisher.complete();
+                return true;
+            }
+        });
+        ActorPublisher<Integer> publisher = new ActorPublisher<Integer>(BUFFER_SIZE, producer);
+        publisherHolder[0] = publisher;
+        publisher.subscribe(new ActorSubscriber<Integer>(consumer, BUFFER_SIZE));
+
+        producer.sendMessage("start");
+        assertTrue(terminated.await(5, TimeUnit.SECONDS));
+
+        assertEquals(ELEMENTS + 1, received.size());
+        for (int i = 0; i < ELEMENTS; i++) {
+            assertEquals(i, received.get(i));
+        }
+        StreamTerminated end = (StreamTerminated) received.get(ELEMENTS);
+        assertFalse(end.isFailed());
+        assertTrue(maxMailbox.get() <= BUFFER_SIZE + 1);
+        assertTrue(refusals.get() > 0);
+        assertEquals(0, publisher.getSubscribers());
+    }
+
+    @Test
+    public void testFailureAndCancellation() throws Exception {
+        ActorPublisher<String> publisher = new ActorPublisher<String>(BUFFER_SIZE, null);
+        ActorSubscriber<String> subscriber = new ActorSubscriber<String>(consumer, BUFFER_SIZE);
+        publisher.subscribe(subscriber);
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            assertTrue(publisher.offer("element"));
+        }
+        publisher.fail(new IllegalStateException("expected"));
+        assertTrue(terminated.await(5, TimeUnit.SECONDS));
+        assertEquals(BUFFER_SIZE + 1, received.size());
+        assertTrue(((StreamTerminated) received.get(BUFFER_SIZE)).isFailed());
+
+        ActorPublisher<String> another = new ActorPublisher<String>(BUFFER_SIZE, null);
+        ActorSubscriber<String> cancelled = new ActorSubscriber<String>(consumer, BUFFER_SIZE);
+        another.subscribe(cancelled);
+        assertEquals(1, another.getSubscribers());
+        cancelled.cancel();
+        assertEquals(0, another.getSubscribers());
+        // nobody to deliver to
+        assertFalse(another.offer("refused"));
+        assertEquals(0, another.getPublishedElements());
+    }
+
+    @Test
+    public void testProducerIsNotifiedOnFirstSubscription() throws Exception {
+        ActorPublisher<String> publisher = new ActorPublisher<String>(BUFFER_SIZE, consumer);
+        assertFalse(publisher.hasCapacity());
+        assertFalse(publisher.offer("refused"));
+
+        publisher.subscribe(new ActorSubscriber<String>(consumer, BUFFER_SIZE));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(received.get(0) instanceof DemandAvailable);
+        assertTrue(publisher.offer("element"));
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.actors.tracing;
+
+import com.sulake.common.actors.AcknowledgedMessage;
+import com.sulake.common.actors.Actor;
+import com.sulake.common.actors.ActorRef;
+import com.sulake.common.actors.spi.ExecutorBasedActorsRuntime;
+import com.sulake.common.actors.spi.SimpleActorsRuntime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link Tracer} with {@link ExecutorBasedActorsRuntime}.
+ *
+ * @author dmitrym
+ */
+public class TracerTest {
+
+    public static final int MESSAGES = 10;
+
+    private final Tracer tracer = new Tracer();
+
+    private SimpleActorsRuntime runtime;
+
+    private CountDownLatch delivered;
+
+    private ActorRef frontActor;
+
+    @Before
+    public void setUp() {
+        runtime = new ExecutorBasedActorsRuntime(1000, Executors.newFixedThreadPool(2));
+        runtime.setShutdownWaitTimeInMillis(0);
+        runtime.setTracer(tracer);
+        runtime.start();
+
+        final ActorRef backActor = runtime.getSupportFor(new Actor() {
+            @Override
+            public boolean processMessage(Object message) {
+                assertFalse(message instanceof TracedMessage);
+                delivered.countDown();
+                return true;
+            }
+        });
+        frontActor = runtime.getSupportFor(new Actor() {
+            @Override
+            public boolean processMessage(Object message) {
+                backActor.sendMessage("forwarded " + message);
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        runtime.stop();
+    }
+
+    @Test
+    public void testTraceIsPropagatedToNextHop() throws Exception {
+        tracer.setSampleRate(1);
+        delivered = new CountDownLatch(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            frontActor.sendMessage(i);
+        }
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (tracer.getRecordedSpans() < 2 * MESSAGES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(MESSAGES, tracer.getStartedTraces());
+        assertEquals(2 * MESSAGES, tracer.getRecordedSpans());
+
+        TraceContext root = tracer.getSpans().get(0).getTraceContext();
+        List<Span> trace = tracer.getTrace(root.getTraceId());
+        assertEquals(2, trace.size());
+        // hops are recorded on completion, so next hop may be recorded first
+        Span front = trace.get(0).getTraceContext().getParentSpanId() == 0 ? trace.get(0) : trace.get(1);
+        Span back = front == trace.get(0) ? trace.get(1) : trace.get(0);
+        assertEquals(0, front.getTraceContext().getParentSpanId());
+        assertEquals(Integer.class.getName(), front.getMessageType());
+        assertEquals(front.getTraceContext().getSpanId(), back.getTraceContext().getParentSpanId());
+        assertEquals(String.class.getName(), back.getMessageType());
+        assertTrue(back.getQueueNanos() >= 0);
+        assertTrue(tracer.exportSpans(Long.toHexString(root.getTraceId())).split("\n").length == 2);
+    }
+
+    @Test
+    public void testUnsampledMessagesAreNotTraced() throws Exception {
+        tracer.setSampleRate(0);
+        delivered = new CountDownLatch(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            frontActor.sendMessage(i);
+        }
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(0, tracer.getStartedTraces());
+        assertEquals(0, tracer.getRecordedSpans());
+    }
+
+    @Test
+    public void testSampleRateIsApproximated() {
+        tracer.setSampleRate(0.1);
+        int traced = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (tracer.trace(i) instanceof TracedMessage) {
+                traced++;
+            }
+        }
+        assertTrue(String.valueOf(traced), traced > 9000 && traced < 11000);
+    }
+
+    @Test
+    public void testSpanRecordsTypeOfDeliveredMessage() throws Exception {
+        tracer.setSampleRate(1);
+        delivered = new CountDownLatch(1);
+        final CountDownLatch acknowledged = new CountDownLatch(1);
+        frontActor.sendMessage(new AcknowledgedMessage() {
+            @Override
+            public Object getMessage() {
+                return 42L;
+            }
+
+            @Override
+            public void acknowledge() {
+                acknowledged.countDown();
+            }
+        });
+        assertTrue(acknowledged.await(5, TimeUnit.SECONDS));
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (tracer.getRecordedSpans() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Span front = null;
+        for (Span span : tracer.getSpans()) {
+            if (span.getTraceContext().getParentSpanId() == 0) {
+                front = span;
+            }
+        }
+        assertNotNull(front);
+        assertEquals(Long.class.getName(), front.getMessageType());
+    }
+}
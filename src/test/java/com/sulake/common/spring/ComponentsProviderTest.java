@@ -0,0 +1,137 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.spring;
+
+import com.sulake.common.util.ComponentClassesProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link AutowiringComponentsProvider} with {@link IndexedComponentClassesProvider}.
+ *
+ * @author dmitrym
+ */
+public class ComponentsProviderTest {
+
+    public static class Dependency {
+    }
+
+    public static class FirstHandler {
+        @Autowired
+        Dependency dependency;
+    }
+
+    public static class SecondHandler {
+        @Autowired
+        Dependency dependency;
+    }
+
+    private File indexDirectory;
+
+    private DefaultListableBeanFactory beanFactory;
+
+    @Before
+    public void setUp() throws IOException {
+        indexDirectory = File.createTempFile("components", "");
+        assertTrue(indexDirectory.delete());
+        assertTrue(new File(indexDirectory, IndexedComponentClassesProvider.INDEX_LOCATION).mkdirs());
+
+        beanFactory = new DefaultListableBeanFactory();
+        AutowiredAnnotationBeanPostProcessor autowiredProcessor = new AutowiredAnnotationBeanPostProcessor();
+        autowiredProcessor.setBeanFactory(beanFactory);
+        beanFactory.addBeanPostProcessor(autowiredProcessor);
+        beanFactory.registerSingleton("dependency", new Dependency());
+    }
+
+    @After
+    public void tearDown() {
+        File index = new File(indexDirectory, IndexedComponentClassesProvider.INDEX_LOCATION + "handlers");
+        index.delete();
+        index.getParentFile().delete();
+        index.getParentFile().getParentFile().delete();
+        indexDirectory.delete();
+    }
+
+    @Test
+    public void testIndexedComponentsAreCreatedInParallel() throws Exception {
+        List<Class<?>> handlerClasses = new ArrayList<Class<?>>();
+        for (int i = 0; i < 50; i++) {
+            handlerClasses.add(i % 2 == 0 ? FirstHandler.class : SecondHandler.class);
+        }
+        writeIndex(Arrays.<Class<?>>asList(FirstHandler.class, SecondHandler.class));
+
+        IndexedComponentClassesProvider classesProvider = new IndexedComponentClassesProvider("handlers");
+        classesProvider.setClassLoader(new URLClassLoader(new URL[]{indexDirectory.toURI().toURL()},
+                getClass().getClassLoader()));
+        assertEquals(Arrays.<Class<?>>asList(FirstHandler.class, SecondHandler.class),
+                new ArrayList<Class<?>>(classesProvider.getComponentClasses()));
+
+        ClasspathScanningHelper helper = new ClasspathScanningHelper();
+        helper.setBeanFactory(beanFactory);
+        helper.setParallelism(4);
+        Collection<Object> handlers = helper.autowire(handlerClasses);
+        assertEquals(handlerClasses.size(), handlers.size());
+        int i = 0;
+        for (Object handler : handlers) {
+            assertSame(handlerClasses.get(i++), handler.getClass());
+            Dependency dependency = handler instanceof FirstHandler ? ((FirstHandler) handler).dependency
+                    : ((SecondHandler) handler).dependency;
+            assertSame(beanFactory.getBean(Dependency.class), dependency);
+        }
+    }
+
+    @Test
+    public void testComponentClassesAreResolvedOnce() {
+        final AtomicInteger resolved = new AtomicInteger();
+        AutowiringComponentsProvider provider = new AutowiringComponentsProvider();
+        ClasspathScanningHelper helper = new ClasspathScanningHelper();
+        helper.setBeanFactory(beanFactory);
+        provider.setClasspathScanningHelper(helper);
+        provider.setComponentClassesProvider(new ComponentClassesProvider() {
+            @Override
+            public Collection<Class<?>> getComponentClasses() {
+                resolved.incrementAndGet();
+                return Arrays.<Class<?>>asList(FirstHandler.class);
+            }
+        });
+
+        Collection<FirstHandler> first = provider.getComponents();
+        Collection<FirstHandler> second = provider.getComponents();
+        assertEquals(1, resolved.get());
+        assertNotSame(first.iterator().next(), second.iterator().next());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissingIndexIsReported() {
+        new IndexedComponentClassesProvider("missing").getComponentClasses();
+    }
+
+    private void writeIndex(Collection<Class<?>> classes) throws IOException {
+        Writer writer = new FileWriter(new File(indexDirectory, IndexedComponentClassesProvider.INDEX_LOCATION + "handlers"));
+        try {
+            IndexedComponentClassesProvider.writeIndex(classes, writer);
+        }
+        finally {
+            writer.close();
+        }
+    }
+}
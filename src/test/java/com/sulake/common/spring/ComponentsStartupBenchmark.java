@@ -0,0 +1,212 @@
+/**
+ * Copyright 2012 Sulake Oy.
+ */
+package com.sulake.common.spring;
+
+import com.sulake.common.util.ComponentClassesProvider;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.context.annotation.CommonAnnotationBeanPostProcessor;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.type.filter.RegexPatternTypeFilter;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Compares startup time of synthetic set of handler components: classpath
+ * scanning with sequential creation against {@link IndexedComponentClassesProvider}
+ * with sequential and parallel {@link ClasspathScanningHelper}. Handler
+ * classes are generated and compiled at start, each run uses fresh class
+ * loader so that class loading is measured too. Run manually, e.g.:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/classes:target/test-classes:$(cat target/classpath.txt) \
+ *     com.sulake.common.spring.ComponentsStartupBenchmark 1000 200
+ * </pre>
+ *
+ * @author dmitrym
+ */
+public class ComponentsStartupBenchmark {
+
+    private static final int DEFAULT_HANDLERS = 1000;
+
+    private static final int DEFAULT_INIT_MICROS = 200;
+
+    private static final String PACKAGE = "startupbenchmark";
+
+    private static final String INDEX_NAME = "handlers";
+
+    private static final int RUNS = 5;
+
+    /**
+     * Dependency of every handler; simulates initialization work.
+     */
+    public static class Registry {
+
+        private final long initNanos;
+
+        private final AtomicLong registered = new AtomicLong();
+
+        public Registry(long initNanos) {
+            this.initNanos = initNanos;
+        }
+
+        public void register(Object handler) {
+            long deadline = System.nanoTime() + initNanos;
+            while (System.nanoTime() < deadline) {
+                // busy, like parsing configuration
+            }
+            registered.incrementAndGet();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int handlers = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_HANDLERS;
+        int initMicros = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_INIT_MICROS;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+
+        File directory = File.createTempFile("handlers", "");
+        if (!directory.delete() || !new File(directory, PACKAGE).mkdirs()
+                || !new File(directory, IndexedComponentClassesProvider.INDEX_LOCATION).mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        generateHandlers(directory, handlers);
+
+        System.out.println(handlers + " handlers, " + initMicros + " us init each, parallelism " + parallelism);
+        for (int run = 0; run < RUNS; run++) {
+            long scanning = measure(directory, false, 1, initMicros, handlers);
+            long indexed = measure(directory, true, 1, initMicros, handlers);
+            long parallel = measure(directory, true, parallelism, initMicros, handlers);
+            System.out.printf("run %d: scanning %d ms, index %d ms, index + parallel %d ms%n",
+                    run, scanning, indexed, parallel);
+        }
+    }
+
+    private static void generateHandlers(File directory, int handlers) throws IOException {
+        List<String> sources = new ArrayList<String>(handlers);
+        for (int i = 0; i < handlers; i++) {
+            File source = new File(directory, PACKAGE + "/Handler" + i + ".java");
+            Writer writer = new FileWriter(source);
+            try {
+                writer.write("package " + PACKAGE + ";\n"
+                        + "public class Handler" + i + " {\n"
+                        + "    @org.springframework.beans.factory.annotation.Autowired\n"
+                        + "    " + Registry.class.getCanonicalName() + " registry;\n"
+                        + "    @javax.annotation.PostConstruct\n"
+                        + "    public void init() { registry.register(this); }\n"
+                        + "    public String handle(String message) { return message + " + i + "; }\n"
+                        + "}\n");
+            }
+            finally {
+                writer.close();
+            }
+            sources.add(source.getPath());
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("Benchmark must be run with JDK");
+        }
+        List<String> arguments = new ArrayList<String>();
+        arguments.add("-cp");
+        arguments.add(System.getProperty("java.class.path"));
+        arguments.add("-d");
+        arguments.add(directory.getPath());
+        arguments.addAll(sources);
+        if (compiler.run(null, null, null, arguments.toArray(new String[arguments.size()])) != 0) {
+            throw new IllegalStateException("Failed to compile handlers");
+        }
+
+        // build step of application
+        ClassLoader classLoader = newClassLoader(directory);
+        Writer writer = new FileWriter(new File(directory, IndexedComponentClassesProvider.INDEX_LOCATION + INDEX_NAME));
+        try {
+            IndexedComponentClassesProvider.writeIndex(new ScanningProvider(classLoader).getComponentClasses(), writer);
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    private static long measure(File directory, boolean indexed, int parallelism, int initMicros, int handlers)
+            throws IOException {
+        ClassLoader classLoader = newClassLoader(directory);
+        Registry registry = new Registry(initMicros * 1000L);
+
+        long start = System.nanoTime();
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        AutowiredAnnotationBeanPostProcessor autowiredProcessor = new AutowiredAnnotationBeanPostProcessor();
+        autowiredProcessor.setBeanFactory(beanFactory);
+        beanFactory.addBeanPostProcessor(autowiredProcessor);
+        beanFactory.addBeanPostProcessor(new CommonAnnotationBeanPostProcessor());
+        beanFactory.registerSingleton("registry", registry);
+
+        ClasspathScanningHelper helper = new ClasspathScanningHelper();
+        helper.setBeanFactory(beanFactory);
+        helper.setParallelism(parallelism);
+        AutowiringComponentsProvider provider = new AutowiringComponentsProvider();
+        provider.setClasspathScanningHelper(helper);
+        if (indexed) {
+            IndexedComponentClassesProvider classesProvider = new IndexedComponentClassesProvider(INDEX_NAME);
+            classesProvider.setClassLoader(classLoader);
+            provider.setComponentClassesProvider(classesProvider);
+        }
+        else {
+            provider.setComponentClassesProvider(new ScanningProvider(classLoader));
+        }
+        Collection<Object> components = provider.getComponents();
+        long elapsed = System.nanoTime() - start;
+
+        if (components.size() != handlers || registry.registered.get() != handlers) {
+            throw new IllegalStateException("Created " + components.size() + " of " + handlers);
+        }
+        return elapsed / 1000000;
+    }
+
+    private static ClassLoader newClassLoader(File directory) throws IOException {
+        return new URLClassLoader(new URL[]{directory.toURI().toURL()}, ComponentsStartupBenchmark.class.getClassLoader());
+    }
+
+    /**
+     * Classpath scanning as done without index.
+     */
+    private static class ScanningProvider implements ComponentClassesProvider {
+
+        private final ClassLoader classLoader;
+
+        private ScanningProvider(ClassLoader classLoader) {
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        public Collection<Class<?>> getComponentClasses() {
+            ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false);
+            scanner.setResourceLoader(new DefaultResourceLoader(classLoader));
+            scanner.addIncludeFilter(new RegexPatternTypeFilter(Pattern.compile(PACKAGE + "\\.Handler.*")));
+            List<Class<?>> classes = new ArrayList<Class<?>>();
+            for (BeanDefinition definition : scanner.findCandidateComponents(PACKAGE)) {
+                try {
+                    classes.add(Class.forName(definition.getBeanClassName(), true, classLoader));
+                }
+                catch (ClassNotFoundException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+            return classes;
+        }
+    }
+}